@@ -1,14 +1,21 @@
 package com.cs425.Messages;
 
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.Delta;
 import com.cs425.membership.MembershipList.MemberListEntry;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
 public class FileMessage implements Serializable {
+    // Sent by position, new types go at the end
     public enum MessageType {
         Get,
         Put,
@@ -21,15 +28,60 @@ public class FileMessage implements Serializable {
         Ok,
         Fail,
         FileExists,
-        CoordinatorStoreRequest
+        CoordinatorStoreRequest,
+        Stat,
+        GetRange,
+        ChainPut,
+        Append,
+        GetDelta,
+        StoreReport,
+        // Reply to a request turned away because the server's queue for it is full, the client may retry
+        Busy,
+        // Replicate each of filesOnNode, fetching those packed into segments together
+        ReplicateBatch,
+        // Send each of filesOnNode packed on the file server, one after another on the same connection
+        GetPacked,
+        // The sending node no longer stores filesOnNode, lost with a failed storage volume
+        Lost,
+        // Store file as erasure coded shards, shard i on nodes[i], replying with the version's length
+        Encode,
+        // Remove the full replica of file, which is now stored as erasure coded shards
+        DropReplica,
+        // Holders of the shards of erasure coded file by index in versionData, and the version's length
+        GetStripe,
+        // Rebuild shard file from the shards held by the nodes in versionData, and store it
+        RebuildShard,
+        // Stop storing each of filesOnNode, versions expired by the retention policy, along with their shards
+        DeleteBatch,
+        // To the coordinator: reserve a version of each of filesOnNode, replying with the nodes to put each on
+        // in placements. To a file server: store each of filesOnNode, sent one after another on the connection
+        PutBatch,
+        // To the coordinator: the holders of the latest version of every file whose name starts with file, in
+        // placements. To a file server: send each of filesOnNode, one after another on the connection
+        GetBatch
     }
 
+    // Sent by position, new destinations go at the end
     public enum Destination {
         Coordinator,
         FileServer,
         Client
     }
 
+    // Flags of the fields present in an encoded message, see write
+    private static final int HAS_FILE = 1;
+    private static final int HAS_NODES = 1 << 1;
+    private static final int HAS_VERSION_DATA = 1 << 2;
+    private static final int HAS_FILES_ON_NODE = 1 << 3;
+    private static final int HAS_CHECKSUMS = 1 << 4;
+    private static final int HAS_BASE_FILE = 1 << 5;
+    private static final int HAS_DELTA = 1 << 6;
+    private static final int COMPRESSED = 1 << 7;
+    private static final int BACKGROUND = 1 << 8;
+    private static final int HAS_PLACEMENTS = 1 << 9;
+    private static final int HAS_DELETED_VERSIONS = 1 << 10;
+    private static final int COMPLETE = 1 << 11;
+
     private FileMessage.MessageType messageType;
     private Destination destination;
 
@@ -38,13 +90,50 @@ public class FileMessage implements Serializable {
     private int version;
     private TreeMap<Integer, Set<MemberListEntry>>  versionData;
 
-    // For use with CoordinatorStoreRequest
+    // For use with CoordinatorStoreRequest and StoreReport, and the stale versions in response to StoreReport
+    // For use with ReplicateBatch and GetPacked, and the versions stored or sent in response to them
+    // For use with Lost, DeleteBatch, PutBatch and GetBatch, and the versions stored in response to PutBatch
     private Set<String> filesOnNode;
 
+    // For use with GetRange, and the file length in response to Stat, Encode and GetStripe
+    private long offset;
+    private long length;
+
+    // Checksums of the file data that follows a Put, ChainPut, Append or Ok response to a Get
+    private ChunkChecksums checksums;
+
+    // For use with Append to a file server: the stored version that is being extended
+    // For use with GetDelta: the version the requester already holds
+    private String baseFile;
+
+    // Delta that precedes its literal bytes in an Ok response to GetDelta
+    private Delta delta;
+
+    // In a request: the sender can take part in a compressed transfer
+    // In an Ok response: the file data that follows, or is to be sent, is compressed
+    private boolean compressed;
+
+    // In a request: the transfer repairs replication, so the server sends it as background traffic
+    private boolean background;
+
+    // Nodes of each of several versions: where to put them in response to PutBatch, where they are stored in
+    // response to GetBatch, and the replicas that stored them in PutOk
+    private Map<String, List<MemberListEntry>> placements;
+
+    // Latest version of each file a node has deleted, with StoreReport and in response to CoordinatorStoreRequest
+    private Set<String> deletedVersions;
+
+    // In PutOk: the last report of the put, no more of its replicas will report back
+    private boolean complete;
+
     public List<MemberListEntry> getNodes() {
         return nodes;
     }
 
+    public void setNodes(List<MemberListEntry> nodes) {
+        this.nodes = nodes;
+    }
+
     public TreeMap<Integer, Set<MemberListEntry>>  getVersionData() {
         return versionData;
     }
@@ -83,7 +172,9 @@ public class FileMessage implements Serializable {
 
     public FileMessage(FileMessage.MessageType messageType, Set<String> filesOnNode, Destination destination) {
         this.messageType = messageType;
+        this.destination = destination;
         this.filesOnNode = filesOnNode;
+        this.nodes = new ArrayList<>();
     }
 
     // For Put, PutOk, and PutFail
@@ -95,6 +186,17 @@ public class FileMessage implements Serializable {
         this.version = version;
     }
 
+    // For GetRange, and Ok response to Stat
+    public FileMessage(FileMessage.MessageType messageType, String file, long offset, long length, Destination destination) {
+        this.messageType = messageType;
+        this.destination = destination;
+        this.file = file;
+        this.nodes = new ArrayList<>();
+        this.versionData = new TreeMap<>();
+        this.offset = offset;
+        this.length = length;
+    }
+
     public FileMessage.MessageType getMessageType() {
         return messageType;
     }
@@ -114,4 +216,191 @@ public class FileMessage implements Serializable {
     public int getVersion() {
         return version;
     }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public ChunkChecksums getChecksums() {
+        return checksums;
+    }
+
+    public void setChecksums(ChunkChecksums checksums) {
+        this.checksums = checksums;
+    }
+
+    public String getBaseFile() {
+        return baseFile;
+    }
+
+    public void setBaseFile(String baseFile) {
+        this.baseFile = baseFile;
+    }
+
+    public Delta getDelta() {
+        return delta;
+    }
+
+    public void setDelta(Delta delta) {
+        this.delta = delta;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    public Map<String, List<MemberListEntry>> getPlacements() {
+        return placements;
+    }
+
+    public void setPlacements(Map<String, List<MemberListEntry>> placements) {
+        this.placements = placements;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    public Set<String> getDeletedVersions() {
+        return deletedVersions;
+    }
+
+    public void setDeletedVersions(Set<String> deletedVersions) {
+        this.deletedVersions = deletedVersions;
+    }
+
+    // Write the fields of this message for WireCodec, those left unset are only flagged as absent
+    void write(WireCodec.Writer writer) throws IOException {
+        int flags = (file != null ? HAS_FILE : 0) | (nodes != null ? HAS_NODES : 0) | (versionData != null ? HAS_VERSION_DATA : 0)
+                | (filesOnNode != null ? HAS_FILES_ON_NODE : 0) | (checksums != null ? HAS_CHECKSUMS : 0)
+                | (baseFile != null ? HAS_BASE_FILE : 0) | (delta != null ? HAS_DELTA : 0)
+                | (compressed ? COMPRESSED : 0) | (background ? BACKGROUND : 0) | (placements != null ? HAS_PLACEMENTS : 0)
+                | (deletedVersions != null ? HAS_DELETED_VERSIONS : 0) | (complete ? COMPLETE : 0);
+        writer.writeByte(messageType.ordinal());
+        writer.writeByte(destination.ordinal());
+        writer.writeVarLong(flags);
+        writer.writeSignedVarLong(version);
+        writer.writeSignedVarLong(offset);
+        writer.writeSignedVarLong(length);
+        if (file != null) {
+            writer.writeString(file);
+        }
+        if (nodes != null) {
+            writer.writeNodes(nodes);
+        }
+        if (versionData != null) {
+            writer.writeVarLong(versionData.size());
+            for (Map.Entry<Integer, Set<MemberListEntry>> entry: versionData.entrySet()) {
+                writer.writeSignedVarLong(entry.getKey());
+                writer.writeNodes(entry.getValue() == null ? null : new ArrayList<>(entry.getValue()));
+            }
+        }
+        if (filesOnNode != null) {
+            List<String> files = new ArrayList<>(filesOnNode);
+            writer.writeVarLong(files.size());
+            for (String fileOnNode: files) {
+                writer.writeString(fileOnNode);
+            }
+        }
+        if (checksums != null) {
+            checksums.write(writer.getOutput());
+        }
+        if (baseFile != null) {
+            writer.writeString(baseFile);
+        }
+        if (delta != null) {
+            delta.write(writer.getOutput());
+        }
+        if (placements != null) {
+            writer.writeVarLong(placements.size());
+            for (Map.Entry<String, List<MemberListEntry>> entry: placements.entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.writeNodes(entry.getValue());
+            }
+        }
+        if (deletedVersions != null) {
+            List<String> deleted = new ArrayList<>(deletedVersions);
+            writer.writeVarLong(deleted.size());
+            for (String deletedVersion: deleted) {
+                writer.writeString(deletedVersion);
+            }
+        }
+    }
+
+    // Read a message written by write
+    static FileMessage read(WireCodec.Reader reader) throws IOException {
+        FileMessage message = new FileMessage(reader.readEnum(MessageType.values()), reader.readEnum(Destination.values()));
+        int flags = (int) reader.readVarLong();
+        message.version = (int) reader.readSignedVarLong();
+        message.offset = reader.readSignedVarLong();
+        message.length = reader.readSignedVarLong();
+        message.file = (flags & HAS_FILE) != 0 ? reader.readString() : null;
+        message.nodes = (flags & HAS_NODES) != 0 ? reader.readNodes() : null;
+        message.versionData = null;
+        if ((flags & HAS_VERSION_DATA) != 0) {
+            message.versionData = new TreeMap<>();
+            for (int i = reader.readLength(); i > 0; i--) {
+                int version = (int) reader.readSignedVarLong();
+                List<MemberListEntry> holders = reader.readNodes();
+                message.versionData.put(version, holders == null ? null : new HashSet<>(holders));
+            }
+        }
+        if ((flags & HAS_FILES_ON_NODE) != 0) {
+            message.filesOnNode = new HashSet<>();
+            for (int i = reader.readLength(); i > 0; i--) {
+                message.filesOnNode.add(reader.readString());
+            }
+        }
+        if ((flags & HAS_CHECKSUMS) != 0) {
+            message.checksums = ChunkChecksums.read(reader.getInput());
+        }
+        if ((flags & HAS_BASE_FILE) != 0) {
+            message.baseFile = reader.readString();
+        }
+        if ((flags & HAS_DELTA) != 0) {
+            message.delta = Delta.read(reader.getInput());
+        }
+        if ((flags & HAS_PLACEMENTS) != 0) {
+            message.placements = new HashMap<>();
+            for (int i = reader.readLength(); i > 0; i--) {
+                String file = reader.readString();
+                List<MemberListEntry> nodes = reader.readNodes();
+                message.placements.put(file, nodes == null ? new ArrayList<>() : nodes);
+            }
+        }
+        if ((flags & HAS_DELETED_VERSIONS) != 0) {
+            message.deletedVersions = new HashSet<>();
+            for (int i = reader.readLength(); i > 0; i--) {
+                message.deletedVersions.add(reader.readString());
+            }
+        }
+        message.compressed = (flags & COMPRESSED) != 0;
+        message.background = (flags & BACKGROUND) != 0;
+        message.complete = (flags & COMPLETE) != 0;
+        return message;
+    }
 }
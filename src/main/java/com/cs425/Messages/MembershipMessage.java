@@ -8,6 +8,7 @@ import com.cs425.membership.MembershipList.MemberListEntry;
  * Communication message. Contains message type and the member details
  */
 public class MembershipMessage implements Serializable {
+    // Sent by position, new types go at the end
     public enum MessageType {
         Join,
         Leave,
@@ -0,0 +1,54 @@
+package com.cs425.Messages;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Object stream that reads the WireCodec frames written by a MessageOutputStream.
+ * It reads no further than the end of each frame, so file data that follows a message on a socket is left alone.
+ */
+public class MessageInputStream extends ObjectInputStream {
+    // Largest message accepted, a longer frame is taken for a corrupt stream
+    public static final int MAX_MESSAGE_SIZE = 16 << 20;
+
+    private final DataInputStream input;
+
+    public MessageInputStream(InputStream input) throws IOException {
+        super();
+        this.input = new DataInputStream(input);
+    }
+
+    @Override
+    protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_MESSAGE_SIZE) {
+            throw new StreamCorruptedException("Message of " + length + " bytes");
+        }
+        byte[] encoded = new byte[length];
+        input.readFully(encoded);
+        return WireCodec.decode(encoded);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return input.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        return input.read(bytes, offset, length);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return input.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
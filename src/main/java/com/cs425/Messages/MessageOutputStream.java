@@ -0,0 +1,52 @@
+package com.cs425.Messages;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Object stream that writes each object as a WireCodec frame: its encoded length, then its encoding.
+ * Used wherever members talk to each other, so the code on both ends can keep reading and writing objects.
+ * A frame goes to the underlying stream in a single write, and nothing is written before the first one.
+ */
+public class MessageOutputStream extends ObjectOutputStream {
+    private final DataOutputStream output;
+
+    public MessageOutputStream(OutputStream output) throws IOException {
+        super();
+        this.output = new DataOutputStream(output);
+    }
+
+    @Override
+    protected void writeObjectOverride(Object message) throws IOException {
+        byte[] encoded = WireCodec.encode(message);
+        byte[] frame = new byte[Integer.BYTES + encoded.length];
+        frame[0] = (byte) (encoded.length >>> 24);
+        frame[1] = (byte) (encoded.length >>> 16);
+        frame[2] = (byte) (encoded.length >>> 8);
+        frame[3] = (byte) encoded.length;
+        System.arraycopy(encoded, 0, frame, Integer.BYTES, encoded.length);
+        output.write(frame);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        output.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        output.write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
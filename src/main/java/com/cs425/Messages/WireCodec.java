@@ -0,0 +1,344 @@
+package com.cs425.Messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cs425.membership.MembershipList.MemberList;
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * Binary encoding of the messages members exchange, written by hand for each message type.
+ * An encoded message is a format version, a type tag and the fields of the message. Within one message each node
+ * is written in full once and referred to by its index after that, and decoded nodes are shared with earlier
+ * messages naming the same node. Objects of other types fall back to Java serialization.
+ * Over a stream, messages are sent as frames of their length then their encoding, see MessageOutputStream.
+ */
+public class WireCodec {
+    public static final byte VERSION = 1;
+
+    // Type tags
+    private static final byte NULL = 0;
+    private static final byte FILE_MESSAGE = 1;
+    private static final byte MEMBERSHIP_MESSAGE = 2;
+    private static final byte MEMBER_LIST_ENTRY = 3;
+    private static final byte MEMBER_LIST = 4;
+    private static final byte SERIALIZED = 5;
+
+    // Most nodes remembered for sharing between decoded messages, the cache starts over once it holds more
+    private static final int MAX_INTERNED_NODES = 4096;
+    private static final Map<MemberListEntry, MemberListEntry> internedNodes = new ConcurrentHashMap<>();
+
+    public static byte[] encode(Object message) throws IOException {
+        Writer writer = new Writer();
+        writer.writeByte(VERSION);
+        writer.writeMessage(message);
+        return writer.toByteArray();
+    }
+
+    public static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public static Object decode(byte[] bytes, int offset, int length) throws IOException, ClassNotFoundException {
+        Reader reader = new Reader(bytes, offset, length);
+        byte version = reader.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported message format version " + version);
+        }
+        return reader.readMessage();
+    }
+
+    // Same node as entry, decoded earlier
+    private static MemberListEntry intern(MemberListEntry entry) {
+        if (internedNodes.size() >= MAX_INTERNED_NODES) {
+            internedNodes.clear();
+        }
+        MemberListEntry interned = internedNodes.putIfAbsent(entry, entry);
+        return interned != null ? interned : entry;
+    }
+
+    /**
+     * Writes the fields of a message.
+     */
+    public static class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream output = new DataOutputStream(bytes);
+        // Index of each node already written
+        private final Map<MemberListEntry, Integer> nodes = new HashMap<>();
+
+        private Writer() {
+        }
+
+        private byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        // For types that write themselves, such as ChunkChecksums
+        public DataOutput getOutput() {
+            return output;
+        }
+
+        private void writeMessage(Object message) throws IOException {
+            if (message == null) {
+                writeByte(NULL);
+            } else if (message instanceof FileMessage) {
+                writeByte(FILE_MESSAGE);
+                ((FileMessage) message).write(this);
+            } else if (message instanceof MembershipMessage) {
+                MembershipMessage membershipMessage = (MembershipMessage) message;
+                writeByte(MEMBERSHIP_MESSAGE);
+                writeByte(membershipMessage.getMessageType().ordinal());
+                writeNode(membershipMessage.getSubjectEntry());
+            } else if (message instanceof MemberListEntry) {
+                writeByte(MEMBER_LIST_ENTRY);
+                writeNode((MemberListEntry) message);
+            } else if (message instanceof MemberList) {
+                MemberList memberList = (MemberList) message;
+                writeByte(MEMBER_LIST);
+                writeNode(memberList.getOwner());
+                writeNode(memberList.getCoordinator());
+                writeNodes(memberList.getMemberList());
+            } else {
+                writeByte(SERIALIZED);
+                ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+                try (ObjectOutputStream objectOutput = new ObjectOutputStream(serialized)) {
+                    objectOutput.writeObject(message);
+                }
+                writeVarLong(serialized.size());
+                serialized.writeTo(output);
+            }
+        }
+
+        public void writeByte(int value) throws IOException {
+            output.writeByte(value);
+        }
+
+        public void writeBoolean(boolean value) throws IOException {
+            output.writeBoolean(value);
+        }
+
+        public void writeInt(int value) throws IOException {
+            output.writeInt(value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            output.writeLong(value);
+        }
+
+        // Unsigned variable length integer, 7 bits a byte
+        public void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                output.writeByte((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            output.writeByte((int) value);
+        }
+
+        // Zig-zag encoded, so small negative values are short too
+        public void writeSignedVarLong(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        public void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1);
+            output.write(utf8);
+        }
+
+        public void writeNode(MemberListEntry node) throws IOException {
+            if (node == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer index = nodes.get(node);
+            if (index != null) {
+                writeVarLong(index + 1);
+                return;
+            }
+            // The next index, followed by the node itself
+            nodes.put(node, nodes.size());
+            writeVarLong(nodes.size());
+            writeString(node.getHostname());
+            writeVarLong(node.getPort());
+            writeLong(node.getTimestamp().getTime());
+        }
+
+        public void writeNodes(List<MemberListEntry> nodes) throws IOException {
+            if (nodes == null) {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(nodes.size() + 1);
+            for (MemberListEntry node: nodes) {
+                writeNode(node);
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a message, in the order its Writer wrote them.
+     */
+    public static class Reader {
+        private final DataInputStream input;
+        private final List<MemberListEntry> nodes = new ArrayList<>();
+
+        private Reader(byte[] bytes, int offset, int length) {
+            input = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+        }
+
+        // For types that read themselves, such as ChunkChecksums
+        public DataInput getInput() {
+            return input;
+        }
+
+        private Object readMessage() throws IOException, ClassNotFoundException {
+            byte tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case FILE_MESSAGE:
+                    return FileMessage.read(this);
+                case MEMBERSHIP_MESSAGE:
+                    MembershipMessage.MessageType type = readEnum(MembershipMessage.MessageType.values());
+                    return new MembershipMessage(type, readNode());
+                case MEMBER_LIST_ENTRY:
+                    return readNode();
+                case MEMBER_LIST:
+                    MemberList memberList = new MemberList(readNode());
+                    MemberListEntry coordinator = readNode();
+                    for (MemberListEntry node: readNodes()) {
+                        memberList.addEntry(node);
+                    }
+                    if (coordinator != null) {
+                        memberList.updateCoordinator(coordinator);
+                    }
+                    return memberList;
+                case SERIALIZED:
+                    byte[] serialized = new byte[readLength()];
+                    input.readFully(serialized);
+                    try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                        return objectInput.readObject();
+                    }
+                default:
+                    throw new StreamCorruptedException("Unknown message type " + tag);
+            }
+        }
+
+        public byte readByte() throws IOException {
+            return input.readByte();
+        }
+
+        public boolean readBoolean() throws IOException {
+            return input.readBoolean();
+        }
+
+        public int readInt() throws IOException {
+            return input.readInt();
+        }
+
+        public long readLong() throws IOException {
+            return input.readLong();
+        }
+
+        public long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = input.readUnsignedByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable length integer");
+        }
+
+        public long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        // Length of something that follows, checked against the bytes left so a corrupt one cannot exhaust memory
+        public int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > input.available()) {
+                throw new EOFException("Length " + length + " past the end of the message");
+            }
+            return (int) length;
+        }
+
+        public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+            int ordinal = input.readUnsignedByte();
+            if (ordinal >= values.length) {
+                throw new StreamCorruptedException("Unknown " + values[0].getDeclaringClass().getSimpleName() + " " + ordinal);
+            }
+            return values[ordinal];
+        }
+
+        public String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            if (length - 1 > input.available()) {
+                throw new EOFException("String past the end of the message");
+            }
+            byte[] utf8 = new byte[(int) (length - 1)];
+            input.readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        public MemberListEntry readNode() throws IOException {
+            long reference = readVarLong();
+            if (reference == 0) {
+                return null;
+            }
+            if (reference <= nodes.size()) {
+                return nodes.get((int) reference - 1);
+            }
+            if (reference != nodes.size() + 1) {
+                throw new StreamCorruptedException("Reference to unknown node " + reference);
+            }
+            String hostname = readString();
+            int port = (int) readVarLong();
+            Date timestamp = new Date(readLong());
+            MemberListEntry node = intern(new MemberListEntry(hostname, port, timestamp));
+            nodes.add(node);
+            return node;
+        }
+
+        public List<MemberListEntry> readNodes() throws IOException {
+            long count = readVarLong();
+            if (count == 0) {
+                return null;
+            }
+            if (count - 1 > input.available()) {
+                throw new EOFException("Node list past the end of the message");
+            }
+            List<MemberListEntry> nodes = new ArrayList<>((int) count - 1);
+            for (long i = 1; i < count; i++) {
+                nodes.add(readNode());
+            }
+            return nodes;
+        }
+    }
+}
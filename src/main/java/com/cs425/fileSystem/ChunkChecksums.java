@@ -0,0 +1,244 @@
+package com.cs425.fileSystem;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Per-chunk CRC32C checksums of a stored file.
+ * Saved in a sidecar file next to each version and sent along with transfers,
+ * so data can be verified chunk by chunk while it streams.
+ */
+public class ChunkChecksums implements Serializable {
+    public static final int CHUNK_SIZE = 1 << 20;
+    public static final String SUFFIX = ".crc";
+
+    private long length;
+    private int[] crcs;
+
+    public ChunkChecksums(long length, int[] crcs) {
+        this.length = length;
+        this.crcs = crcs;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    // Compute checksums of the file at path
+    public static ChunkChecksums compute(String path) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long length = file.size();
+            int[] crcs = new int[chunkCount(length)];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            CRC32C crc = new CRC32C();
+
+            for (int i = 0; i < crcs.length; i++) {
+                // Read whole chunk, the last one may be short
+                long offset = (long) i * CHUNK_SIZE;
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, offset + buffer.position()) <= 0) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                crc.reset();
+                crc.update(buffer);
+                crcs[i] = (int) crc.getValue();
+            }
+            return new ChunkChecksums(length, crcs);
+        }
+    }
+
+    // Compute checksums of a stored version
+    public static ChunkChecksums compute(StoredVersion version) throws IOException {
+        return extend(new ChunkChecksums(0, new int[0]), version);
+    }
+
+    // Compute checksums of a version that extends the version base has checksums for
+    // Chunks that lie entirely within the base are reused, only the last partial one and the new bytes are read
+    public static ChunkChecksums extend(ChunkChecksums base, StoredVersion version) throws IOException {
+        long length = version.getLength();
+        int reused = (int) (base.length / CHUNK_SIZE);
+        int[] crcs = Arrays.copyOf(base.crcs, chunkCount(length));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        CRC32C crc = new CRC32C();
+
+        for (int i = reused; i < crcs.length; i++) {
+            long offset = (long) i * CHUNK_SIZE;
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                if (version.read(buffer, offset + buffer.position()) <= 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            crc.reset();
+            crc.update(buffer);
+            crcs[i] = (int) crc.getValue();
+        }
+        return new ChunkChecksums(length, crcs);
+    }
+
+    // Load checksums saved next to the file at path, or null if there are none
+    public static ChunkChecksums load(String path) {
+        File sidecar = new File(path + SUFFIX);
+        if (!sidecar.exists()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new FileInputStream(sidecar))) {
+            return read(input);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Save checksums next to the file at path
+    public void save(String path) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(path + SUFFIX))) {
+            write(output);
+        }
+    }
+
+    // Write checksums to output, as saved and as sent in messages
+    public void write(DataOutput output) throws IOException {
+        output.writeLong(length);
+        output.writeInt(crcs.length);
+        for (int crc: crcs) {
+            output.writeInt(crc);
+        }
+    }
+
+    // Read checksums written by write
+    public static ChunkChecksums read(DataInput input) throws IOException {
+        long length = input.readLong();
+        int count = input.readInt();
+        if (count < 0 || count != chunkCount(length)) {
+            throw new IOException("Checksum count " + count + " does not match length " + length);
+        }
+        int[] crcs = new int[count];
+        for (int i = 0; i < crcs.length; i++) {
+            crcs[i] = input.readInt();
+        }
+        return new ChunkChecksums(length, crcs);
+    }
+
+    // Length of the longest prefix of the file at path that is whole chunks matching these checksums
+    // The whole length if the file matches completely
+    public long verifiedPrefix(String path) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            CRC32C crc = new CRC32C();
+            long position = 0;
+            for (int chunk = 0; chunk < crcs.length; chunk++) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, length - position));
+                while (buffer.hasRemaining()) {
+                    if (file.read(buffer, position + buffer.position()) <= 0) {
+                        break;
+                    }
+                }
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                buffer.flip();
+                crc.reset();
+                crc.update(buffer);
+                if ((int) crc.getValue() != crcs[chunk]) {
+                    break;
+                }
+                position += buffer.limit();
+            }
+            return position;
+        }
+    }
+
+    // Verifier for data streamed from offset, which must be on a chunk boundary
+    public Verifier verifier(long offset) {
+        assert offset % CHUNK_SIZE == 0 : "Verification must start on a chunk boundary";
+        return new Verifier(offset);
+    }
+
+    @Override
+    public boolean equals(Object otherObj) {
+        if (!(otherObj instanceof ChunkChecksums)) {
+            return false;
+        }
+
+        ChunkChecksums other = (ChunkChecksums) otherObj;
+        return this.length == other.length && Arrays.equals(this.crcs, other.crcs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(crcs);
+    }
+
+    private static int chunkCount(long length) {
+        return (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    /**
+     * Checks consecutive bytes of the file against the stored checksums as they arrive.
+     * Each chunk is compared as soon as its last byte (or the last byte of the file) is seen.
+     */
+    public class Verifier {
+        private final CRC32C crc = new CRC32C();
+        private long position;
+        private long verified;
+
+        private Verifier(long offset) {
+            this.position = offset;
+            this.verified = offset;
+        }
+
+        // Verify the remaining bytes of data. Does not change data's position
+        public void update(ByteBuffer data) throws IOException {
+            ByteBuffer view = data.duplicate();
+            while (view.hasRemaining()) {
+                if (position >= length) {
+                    throw new IOException("Checksum mismatch: received more than " + length + " bytes");
+                }
+
+                // Bytes until end of current chunk
+                long chunkEnd = Math.min(length, (position / CHUNK_SIZE + 1) * CHUNK_SIZE);
+                int take = (int) Math.min(view.remaining(), chunkEnd - position);
+
+                ByteBuffer slice = view.duplicate();
+                slice.limit(slice.position() + take);
+                crc.update(slice);
+                view.position(view.position() + take);
+                position += take;
+
+                if (position == chunkEnd) {
+                    int chunk = (int) ((position - 1) / CHUNK_SIZE);
+                    if ((int) crc.getValue() != crcs[chunk]) {
+                        throw new IOException("Checksum mismatch in chunk " + chunk);
+                    }
+                    verified = position;
+                    crc.reset();
+                }
+            }
+        }
+
+        // Position in the file up to which every chunk has been verified
+        public long getVerifiedPosition() {
+            return verified;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.cs425.fileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * On-disk cache of versions this node has fetched with get, so reading the same version again needs no transfer.
+ * Entries are keyed by stored version name, which holds both the SDFS file name and the version number, and a
+ * version never changes once stored. Least recently used entries are evicted to stay within the disk budget.
+ * Entries survive a restart: the cache directory is reloaded oldest first by modification time.
+ */
+public class ClientCache {
+    private final String directory;
+    private final long capacity;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    public ClientCache(String directory, long capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+
+        try {
+            FileUtils.forceMkdir(new File(directory));
+            File[] cached = new File(directory).listFiles();
+            Arrays.sort(cached, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    return Long.compare(first.lastModified(), second.lastModified());
+                }
+            });
+            for (File file: cached) {
+                // Copies cut short by a crash are left under a temporary name
+                if (file.getName().endsWith(".tmp")) {
+                    file.delete();
+                    continue;
+                }
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+            evict();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Copy the cached content of version to localFileName. Returns false on a miss
+    public boolean fetch(String version, String localFileName) {
+        synchronized (this) {
+            if (!entries.containsKey(version)) {
+                misses++;
+                return false;
+            }
+            hits++;
+        }
+        File cached = new File(directory + version);
+        try {
+            Files.copy(cached.toPath(), new File(localFileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            cached.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (IOException e) {
+            // Evicted while copying, the caller fetches the version instead
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Keep a copy of localFileName, just fetched as version
+    public void store(String version, String localFileName) {
+        File local = new File(localFileName);
+        if (local.length() > capacity) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(version)) {
+                return;
+            }
+        }
+
+        File temp = new File(directory + version + ".tmp");
+        try {
+            Files.copy(local.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), new File(directory + version).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            // Stored by another get while this copy was made, its size is already counted
+            if (entries.containsKey(version)) {
+                return;
+            }
+            entries.put(version, local.length());
+            size += local.length();
+            evict();
+        }
+    }
+
+    // Drop every cached version of sdfsFileName
+    public synchronized void invalidate(String sdfsFileName) {
+        for (Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (Coordinator.deconstructFileWithDelimiter(entry.getKey()).getLeft().equals(sdfsFileName)) {
+                new File(directory + entry.getKey()).delete();
+                size -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Client cache: " + entries.size() + " versions, " + size + " of " + capacity + " bytes\n"
+                + "Hits: " + hits + ", misses: " + misses;
+    }
+
+    private synchronized void evict() {
+        for (Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator(); size > capacity && iterator.hasNext();) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(directory + entry.getKey()).delete();
+            size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.cs425.fileSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * A version stored as Reed-Solomon shards, one on each of several file servers, instead of as full replicas.
+ * Shard i of a version of length bytes holds bytes [i * shardLength, (i + 1) * shardLength) of it for the
+ * DATA_SHARDS data shards, zero padded past the end, followed by the PARITY_SHARDS parity shards.
+ * The coordinator keeps one of these for each coded version, with the holder of each shard.
+ *
+ * A shard is stored under its version's name, its index and the version's length, so a file server can tell
+ * what its shards are without asking, and a new coordinator can rebuild the record from the shards alone.
+ */
+public class CodedVersion {
+    public static final boolean ENABLED = SDFSConfig.getBoolean("ERASURE_CODING", true);
+    public static final int DATA_SHARDS = SDFSConfig.getInt("ERASURE_DATA_SHARDS", 6);
+    public static final int PARITY_SHARDS = SDFSConfig.getInt("ERASURE_PARITY_SHARDS", 3);
+    // Separates a version's name from a shard's index and the version's length
+    public static final char SEPARATOR = '~';
+    // Bytes of each shard coded at a time
+    private static final int BLOCK_SIZE = 1 << 20;
+    // A name followed by a shard's index and the version's length, and the base name of a version
+    private static final Pattern SHARD_NAME = Pattern.compile("(.+)" + SEPARATOR + "\\d+" + SEPARATOR + "\\d+");
+    private static final Pattern VERSION_BASE_NAME = Pattern.compile(".*" + Coordinator.DELIMITER + "\\d+");
+
+    private final long length;
+    private final int shardCount;
+    // Holder of each shard by index, a shard that was lost is missing until it is rebuilt
+    private final Map<Integer, MemberListEntry> holders = new ConcurrentHashMap<>();
+
+    public CodedVersion(long length, int shardCount) {
+        this.length = length;
+        this.shardCount = shardCount;
+    }
+
+    // Coded version with shard i on holders[i]
+    public CodedVersion(long length, List<MemberListEntry> holders) {
+        this(length, holders.size());
+        for (int i = 0; i < holders.size(); i++) {
+            this.holders.put(i, holders.get(i));
+        }
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public Map<Integer, MemberListEntry> getHolders() {
+        return holders;
+    }
+
+    // Members holding any shard
+    public Set<MemberListEntry> holderSet() {
+        return new HashSet<>(holders.values());
+    }
+
+    // Holder of each shard by index, as sent to readers and rebuilders
+    public TreeMap<Integer, Set<MemberListEntry>> toShardData() {
+        TreeMap<Integer, Set<MemberListEntry>> shardData = new TreeMap<>();
+        for (Map.Entry<Integer, MemberListEntry> entry: holders.entrySet()) {
+            Set<MemberListEntry> holder = new HashSet<>();
+            holder.add(entry.getValue());
+            shardData.put(entry.getKey(), holder);
+        }
+        return shardData;
+    }
+
+    public static String shardName(String version, int index, long length) {
+        return version + SEPARATOR + index + SEPARATOR + length;
+    }
+
+    // Whether file is a version's name followed by a shard's index and length, rather than a version of an
+    // SDFS file whose name happens to contain the separator
+    public static boolean isShard(String file) {
+        Matcher matcher = SHARD_NAME.matcher(file);
+        return matcher.matches() && VERSION_BASE_NAME.matcher(FilenameUtils.getBaseName(matcher.group(1))).matches();
+    }
+
+    public static String versionOf(String shard) {
+        return shard.substring(0, shard.lastIndexOf(SEPARATOR, shard.lastIndexOf(SEPARATOR) - 1));
+    }
+
+    public static int indexOf(String shard) {
+        int end = shard.lastIndexOf(SEPARATOR);
+        return Integer.parseInt(shard.substring(shard.lastIndexOf(SEPARATOR, end - 1) + 1, end));
+    }
+
+    public static long lengthOf(String shard) {
+        return Long.parseLong(shard.substring(shard.lastIndexOf(SEPARATOR) + 1));
+    }
+
+    // Bytes in each shard of a version of length bytes
+    public static long shardLength(long length, int dataShards) {
+        return Math.max(1, (length + dataShards - 1) / dataShards);
+    }
+
+    // Write the shards of version to shardPaths, in index order
+    public static void encode(ReedSolomon codec, StoredVersion version, List<String> shardPaths) throws IOException {
+        long length = version.getLength();
+        long shardLength = shardLength(length, codec.getDataShards());
+        List<FileChannel> outputs = new ArrayList<>();
+        try {
+            for (String path: shardPaths) {
+                outputs.add(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            }
+            byte[][] shards = new byte[codec.getShardCount()][(int) Math.min(BLOCK_SIZE, shardLength)];
+            for (long position = 0; position < shardLength; position += shards[0].length) {
+                int count = (int) Math.min(shards[0].length, shardLength - position);
+                for (int i = 0; i < codec.getDataShards(); i++) {
+                    Arrays.fill(shards[i], 0, count, (byte) 0);
+                    readFully(version, ByteBuffer.wrap(shards[i], 0, count), i * shardLength + position, length);
+                }
+                codec.encodeParity(shards, 0, count);
+                for (int i = 0; i < outputs.size(); i++) {
+                    writeFully(outputs.get(i), ByteBuffer.wrap(shards[i], 0, count), position);
+                }
+            }
+        } finally {
+            for (FileChannel output: outputs) {
+                output.close();
+            }
+        }
+    }
+
+    // Write the version of length bytes decoded from the shards at shardPaths, by index, to output
+    // At least dataShards of them are needed, and the data shards are used first
+    public static void decode(ReedSolomon codec, Map<Integer, String> shardPaths, long length, FileChannel output) throws IOException {
+        transform(codec, shardPaths, length, -1, output);
+        output.truncate(length);
+    }
+
+    // Write shard index of the version of length bytes, rebuilt from the shards at shardPaths, to output
+    public static void rebuild(ReedSolomon codec, Map<Integer, String> shardPaths, long length, int index, FileChannel output) throws IOException {
+        transform(codec, shardPaths, length, index, output);
+    }
+
+    // Reconstruct what is missing from dataShards of the shards a block at a time, writing either the whole
+    // version or only shard index to output
+    private static void transform(ReedSolomon codec, Map<Integer, String> shardPaths, long length, int index, FileChannel output) throws IOException {
+        long shardLength = shardLength(length, codec.getDataShards());
+        boolean[] present = new boolean[codec.getShardCount()];
+        FileChannel[] inputs = new FileChannel[codec.getShardCount()];
+        int opened = 0;
+        try {
+            for (int i = 0; i < present.length && opened < codec.getDataShards(); i++) {
+                if (shardPaths.containsKey(i)) {
+                    inputs[i] = FileChannel.open(Paths.get(shardPaths.get(i)), StandardOpenOption.READ);
+                    present[i] = true;
+                    opened++;
+                }
+            }
+            if (opened < codec.getDataShards()) {
+                throw new IOException("Only " + opened + " of the " + codec.getDataShards() + " shards needed to decode");
+            }
+            boolean complete = true;
+            for (int i = 0; i < codec.getDataShards(); i++) {
+                complete &= present[i];
+            }
+
+            byte[][] shards = new byte[codec.getShardCount()][(int) Math.min(BLOCK_SIZE, shardLength)];
+            for (long position = 0; position < shardLength; position += shards[0].length) {
+                int count = (int) Math.min(shards[0].length, shardLength - position);
+                for (int i = 0; i < inputs.length; i++) {
+                    if (inputs[i] != null) {
+                        ByteBuffer buffer = ByteBuffer.wrap(shards[i], 0, count);
+                        while (buffer.hasRemaining()) {
+                            if (inputs[i].read(buffer, position + buffer.position()) < 0) {
+                                throw new IOException("Shard " + i + " is shorter than " + shardLength + " bytes");
+                            }
+                        }
+                    }
+                }
+                // With every data shard present a version is only copied out
+                if (!complete || (index >= 0 && !present[index])) {
+                    codec.reconstruct(shards, present, 0, count);
+                }
+
+                if (index >= 0) {
+                    writeFully(output, ByteBuffer.wrap(shards[index], 0, count), position);
+                    continue;
+                }
+                for (int i = 0; i < codec.getDataShards(); i++) {
+                    long start = i * shardLength + position;
+                    int within = (int) Math.max(0, Math.min(count, length - start));
+                    if (within > 0) {
+                        writeFully(output, ByteBuffer.wrap(shards[i], 0, within), start);
+                    }
+                }
+            }
+        } finally {
+            for (FileChannel input: inputs) {
+                if (input != null) {
+                    input.close();
+                }
+            }
+        }
+    }
+
+    // Read bytes of version at position into buffer, stopping at length
+    private static void readFully(StoredVersion version, ByteBuffer buffer, long position, long length) throws IOException {
+        if (position >= length) {
+            return;
+        }
+        buffer.limit((int) Math.min(buffer.limit(), buffer.position() + length - position));
+        while (buffer.hasRemaining()) {
+            int n = version.read(buffer, position);
+            if (n <= 0) {
+                throw new IOException("Version ended at byte " + position + " of " + length);
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += output.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.cs425.fileSystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed file transfers, used when both ends agree to it in the FileMessage handshake.
+ * Data is sent one chunk at a time as frames: raw length, compressed length (0 if the chunk is sent as is) and payload.
+ * A chunk that does not shrink is sent as is, and compression is not tried again for the next few chunks,
+ * so data that does not compress costs little extra CPU.
+ */
+public class Compression {
+    public static final boolean ENABLED = SDFSConfig.getBoolean("COMPRESSION", true);
+
+    private static final int CHUNK_SIZE = (int) FileTransfer.CHUNK_SIZE;
+    private static final int HEADER_SIZE = 8;
+    // Chunks sent as is after one fails to compress, before trying again
+    private static final int SKIP_CHUNKS = 16;
+
+    // Positional reads from a local file or a stored version
+    private interface Source {
+        int read(ByteBuffer buffer, long position) throws IOException;
+    }
+
+    // Send whole file at path to socket
+    public static long sendFile(Socket socket, String path) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return send(socket, new Source() {
+                @Override
+                public int read(ByteBuffer buffer, long position) throws IOException {
+                    return file.read(buffer, position);
+                }
+            }, 0, file.size());
+        }
+    }
+
+    // Send count bytes of version starting at position to socket. Returns bytes sent, before compression
+    public static long send(Socket socket, StoredVersion version, long position, long count) throws IOException {
+        return send(socket, new Source() {
+            @Override
+            public int read(ByteBuffer buffer, long position) throws IOException {
+                return version.read(buffer, position);
+            }
+        }, position, Math.min(count, version.getLength() - position));
+    }
+
+    // Send the remaining bytes of data to socket. Returns bytes sent, before compression
+    public static long send(Socket socket, ByteBuffer data) throws IOException {
+        ByteBuffer content = data.slice();
+        return send(socket, new Source() {
+            @Override
+            public int read(ByteBuffer buffer, long position) {
+                ByteBuffer slice = content.duplicate();
+                slice.position((int) position);
+                slice.limit((int) Math.min(slice.limit(), position + buffer.remaining()));
+                int n = slice.remaining();
+                buffer.put(slice);
+                return n;
+            }
+        }, 0, content.remaining());
+    }
+
+    private static long send(Socket socket, Source source, long position, long count) throws IOException {
+        WritableByteChannel out = FileTransfer.outputChannel(socket);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ByteBuffer raw = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        ByteBuffer compressed = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        int skip = 0;
+        long sent = 0;
+
+        try {
+            while (sent < count) {
+                raw.clear();
+                raw.limit((int) Math.min(CHUNK_SIZE, count - sent));
+                while (raw.hasRemaining()) {
+                    if (source.read(raw, position + sent + raw.position()) <= 0) {
+                        break;
+                    }
+                }
+                raw.flip();
+                int n = raw.remaining();
+                if (n == 0) {
+                    break;
+                }
+
+                // Keep the compressed chunk only if it saves at least an eighth
+                ByteBuffer payload = raw;
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    deflater.reset();
+                    deflater.setInput(raw.duplicate());
+                    deflater.finish();
+                    compressed.clear();
+                    deflater.deflate(compressed);
+                    if (deflater.finished() && compressed.position() < n - n / 8) {
+                        compressed.flip();
+                        payload = compressed;
+                    } else {
+                        skip = SKIP_CHUNKS;
+                    }
+                }
+
+                header.clear();
+                header.putInt(n).putInt(payload == raw ? 0 : payload.remaining());
+                header.flip();
+                while (header.hasRemaining()) {
+                    out.write(header);
+                }
+                int wireLength = HEADER_SIZE + payload.remaining();
+                while (payload.hasRemaining()) {
+                    out.write(payload);
+                }
+                sent += n;
+                TransferScheduler.throttle(wireLength);
+            }
+        } finally {
+            deflater.end();
+        }
+        return sent;
+    }
+
+    // Receive everything left on socket into file at path, replacing any existing content
+    // Same as FileTransfer.receiveFile for a compressed transfer
+    public static long receiveFile(Socket socket, String path, ChunkChecksums checksums) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long received = receiveSlice(socket, file, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE, checksums == null ? null : checksums.verifier(0));
+            if (checksums != null && received != checksums.getLength()) {
+                throw new IOException("Transfer ended after " + received + " of " + checksums.getLength() + " bytes");
+            }
+            return received;
+        }
+    }
+
+    // Receive up to count bytes from socket, storing the keep bytes that start skip bytes into the stream at position of file
+    // Same as FileTransfer.receiveSlice for a compressed transfer. Returns bytes received, after decompression
+    public static long receiveSlice(Socket socket, FileChannel file, long position, long count, long skip, long keep, ChunkChecksums.Verifier verifier) throws IOException {
+        ReadableByteChannel in = FileTransfer.inputChannel(socket);
+        Frame frame = new Frame();
+        long received = 0;
+
+        try {
+            while (received < count && frame.read(in)) {
+                if (verifier != null) {
+                    verifier.update(frame.raw);
+                }
+                FileTransfer.writeSlice(file, frame.raw, position, received, skip, keep);
+                received += frame.rawLength;
+                TransferScheduler.throttle(frame.wireLength());
+            }
+        } finally {
+            frame.end();
+        }
+        return received;
+    }
+
+    // Receive everything left on source into file, forwarding each frame to next as it arrives, still compressed
+    // Same as FileTransfer.receiveAndForward for a compressed transfer
+    public static boolean receiveAndForward(Socket source, FileChannel file, Socket next, ChunkChecksums.Verifier verifier) throws IOException {
+        ReadableByteChannel in = FileTransfer.inputChannel(source);
+        WritableByteChannel out = next != null ? FileTransfer.outputChannel(next) : null;
+        Frame frame = new Frame();
+        long position = 0;
+
+        try {
+            while (frame.read(in)) {
+                if (verifier != null) {
+                    verifier.update(frame.raw);
+                }
+
+                // Forward frame downstream before writing locally so the next node is never idle
+                if (out != null) {
+                    try {
+                        frame.header.rewind();
+                        ByteBuffer payload = frame.compressedLength == 0 ? frame.raw.duplicate() : frame.payload.duplicate();
+                        payload.rewind();
+                        while (frame.header.hasRemaining()) {
+                            out.write(frame.header);
+                        }
+                        while (payload.hasRemaining()) {
+                            out.write(payload);
+                        }
+                    } catch (IOException e) {
+                        out = null;
+                    }
+                }
+
+                while (frame.raw.hasRemaining()) {
+                    position += file.write(frame.raw, position);
+                }
+                TransferScheduler.throttle(frame.wireLength());
+            }
+        } finally {
+            frame.end();
+        }
+        return next == null || out != null;
+    }
+
+    /**
+     * One frame read from a socket, with its decompressed bytes in raw.
+     */
+    private static class Frame {
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private final ByteBuffer payload = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        private final ByteBuffer raw = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        private final Inflater inflater = new Inflater();
+        private int rawLength;
+        private int compressedLength;
+
+        // Read and decompress the next frame. Returns false if the stream ended before it
+        private boolean read(ReadableByteChannel in) throws IOException {
+            header.clear();
+            if (!readFully(in, header, true)) {
+                return false;
+            }
+            header.flip();
+            rawLength = header.getInt();
+            compressedLength = header.getInt();
+            if (rawLength <= 0 || rawLength > CHUNK_SIZE || compressedLength < 0 || compressedLength > CHUNK_SIZE) {
+                throw new IOException("Corrupt frame header");
+            }
+
+            raw.clear();
+            if (compressedLength == 0) {
+                raw.limit(rawLength);
+                readFully(in, raw, false);
+            } else {
+                payload.clear();
+                payload.limit(compressedLength);
+                readFully(in, payload, false);
+                payload.flip();
+
+                inflater.reset();
+                inflater.setInput(payload.duplicate());
+                raw.limit(rawLength);
+                try {
+                    inflater.inflate(raw);
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt compressed frame", e);
+                }
+                if (raw.hasRemaining()) {
+                    throw new IOException("Compressed frame is shorter than its header says");
+                }
+            }
+            raw.flip();
+            return true;
+        }
+
+        // Bytes the frame took on the wire
+        private int wireLength() {
+            return HEADER_SIZE + (compressedLength == 0 ? rawLength : compressedLength);
+        }
+
+        private void end() {
+            inflater.end();
+        }
+
+        // Fill buffer from in. Returns false if the stream ended before any byte and that is allowed
+        private static boolean readFully(ReadableByteChannel in, ByteBuffer buffer, boolean endAllowed) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) == -1) {
+                    if (endAllowed && buffer.position() == 0) {
+                        return false;
+                    }
+                    throw new EOFException("Transfer ended inside a frame");
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.cs425.Messages.FileMessage.Destination;
 import com.cs425.Messages.FileMessage.MessageType;
 import com.cs425.membership.MembershipList.MemberList;
 import com.cs425.membership.MembershipList.MemberListEntry;
+import com.cs425.membership.PeerConnections;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.tuple.MutablePair;
@@ -16,6 +17,7 @@ import java.io.Serializable;
 import java.net.Socket;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
@@ -25,20 +27,59 @@ public class Coordinator extends Thread {
     public static final int REPLICATION_COUNT = 4;
     private static final long REPLICATION_PERIOD = 10000;
     public static final char DELIMITER = '_';
+    // Time a failed node's replicas are still counted, so a node that restarts and reports them is not replicated around
+    private static final long REJOIN_GRACE_PERIOD = SDFSConfig.getLong("REJOIN_GRACE_PERIOD", 30000);
+    // Time the nodes a put was placed on are left out of repair, in case the client fails before its last report
+    private static final long PUT_IN_FLIGHT_TIMEOUT = SDFSConfig.getLong("PUT_IN_FLIGHT_TIMEOUT", 300000);
+    private static final int REPLICATE_BATCH_SIZE = SDFSConfig.getInt("REPLICATE_BATCH_SIZE", 1000);
+    // Newest versions of each file kept as full replicas, older ones are erasure coded
+    private static final int ERASURE_KEEP_LATEST = SDFSConfig.getInt("ERASURE_KEEP_LATEST", 1);
+    private static final int ERASURE_MAX_PER_PASS = SDFSConfig.getInt("ERASURE_MAX_PER_PASS", 16);
+    // Versions of each file kept, see RetentionPolicy
+    private static final RetentionPolicy RETENTION = new RetentionPolicy(SDFSConfig.getInt("RETENTION_VERSIONS", 0),
+            SDFSConfig.getLong("RETENTION_MAX_AGE", 0), SDFSConfig.getString("RETENTION_RULES", ""));
+    // Most expired versions each holder is asked to drop in a replication pass
+    private static final int RETENTION_DELETE_BATCH = SDFSConfig.getInt("RETENTION_DELETE_BATCH", 256);
 
     private Map<String, TreeMap<Integer, Set<MemberListEntry>>> fileStorage;
 
     // Shared from Member class
     // In order to maintain thread safety, modifiers must not be called within this class
     private volatile MemberList memberList;
+    // Connections kept open to other members for control messages, shared from Member class
+    private PeerConnections peers;
 
     private Thread coordinatorThread;
     private AtomicBoolean end;
 
+    // Replica holders that have left the membership list, with the time they were first found missing
+    private Map<MemberListEntry, Long> missingSince = new ConcurrentHashMap<>();
+
+    // Latest version of each deleted file, so a file put again under the same name does not reuse version numbers
+    // Versions are cached by name, a reused one could be served with the old content. Rebuilt on election from the
+    // deletes the file servers recorded
+    private Map<String, Integer> deletedVersions = new ConcurrentHashMap<>();
+
+    // Versions stored as erasure coded shards instead of full replicas, by version name
+    private Map<String, CodedVersion> codedVersions = new ConcurrentHashMap<>();
+    // Versions their holders would not code, too small to be worth it, left as full replicas
+    private Set<String> uncodedVersions = ConcurrentHashMap.newKeySet();
+
+    // Time each version was first known to be stored, by version name. Versions stored before this coordinator
+    // was elected count from when it learned of them
+    private Map<String, Long> storedTimes = new ConcurrentHashMap<>();
+    // Expired versions each holder has yet to drop, sent a batch at a time
+    private Map<MemberListEntry, Set<String>> pendingDeletes = new ConcurrentHashMap<>();
+
+    // Nodes each put is still writing to after its write quorum reported, by version name, with the time the put
+    // was placed. Repair counts them as holders and does not replicate to them, so two writers never share a node
+    private Map<String, MutablePair<Set<MemberListEntry>, Long>> inFlightPuts = new ConcurrentHashMap<>();
+
     // Create coordinator instance and begin replication
-    public Coordinator(MemberList memberList, AtomicBoolean end) {
+    public Coordinator(MemberList memberList, AtomicBoolean end, PeerConnections peers) {
         fileStorage = Collections.synchronizedMap(new HashMap<>());
         this.memberList = memberList;
+        this.peers = peers;
         this.end = end;
 
         // Get existing data from nodes if this is an elected coordinator
@@ -47,6 +88,7 @@ public class Coordinator extends Thread {
             FileMessage response = sendToFileServerWithResponse(node, coordinatorDataStoreRequest);
             if (response != null) {
                 addFilesToDataStore(response.getFilesOnNode(), node);
+                addDeletedVersions(response.getDeletedVersions());
             }
         }
 
@@ -63,13 +105,36 @@ public class Coordinator extends Thread {
     }
 
     // Add file meta data to coordinator data store from file names at given node delimited with version number
+    // Shards of coded versions also record the node as the holder of their index
     private void addFilesToDataStore(Set<String> files, MemberListEntry node) {
         for (String file: files) {
+            if (CodedVersion.isShard(file)) {
+                String version = CodedVersion.versionOf(file);
+                codedVersions.putIfAbsent(version, new CodedVersion(CodedVersion.lengthOf(file), CodedVersion.DATA_SHARDS + CodedVersion.PARITY_SHARDS));
+                codedVersions.get(version).getHolders().put(CodedVersion.indexOf(file), node);
+                file = version;
+            }
+            storedTimes.putIfAbsent(file, System.currentTimeMillis());
             MutablePair<String, Integer> pair = deconstructFileWithDelimiter(file);
             addFileToDataStore(pair.getLeft(), pair.getRight(), node);
         }
     }
 
+    // Record versions the file servers deleted, so an earlier coordinator's deletes are known here
+    private void addDeletedVersions(Set<String> versions) {
+        if (versions == null) {
+            return;
+        }
+        synchronized (fileStorage) {
+            for (String version: versions) {
+                MutablePair<String, Integer> pair = deconstructFileWithDelimiter(version);
+                if (deletedVersions.getOrDefault(pair.getLeft(), 0) < pair.getRight()) {
+                    deletedVersions.put(pair.getLeft(), pair.getRight());
+                }
+            }
+        }
+    }
+
     // Add file metadata to coordinator data store for a given node
     private void addFileToDataStore(String filename, int version, MemberListEntry node) {
         TreeMap<Integer, Set<MemberListEntry>> fileMap = fileStorage.getOrDefault(filename, new TreeMap<>());
@@ -146,50 +211,126 @@ public class Coordinator extends Thread {
                     break;
 
                 case Put:
-                    List<MemberListEntry> memberListEntries = memberList.getMemberList();
-                    Collections.shuffle(memberListEntries);
-                    memberListEntries = new ArrayList<>(memberListEntries.subList(0, Math.min(memberListEntries.size(), REPLICATION_COUNT)));
-                    
-                    // If already stored, new version is latest version + 1, otherwise 1
-                    int newVersion = fileStorage.containsKey(fileName) ? newVersion = fileStorage.get(fileName).lastKey() + 1 : 1;
-
-                    // Create empty entry for new version to reserve version number
-                    TreeMap<Integer, Set<MemberListEntry>> dataFiles = fileStorage.getOrDefault(fileName, new TreeMap<>());
-                    dataFiles.put(newVersion, new HashSet<>());
-                    fileStorage.put(fileName, dataFiles);
-
                     // Variable scoping
                     {
-                        FileMessage msg = new FileMessage(FileMessage.MessageType.Ok, fileName, memberListEntries, newVersion, Destination.Client);
+                        int newVersion = reserveVersion(fileName);
+                        List<MemberListEntry> placement = choosePlacement();
+                        startPut(constructFileWithDelimiter(fileName, Integer.toString(newVersion)), placement);
+                        FileMessage msg = new FileMessage(FileMessage.MessageType.Ok, fileName, placement, newVersion, Destination.Client);
                         sendToClient(msg, inputStream, outputStream);
                     }
                     break;
 
+                case PutBatch:
+                    // A version and placement for each file, so a batch of puts needs one request here
+                    Map<String, List<MemberListEntry>> reserved = new HashMap<>();
+                    for (String batchFile: inputMessage.getFilesOnNode()) {
+                        String batchVersion = constructFileWithDelimiter(batchFile, Integer.toString(reserveVersion(batchFile)));
+                        reserved.put(batchVersion, choosePlacement());
+                        startPut(batchVersion, reserved.get(batchVersion));
+                    }
+                    FileMessage reservedMsg = new FileMessage(MessageType.Ok, Destination.Client);
+                    reservedMsg.setPlacements(reserved);
+                    sendToClient(reservedMsg, inputStream, outputStream);
+                    break;
+
                 case PutOk:
                     // Update metadata on put success
-                    List<MemberListEntry> putSuccessNodes = inputMessage.getNodes();
-                    int version = inputMessage.getVersion();
-                    fileStorage.get(fileName).put(version, new HashSet<>(putSuccessNodes));
-                    sendToClient(new FileMessage(MessageType.Ok, Destination.Client), inputStream, outputStream);
+                    // A put may report in several parts: once its write quorum is reached, then again as the
+                    // remaining replicas finish, so add to the nodes already known for this version
+                    // A batch of puts reports the replicas that stored each version in placements
+                    boolean recorded = true;
+                    if (inputMessage.getPlacements() != null) {
+                        for (Entry<String, List<MemberListEntry>> put: inputMessage.getPlacements().entrySet()) {
+                            MutablePair<String, Integer> pair = deconstructFileWithDelimiter(put.getKey());
+                            recorded &= recordPut(pair.getLeft(), pair.getRight(), put.getValue());
+                            finishPut(put.getKey(), put.getValue(), inputMessage.isComplete());
+                        }
+                    } else {
+                        recorded = recordPut(fileName, inputMessage.getVersion(), inputMessage.getNodes());
+                        finishPut(constructFileWithDelimiter(fileName, Integer.toString(inputMessage.getVersion())), inputMessage.getNodes(), inputMessage.isComplete());
+                    }
+                    sendToClient(new FileMessage(recorded ? MessageType.Ok : MessageType.Fail, Destination.Client), inputStream, outputStream);
                     break;
 
                 case PutFail:
-                    // Delete reserved entry from metadata on put failure
-                    version = inputMessage.getVersion();
-                    fileStorage.get(fileName).remove(version);
+                    // Delete reserved entry from metadata on put failure, each of filesOnNode for a batch of puts
+                    if (inputMessage.getFilesOnNode() != null) {
+                        for (String failed: inputMessage.getFilesOnNode()) {
+                            MutablePair<String, Integer> pair = deconstructFileWithDelimiter(failed);
+                            releaseVersion(pair.getLeft(), pair.getRight());
+                            inFlightPuts.remove(failed);
+                        }
+                    } else {
+                        releaseVersion(fileName, inputMessage.getVersion());
+                        inFlightPuts.remove(constructFileWithDelimiter(fileName, Integer.toString(inputMessage.getVersion())));
+                    }
                     sendToClient(new FileMessage(MessageType.Ok, Destination.Client), inputStream, outputStream);
                     break;
 
+                case GetBatch:
+                    Map<String, List<MemberListEntry>> latest = new HashMap<>();
+                    synchronized (fileStorage) {
+                        for (String storedFile: fileStorage.keySet()) {
+                            MutablePair<String, List<MemberListEntry>> latestStored = storedFile.startsWith(fileName) ? getLatestVersion(storedFile) : null;
+                            if (latestStored != null) {
+                                latest.put(latestStored.getLeft(), latestStored.getRight());
+                            }
+                        }
+                    }
+                    if (latest.isEmpty()) {
+                        sendToClient(new FileMessage(MessageType.Fail, Destination.Client), inputStream, outputStream);
+                    } else {
+                        FileMessage latestMsg = new FileMessage(MessageType.Ok, fileName, Destination.Client);
+                        latestMsg.setPlacements(latest);
+                        sendToClient(latestMsg, inputStream, outputStream);
+                    }
+                    break;
+
+                case Append:
+                    // Appended version is built by the nodes holding the latest version, which already have its bytes
+                    // The base and the new version are chosen together, so no other put comes between them
+                    FileMessage appendReply;
+                    synchronized (fileStorage) {
+                        TreeMap<Integer, Set<MemberListEntry>> appendVersions = fileStorage.get(fileName);
+                        Entry<Integer, Set<MemberListEntry>> base = appendVersions == null ? null : appendVersions.lastEntry();
+                        if (base == null) {
+                            appendReply = new FileMessage(MessageType.Fail, Destination.Client);
+                        } else if (base.getValue().isEmpty()) {
+                            // Latest version is still being put, extending the one before it would drop its content
+                            // Unlike a missing file, the failure names that version
+                            appendReply = new FileMessage(MessageType.Fail, constructFileWithDelimiter(fileName, base.getKey().toString()), Destination.Client);
+                        } else {
+                            // Reserve the next version number, the replicas report back with PutOk or PutFail as for a put
+                            int appendVersion = reserveVersion(fileName);
+                            startPut(constructFileWithDelimiter(fileName, Integer.toString(appendVersion)), base.getValue());
+                            appendReply = new FileMessage(MessageType.Ok, constructFileWithDelimiter(fileName, base.getKey().toString()),
+                                    new ArrayList<>(base.getValue()), appendVersion, Destination.Client);
+                        }
+                    }
+                    sendToClient(appendReply, inputStream, outputStream);
+                    break;
+
                 case Delete:
-                    if(!fileStorage.containsKey(fileName)){
+                    TreeMap<Integer, Set<MemberListEntry>> deleted;
+                    synchronized (fileStorage) {
+                        deleted = fileStorage.remove(fileName);
+                        if (deleted != null) {
+                            deletedVersions.put(fileName, deleted.lastKey());
+                        }
+                    }
+                    if(deleted == null){
                         FileMessage msg = new FileMessage(FileMessage.MessageType.Fail, Destination.Client);
                         sendToClient(msg, inputStream, outputStream);
                     }
                     else{
-                        TreeMap<Integer, Set<MemberListEntry>> fileValues = fileStorage.get(fileName);
-                        fileStorage.remove(fileName);
-                        for(Entry<Integer, Set<MemberListEntry>> location: fileValues.entrySet()) {
+                        for(Entry<Integer, Set<MemberListEntry>> location: deleted.entrySet()) {
                             String deleteFileName = constructFileWithDelimiter(fileName, location.getKey().toString());
+                            // Holders of a coded version's shards drop them with the version
+                            codedVersions.remove(deleteFileName);
+                            uncodedVersions.remove(deleteFileName);
+                            storedTimes.remove(deleteFileName);
+                            inFlightPuts.remove(deleteFileName);
                             FileMessage deleteMsg = new FileMessage(FileMessage.MessageType.Delete, deleteFileName, Destination.FileServer);
                             for (MemberListEntry memberListEntry : location.getValue()) {
                                 sendToFileServer(memberListEntry, deleteMsg);
@@ -201,6 +342,83 @@ public class Coordinator extends Thread {
                     }
                     break;
 
+                case StoreReport:
+                    // A restarted node reports the versions it kept: it replaces its earlier incarnation as a holder
+                    // of each version still known here, and is sent back the rest to drop
+                    MemberListEntry reporter = inputMessage.getNodes().get(0);
+                    addDeletedVersions(inputMessage.getDeletedVersions());
+                    Set<String> stale = new HashSet<>();
+                    for (String storedFile: inputMessage.getFilesOnNode()) {
+                        if (CodedVersion.isShard(storedFile)) {
+                            if (!reportShard(storedFile, reporter)) {
+                                stale.add(storedFile);
+                            }
+                            continue;
+                        }
+                        MutablePair<String, Integer> pair = deconstructFileWithDelimiter(storedFile);
+                        // Holders are copied and put back under the lock, so a put reporting meanwhile is not lost
+                        synchronized (fileStorage) {
+                            TreeMap<Integer, Set<MemberListEntry>> storedVersions = fileStorage.get(pair.getLeft());
+                            if (storedVersions == null || !storedVersions.containsKey(pair.getRight())) {
+                                stale.add(storedFile);
+                                continue;
+                            }
+
+                            Set<MemberListEntry> holders = new HashSet<>(storedVersions.get(pair.getRight()));
+                            for (Iterator<MemberListEntry> holderIterator = holders.iterator(); holderIterator.hasNext();) {
+                                MemberListEntry holder = holderIterator.next();
+                                if (holder.getHostname().equals(reporter.getHostname()) && holder.getPort() == reporter.getPort()) {
+                                    holderIterator.remove();
+                                    missingSince.remove(holder);
+                                }
+                            }
+                            holders.add(reporter);
+                            storedVersions.put(pair.getRight(), holders);
+                        }
+                    }
+                    logger.info("Node " + reporter + " rejoined with " + (inputMessage.getFilesOnNode().size() - stale.size()) + " stored versions");
+                    sendToClient(new FileMessage(MessageType.Ok, stale, Destination.Client), inputStream, outputStream);
+                    break;
+
+                case Lost:
+                    // A node lost the versions on a failed storage volume, so it no longer counts as holding them
+                    // and the replication thread restores each one
+                    MemberListEntry loser = inputMessage.getNodes().get(0);
+                    for (String lostFile: inputMessage.getFilesOnNode()) {
+                        // A lost shard is rebuilt by repairCodedVersions
+                        if (CodedVersion.isShard(lostFile)) {
+                            CodedVersion coded = codedVersions.get(CodedVersion.versionOf(lostFile));
+                            if (coded != null && coded.getHolders().remove(CodedVersion.indexOf(lostFile), loser)) {
+                                updateCodedHolders(CodedVersion.versionOf(lostFile), coded);
+                            }
+                            continue;
+                        }
+                        MutablePair<String, Integer> pair = deconstructFileWithDelimiter(lostFile);
+                        synchronized (fileStorage) {
+                            TreeMap<Integer, Set<MemberListEntry>> lostVersions = fileStorage.get(pair.getLeft());
+                            if (lostVersions == null || !lostVersions.containsKey(pair.getRight())) {
+                                continue;
+                            }
+                            Set<MemberListEntry> holders = new HashSet<>(lostVersions.get(pair.getRight()));
+                            holders.remove(loser);
+                            lostVersions.put(pair.getRight(), holders);
+                        }
+                    }
+                    logger.info("Node " + loser + " lost " + inputMessage.getFilesOnNode().size() + " stored versions");
+                    sendToClient(new FileMessage(MessageType.Ok, Destination.Client), inputStream, outputStream);
+                    break;
+
+                case GetStripe:
+                    CodedVersion stripe = codedVersions.get(fileName);
+                    if (stripe == null) {
+                        sendToClient(new FileMessage(MessageType.Fail, Destination.Client), inputStream, outputStream);
+                    } else {
+                        FileMessage stripeMsg = new FileMessage(MessageType.Ok, fileName, stripe.toShardData(), Destination.Client);
+                        stripeMsg.setLength(stripe.getLength());
+                        sendToClient(stripeMsg, inputStream, outputStream);
+                    }
+                    break;
+
                 case GetVersions:
                     if(!fileStorage.containsKey(fileName)){
                         FileMessage versionMsg = new FileMessage(FileMessage.MessageType.Fail, Destination.Client);
@@ -221,6 +439,89 @@ public class Coordinator extends Thread {
          }
     }
 
+    // Random members to put a new version on
+    private List<MemberListEntry> choosePlacement() {
+        List<MemberListEntry> memberListEntries = memberList.getMemberList();
+        Collections.shuffle(memberListEntries);
+        return new ArrayList<>(memberListEntries.subList(0, Math.min(memberListEntries.size(), REPLICATION_COUNT)));
+    }
+
+    // Reserve the next version number of fileName with an empty entry until its put reports back
+    private int reserveVersion(String fileName) {
+        synchronized (fileStorage) {
+            // The version after both the latest stored and the latest deleted, so no version name is used twice
+            int newVersion = Math.max(fileStorage.containsKey(fileName) ? fileStorage.get(fileName).lastKey() : 0, deletedVersions.getOrDefault(fileName, 0)) + 1;
+
+            TreeMap<Integer, Set<MemberListEntry>> dataFiles = fileStorage.getOrDefault(fileName, new TreeMap<>());
+            dataFiles.put(newVersion, new HashSet<>());
+            fileStorage.put(fileName, dataFiles);
+            return newVersion;
+        }
+    }
+
+    // Drop the reserved entry of a version whose put failed
+    private void releaseVersion(String fileName, int version) {
+        synchronized (fileStorage) {
+            TreeMap<Integer, Set<MemberListEntry>> versions = fileStorage.get(fileName);
+            if (versions != null) {
+                versions.remove(version);
+            }
+        }
+    }
+
+    // Add nodes to the holders of a version that was put. Returns false if the version was deleted before the
+    // put reported back, in which case the nodes are told to delete their orphaned replicas
+    private boolean recordPut(String fileName, int version, List<MemberListEntry> nodes) {
+        synchronized (fileStorage) {
+            TreeMap<Integer, Set<MemberListEntry>> putVersions = fileStorage.get(fileName);
+            if (putVersions != null && putVersions.containsKey(version)) {
+                Set<MemberListEntry> stored = new HashSet<>(putVersions.get(version));
+                stored.addAll(nodes);
+                putVersions.put(version, stored);
+                storedTimes.putIfAbsent(constructFileWithDelimiter(fileName, Integer.toString(version)), System.currentTimeMillis());
+                return true;
+            }
+        }
+        FileMessage deleteMsg = new FileMessage(FileMessage.MessageType.Delete, constructFileWithDelimiter(fileName, Integer.toString(version)), Destination.FileServer);
+        for (MemberListEntry node: nodes) {
+            sendToFileServer(node, deleteMsg);
+        }
+        return false;
+    }
+
+    // Note the nodes a put of version is placed on, until they report back or the put finishes
+    private void startPut(String version, Collection<MemberListEntry> nodes) {
+        Set<MemberListEntry> targets = ConcurrentHashMap.newKeySet();
+        targets.addAll(nodes);
+        inFlightPuts.put(version, MutablePair.of(targets, System.currentTimeMillis()));
+    }
+
+    // Stop counting nodes that reported their replica of version as in flight, and all of them on the last report
+    private void finishPut(String version, List<MemberListEntry> nodes, boolean complete) {
+        MutablePair<Set<MemberListEntry>, Long> inFlight = inFlightPuts.get(version);
+        if (inFlight == null) {
+            return;
+        }
+        inFlight.getLeft().removeAll(nodes);
+        if (complete || inFlight.getLeft().isEmpty()) {
+            inFlightPuts.remove(version);
+        }
+    }
+
+    // Live nodes a put of version is still writing to, none once it finished
+    private Set<MemberListEntry> inFlightTargets(String version) {
+        MutablePair<Set<MemberListEntry>, Long> inFlight = inFlightPuts.get(version);
+        Set<MemberListEntry> targets = new HashSet<>();
+        if (inFlight != null) {
+            for (MemberListEntry target: inFlight.getLeft()) {
+                if (memberList.containsEntry(target)) {
+                    targets.add(target);
+                }
+            }
+        }
+        return targets;
+    }
+
     // Send message back to client
     private static void sendToClient(Object message, ObjectInputStream inputStream, ObjectOutputStream outputStream) {
         try {
@@ -233,122 +534,412 @@ public class Coordinator extends Thread {
     }
 
     // Forward instruction message to file server
-    // Fire and forget
-    private static void sendToFileServer(MemberListEntry fileServer, Serializable message) {
+    // The file server only acknowledges it
+    private void sendToFileServer(MemberListEntry fileServer, Serializable message) {
+        // Wait for the acknowledgement so the message is sent again while the file server is busy
         try {
-            // Open resources
-            Socket fileServerSocker = new Socket(fileServer.getHostname(), fileServer.getPort());
-            ObjectOutputStream output = new ObjectOutputStream(fileServerSocker.getOutputStream());
-            ObjectInputStream inputStream = new ObjectInputStream(fileServerSocker.getInputStream());
-
-            // Write message
-            output.writeObject(message);
-            output.flush();
-
-            // Close resources
-            inputStream.close();
-            output.close();
-            fileServerSocker.close();
-        } catch (IOException e) {
+            FileMessage response = FileRequest.call(peers, fileServer, message);
+            if (response != null && response.getMessageType() == MessageType.Busy) {
+                System.out.println("File server " + fileServer + " too busy for " + message);
+            }
+        } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
 
     // Forward instruction message to file server
     // Receives response from file server
-    private static FileMessage sendToFileServerWithResponse(MemberListEntry fileServer, Serializable message) {
-        FileMessage response = null;
+    private FileMessage sendToFileServerWithResponse(MemberListEntry fileServer, Serializable message) {
         try {
-            // Open resources
-            Socket fileServerSocker = new Socket(fileServer.getHostname(), fileServer.getPort());
-            ObjectOutputStream output = new ObjectOutputStream(fileServerSocker.getOutputStream());
-            ObjectInputStream inputStream = new ObjectInputStream(fileServerSocker.getInputStream());
-
-            // Write message
-            output.writeObject(message);
-            output.flush();
-
-            // Recieve response
-            response = (FileMessage) inputStream.readObject();
-
-            // Close resources
-            inputStream.close();
-            output.close();
-            fileServerSocker.close();
+            return FileRequest.call(peers, fileServer, message);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
-        return response;
+        return null;
     }
 
-    // Replicate files as needed. Run as a separate thread
-    private void backgroundReplication() {
-        while (!end.get()) {
-            Iterator<Entry<String, TreeMap<Integer, Set<MemberListEntry>>>> it = fileStorage.entrySet().iterator();
+    // Take a shard a restarted node kept as its own, if the node held that shard before. Returns false if the
+    // shard was rebuilt elsewhere or its version deleted, so the node should drop it
+    private boolean reportShard(String shard, MemberListEntry reporter) {
+        String version = CodedVersion.versionOf(shard);
+        CodedVersion coded = codedVersions.get(version);
+        MemberListEntry holder = coded == null ? null : coded.getHolders().get(CodedVersion.indexOf(shard));
+        if (holder == null || !holder.getHostname().equals(reporter.getHostname()) || holder.getPort() != reporter.getPort()) {
+            return false;
+        }
+        coded.getHolders().put(CodedVersion.indexOf(shard), reporter);
+        missingSince.remove(holder);
+        updateCodedHolders(version, coded);
+        return true;
+    }
 
-            // For each entry: SDFS File Name -> <Versions, <Machine Locations>>
-            while(it.hasNext()) {
-                Entry<String, TreeMap<Integer, Set<MemberListEntry>>> entry = it.next();
+    // Record the holders of a coded version's shards as the version's holders, as listed and deleted by clients
+    private void updateCodedHolders(String version, CodedVersion coded) {
+        MutablePair<String, Integer> pair = deconstructFileWithDelimiter(version);
+        synchronized (fileStorage) {
+            TreeMap<Integer, Set<MemberListEntry>> versions = fileStorage.get(pair.getLeft());
+            if (versions != null && versions.containsKey(pair.getRight())) {
+                versions.put(pair.getRight(), coded.holderSet());
+            }
+        }
+    }
+
+    // Remove the versions RETENTION expires from the metadata, and queue them to be dropped by their holders
+    // Expired versions are no longer listed or replicated, though holders drop them a batch at a time
+    private void expireVersions(long now) {
+        if (RETENTION.isUnlimited()) {
+            return;
+        }
+        int expiredCount = 0;
+        // Versions are picked and removed under the lock, so a put or delete cannot change them in between
+        synchronized (fileStorage) {
+            for (Entry<String, TreeMap<Integer, Set<MemberListEntry>>> entry: fileStorage.entrySet()) {
                 String fileName = entry.getKey();
+                TreeMap<Integer, Set<MemberListEntry>> versions = entry.getValue();
+                // Pending versions are neither kept nor expired until their puts finish
+                TreeMap<Integer, Long> versionTimes = new TreeMap<>();
+                for (Entry<Integer, Set<MemberListEntry>> version: versions.entrySet()) {
+                    if (!version.getValue().isEmpty()) {
+                        versionTimes.put(version.getKey(), storedTimes.getOrDefault(constructFileWithDelimiter(fileName, version.getKey().toString()), now));
+                    }
+                }
 
-                // For each version of this file: Version -> <Machine Locations>
-                for (Iterator<Entry<Integer, Set<MemberListEntry>>> iterator = entry.getValue().entrySet().iterator(); iterator.hasNext();) {
-                    Entry<Integer, Set<MemberListEntry>> fileVersionState = iterator.next();
-                    Set<MemberListEntry> members = fileVersionState.getValue();
+                for (int version: RETENTION.expired(fileName, versionTimes, now)) {
+                    String name = constructFileWithDelimiter(fileName, Integer.toString(version));
+                    Set<MemberListEntry> holders = versions.remove(version);
+                    codedVersions.remove(name);
+                    uncodedVersions.remove(name);
+                    storedTimes.remove(name);
+                    for (MemberListEntry holder: holders) {
+                        pendingDeletes.putIfAbsent(holder, ConcurrentHashMap.newKeySet());
+                        pendingDeletes.get(holder).add(name);
+                    }
+                    expiredCount++;
+                }
+            }
+        }
+        if (expiredCount > 0) {
+            logger.info("Expired " + expiredCount + " versions");
+        }
+    }
+
+    // Ask each holder to drop up to RETENTION_DELETE_BATCH of the expired versions it stores, so deleting many
+    // versions is spread over several passes instead of competing with client requests. A batch that fails
+    // is sent again next pass
+    private void deleteExpiredVersions() {
+        for (Iterator<Entry<MemberListEntry, Set<String>>> iterator = pendingDeletes.entrySet().iterator(); iterator.hasNext();) {
+            Entry<MemberListEntry, Set<String>> entry = iterator.next();
+            // A failed holder that restarts reports the versions it kept, and is told to drop these then
+            if (!memberList.containsEntry(entry.getKey())) {
+                iterator.remove();
+                continue;
+            }
+            Set<String> batch = new HashSet<>();
+            for (String name: entry.getValue()) {
+                if (batch.size() >= RETENTION_DELETE_BATCH) {
+                    break;
+                }
+                batch.add(name);
+            }
+            FileMessage response = sendToFileServerWithResponse(entry.getKey(), new FileMessage(MessageType.DeleteBatch, batch, Destination.FileServer));
+            if (response == null || response.getMessageType() != MessageType.Ok) {
+                continue;
+            }
+            entry.getValue().removeAll(batch);
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Store versions with at least ERASURE_KEEP_LATEST newer versions as erasure coded shards instead of
+    // full replicas, once there are enough members for every shard of a version to be on a different one
+    private void codeColdVersions() {
+        int shardCount = CodedVersion.DATA_SHARDS + CodedVersion.PARITY_SHARDS;
+        if (!CodedVersion.ENABLED || memberList.size() < shardCount) {
+            return;
+        }
+
+        int coded = 0;
+        List<String> fileNames;
+        synchronized (fileStorage) {
+            fileNames = new ArrayList<>(fileStorage.keySet());
+        }
+        for (String fileName: fileNames) {
+            TreeMap<Integer, Set<MemberListEntry>> versions = fileStorage.get(fileName);
+            if (versions == null) {
+                continue;
+            }
+            int newer = 0;
+            for (Entry<Integer, Set<MemberListEntry>> version: new TreeMap<>(versions).descendingMap().entrySet()) {
+                if (version.getValue().isEmpty()) {
+                    continue;
+                }
+                if (newer++ < ERASURE_KEEP_LATEST) {
+                    continue;
+                }
+                String name = constructFileWithDelimiter(fileName, version.getKey().toString());
+                if (codedVersions.containsKey(name) || uncodedVersions.contains(name)) {
+                    continue;
+                }
+                if (coded++ >= ERASURE_MAX_PER_PASS) {
+                    return;
+                }
+                codeVersion(fileName, version.getKey(), version.getValue());
+            }
+        }
+    }
+
+    // Have a holder of a version code it into shards on as many members, then drop the full replicas
+    private void codeVersion(String fileName, int version, Set<MemberListEntry> holders) {
+        String name = constructFileWithDelimiter(fileName, Integer.toString(version));
+        List<MemberListEntry> targets = memberList.getMemberList();
+        Collections.shuffle(targets);
+        targets = new ArrayList<>(targets.subList(0, CodedVersion.DATA_SHARDS + CodedVersion.PARITY_SHARDS));
+
+        List<MemberListEntry> coders = new ArrayList<>(holders);
+        Collections.shuffle(coders);
+        for (MemberListEntry coder: coders) {
+            if (!memberList.containsEntry(coder)) {
+                continue;
+            }
+            FileMessage response = sendToFileServerWithResponse(coder, new FileMessage(MessageType.Encode, name, targets, Destination.FileServer));
+            if (response == null || response.getMessageType() != MessageType.Ok) {
+                continue;
+            }
+
+            CodedVersion coded = new CodedVersion(response.getLength(), targets);
+            boolean deleted;
+            // Checked and recorded under the lock, so a delete cannot come in between
+            synchronized (fileStorage) {
+                TreeMap<Integer, Set<MemberListEntry>> versions = fileStorage.get(fileName);
+                deleted = versions == null || !versions.containsKey(version);
+                if (!deleted) {
+                    codedVersions.put(name, coded);
+                    versions.put(version, coded.holderSet());
+                }
+            }
+            if (deleted) {
+                // Deleted while it was being coded
+                for (MemberListEntry target: targets) {
+                    sendToFileServer(target, new FileMessage(MessageType.Delete, name, Destination.FileServer));
+                }
+                return;
+            }
+            for (MemberListEntry holder: holders) {
+                sendToFileServer(holder, new FileMessage(MessageType.DropReplica, name, Destination.FileServer));
+            }
+            logger.info("Version " + name + " stored as " + CodedVersion.DATA_SHARDS + "+" + CodedVersion.PARITY_SHARDS + " erasure coded shards");
+            return;
+        }
+        uncodedVersions.add(name);
+    }
 
-                    // Skip pending versions
-                    if (members.isEmpty()) {
+    // Rebuild the shards of coded versions that were lost, or whose holders failed and did not return within
+    // the grace period, each on a member that holds no other shard of its version
+    private void repairCodedVersions(long now) {
+        for (Entry<String, CodedVersion> entry: codedVersions.entrySet()) {
+            CodedVersion coded = entry.getValue();
+            for (int index = 0; index < coded.getShardCount(); index++) {
+                MemberListEntry holder = coded.getHolders().get(index);
+                if (holder != null && !memberList.containsEntry(holder)) {
+                    missingSince.putIfAbsent(holder, now);
+                    if (now - missingSince.get(holder) < REJOIN_GRACE_PERIOD) {
                         continue;
                     }
+                    coded.getHolders().remove(index, holder);
+                    updateCodedHolders(entry.getKey(), coded);
+                    holder = null;
+                }
+                if (holder == null) {
+                    rebuildShard(entry.getKey(), coded, index);
+                }
+            }
+        }
+    }
 
-                    // For each machine that stores this version of this file
-                    for(Iterator<MemberListEntry> memberIterator = members.iterator(); memberIterator.hasNext();) {
-                        // If machine not present in membership list, then this node has failed and file must be replicated
-                        MemberListEntry memberListEntry = memberIterator.next();
-                        if(!memberList.containsEntry(memberListEntry)) {
-                            memberIterator.remove();
-                        }
+    private void rebuildShard(String name, CodedVersion coded, int index) {
+        if (coded.getHolders().size() < CodedVersion.DATA_SHARDS) {
+            System.out.println("Only " + coded.getHolders().size() + " shards of " + name + " are left, too few to rebuild it");
+            return;
+        }
+        List<MemberListEntry> candidates = memberList.getMemberList();
+        candidates.removeAll(coded.holderSet());
+        if (candidates.isEmpty()) {
+            return;
+        }
+        MemberListEntry target = candidates.get(new Random().nextInt(candidates.size()));
+
+        String shard = CodedVersion.shardName(name, index, coded.getLength());
+        FileMessage response = sendToFileServerWithResponse(target, new FileMessage(MessageType.RebuildShard, shard, coded.toShardData(), Destination.FileServer));
+        if (response != null && response.getMessageType() == MessageType.Ok && codedVersions.get(name) == coded) {
+            coded.getHolders().put(index, target);
+            updateCodedHolders(name, coded);
+        } else {
+            System.out.println("Failed to rebuild shard " + index + " of " + name + " at " + target);
+        }
+    }
+
+    // Add a node that replicated a version to its holders, as for a put
+    private void recordReplica(String version, MemberListEntry node) {
+        MutablePair<String, Integer> pair = deconstructFileWithDelimiter(version);
+        recordPut(pair.getLeft(), pair.getRight(), Arrays.asList(node));
+    }
+
+    // Replicate each of versions at putFileEntry, adding it to the version's holders once it stores it
+    // Several versions are sent in batches, so those packed on their holders travel together
+    private void replicate(MemberListEntry putFileEntry, Map<String, Set<MemberListEntry>> versions) {
+        if (versions.size() == 1) {
+            Entry<String, Set<MemberListEntry>> version = versions.entrySet().iterator().next();
+            String newFileName = version.getKey();
+            Set<MemberListEntry> members = version.getValue();
+            FileMessage msg = new FileMessage(FileMessage.MessageType.Replicate, newFileName, new ArrayList<MemberListEntry>(members), Destination.FileServer);
+
+            FileMessage response = sendToFileServerWithResponse(putFileEntry, msg);
+            if (response == null) {
+                System.out.println("Failed replication of " + newFileName + " at " + putFileEntry + " failed:");
+                System.out.println("Node not active");
+            } else if (response.getMessageType() == MessageType.Ok) {
+                recordReplica(newFileName, putFileEntry);
+            } else {
+                System.out.println("Failed replication of " + newFileName + " at " + putFileEntry + " failed:");
+                switch (response.getMessageType()) {
+                    case Fail:
+                        System.out.println("File not received");
+                        break;
+                    case FileExists:
+                        System.out.println("File already exists");
+                        break;
+                    default:
+                        assert false: "Unexpected message type received";
+                        break;
+                }
+            }
+            return;
+        }
+
+        List<String> names = new ArrayList<>(versions.keySet());
+        for (int start = 0; start < names.size(); start += REPLICATE_BATCH_SIZE) {
+            Set<String> batch = new HashSet<>(names.subList(start, Math.min(names.size(), start + REPLICATE_BATCH_SIZE)));
+            Set<MemberListEntry> holders = new HashSet<>();
+            for (String newFileName: batch) {
+                holders.addAll(versions.get(newFileName));
+            }
+            FileMessage msg = new FileMessage(FileMessage.MessageType.ReplicateBatch, batch, Destination.FileServer);
+            msg.setNodes(new ArrayList<>(holders));
+
+            FileMessage response = sendToFileServerWithResponse(putFileEntry, msg);
+            if (response == null || response.getMessageType() != MessageType.Ok) {
+                System.out.println("Failed replication of " + batch.size() + " versions at " + putFileEntry);
+                continue;
+            }
+            for (String newFileName: response.getFilesOnNode()) {
+                if (versions.containsKey(newFileName)) {
+                    recordReplica(newFileName, putFileEntry);
+                }
+            }
+            if (response.getFilesOnNode().size() < batch.size()) {
+                System.out.println("Failed replication of " + (batch.size() - response.getFilesOnNode().size()) + " of " + batch.size() + " versions at " + putFileEntry);
+            }
+        }
+    }
+
+    // Replicate files as needed. Run as a separate thread
+    private void backgroundReplication() {
+        while (!end.get()) {
+            // A pass that fails is logged, and the next one starts over
+            try {
+                long now = System.currentTimeMillis();
+                // Expired versions are not worth replicating
+                expireVersions(now);
+                // Puts whose client failed before its last report no longer hold back repair
+                for (Iterator<MutablePair<Set<MemberListEntry>, Long>> inFlightIterator = inFlightPuts.values().iterator(); inFlightIterator.hasNext();) {
+                    if (now - inFlightIterator.next().getRight() >= PUT_IN_FLIGHT_TIMEOUT) {
+                        inFlightIterator.remove();
                     }
+                }
+                // Versions to replicate at each machine, with the machines already storing each one
+                Map<MemberListEntry, Map<String, Set<MemberListEntry>>> batches = new HashMap<>();
+                Iterator<Entry<String, TreeMap<Integer, Set<MemberListEntry>>>> it = fileStorage.entrySet().iterator();
+
+                // For each entry: SDFS File Name -> <Versions, <Machine Locations>>
+                while(it.hasNext()) {
+                    Entry<String, TreeMap<Integer, Set<MemberListEntry>>> entry = it.next();
+                    String fileName = entry.getKey();
+
+                    // For each version of this file: Version -> <Machine Locations>
+                    for (Iterator<Entry<Integer, Set<MemberListEntry>>> iterator = entry.getValue().entrySet().iterator(); iterator.hasNext();) {
+                        Entry<Integer, Set<MemberListEntry>> fileVersionState = iterator.next();
+                        Set<MemberListEntry> members = fileVersionState.getValue();
+
+                        // Skip pending versions, and coded versions, whose shards are repaired below
+                        if (members.isEmpty() || codedVersions.containsKey(constructFileWithDelimiter(fileName, fileVersionState.getKey().toString()))) {
+                            continue;
+                        }
 
-                    if (REPLICATION_COUNT - members.size() > 0) {
-                        // Get random permutation of enough members to replicate this file
-                        List<MemberListEntry> memberListEntries = memberList.getMemberList();
-                        memberListEntries.removeAll(members);   // Remove members this file is already stored at from potential replicas
-                        Collections.shuffle(memberListEntries);
-                        memberListEntries = new ArrayList<>(memberListEntries.subList(0, Math.min(REPLICATION_COUNT - members.size(), memberListEntries.size())));
+                        // For each machine that stores this version of this file
+                        for(Iterator<MemberListEntry> memberIterator = members.iterator(); memberIterator.hasNext();) {
+                            // If machine not present in membership list, then this node has failed and file must be replicated
+                            // once the node has had time to restart and report the replicas it kept
+                            MemberListEntry memberListEntry = memberIterator.next();
+                            if(!memberList.containsEntry(memberListEntry)) {
+                                missingSince.putIfAbsent(memberListEntry, now);
+                                if (now - missingSince.get(memberListEntry) >= REJOIN_GRACE_PERIOD) {
+                                    memberIterator.remove();
+                                }
+                            }
+                        }
 
-                        // Replicate file at each chosen machine
+                        // Nodes a put is still writing this version to count as holders, and are not sent it again
                         String newFileName = constructFileWithDelimiter(fileName, fileVersionState.getKey().toString());
-                        for(MemberListEntry putFileEntry: memberListEntries) {
-                            FileMessage msg = new FileMessage(FileMessage.MessageType.Replicate, newFileName, new ArrayList<MemberListEntry>(members), Destination.FileServer);
-
-                            FileMessage response = sendToFileServerWithResponse(putFileEntry, msg);
-                            if (response == null) {
-                                System.out.println("Failed replication of " + newFileName + " at " + putFileEntry + " failed:");
-                                System.out.println("Node not active");
-                            } else if (response.getMessageType() == MessageType.Ok) {
-                                members.add(putFileEntry);
-                            } else {
-                                System.out.println("Failed replication of " + newFileName + " at " + putFileEntry + " failed:");
-                                switch (response.getMessageType()) {
-                                    case Fail:
-                                        System.out.println("File not received");
-                                        break;
-                                    case FileExists:
-                                        System.out.println("File already exists");
-                                        break;
-                                    default:
-                                        assert false: "Unexpected message type received";
-                                        break;
-                                }
+                        Set<MemberListEntry> inFlight = inFlightTargets(newFileName);
+                        inFlight.removeAll(members);
+
+                        if (REPLICATION_COUNT - members.size() - inFlight.size() > 0) {
+                            // Get random permutation of enough members to replicate this file
+                            List<MemberListEntry> memberListEntries = memberList.getMemberList();
+                            memberListEntries.removeAll(members);   // Remove members this file is already stored at from potential replicas
+                            memberListEntries.removeAll(inFlight);
+                            Collections.shuffle(memberListEntries);
+
+                            // Prefer members holding the previous version, they only need a delta against it
+                            Entry<Integer, Set<MemberListEntry>> previousVersion = entry.getValue().lowerEntry(fileVersionState.getKey());
+                            if (previousVersion != null) {
+                                Set<MemberListEntry> previousHolders = previousVersion.getValue();
+                                memberListEntries.sort(new Comparator<MemberListEntry>() {
+                                    @Override
+                                    public int compare(MemberListEntry first, MemberListEntry second) {
+                                        return Boolean.compare(!previousHolders.contains(first), !previousHolders.contains(second));
+                                    }
+                                });
+                            }
+                            memberListEntries = new ArrayList<>(memberListEntries.subList(0, Math.min(REPLICATION_COUNT - members.size() - inFlight.size(), memberListEntries.size())));
+
+                            // Replicate file at each chosen machine, once every version has been looked at
+                            for(MemberListEntry putFileEntry: memberListEntries) {
+                                batches.putIfAbsent(putFileEntry, new HashMap<>());
+                                batches.get(putFileEntry).put(newFileName, members);
                             }
                         }
                     }
-
-                    // Update state to reflect new replicas
-                    fileVersionState.setValue(members);
                 }
+                for (Entry<MemberListEntry, Map<String, Set<MemberListEntry>>> batch: batches.entrySet()) {
+                    replicate(batch.getKey(), batch.getValue());
+                }
+                repairCodedVersions(now);
+                codeColdVersions();
+                deleteExpiredVersions();
+                // Holders past the grace period were removed from every version above
+                for (Iterator<Long> sinceIterator = missingSince.values().iterator(); sinceIterator.hasNext();) {
+                    if (now - sinceIterator.next() >= REJOIN_GRACE_PERIOD) {
+                        sinceIterator.remove();
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.warning("Replication pass failed: " + e);
+                e.printStackTrace();
             }
+
             // Sleep for replication period
             try {
                 sleep(REPLICATION_PERIOD);
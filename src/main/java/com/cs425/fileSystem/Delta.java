@@ -0,0 +1,302 @@
+package com.cs425.fileSystem;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary delta of a version against an earlier base version, found rsync style: every whole block of the base is
+ * indexed by a rolling weak hash and a CRC32C, then the new version is scanned for blocks it shares with the base.
+ * The new version is described as a sequence of ranges copied from the base and literal ranges of its own bytes.
+ * Literal bytes are not held in the delta, they are sent after it in order.
+ */
+public class Delta implements Serializable {
+    // Data file holding the literal bytes of a version stored as a delta
+    public static final String SUFFIX = ".delta";
+
+    // Base offset of an op whose bytes are literal
+    public static final long LITERAL = -1;
+
+    // Bytes of the new version read into memory at a time while scanning it
+    private static final int WINDOW_SIZE = 8 << 20;
+
+    // Each op is {base offset or LITERAL, length}, in order of the new version
+    private final List<long[]> ops = new ArrayList<>();
+    private long length;
+    private long literalLength;
+
+    // Length of the version the delta produces
+    public long getLength() {
+        return length;
+    }
+
+    // Bytes of the new version that are not copied from the base
+    public long getLiteralLength() {
+        return literalLength;
+    }
+
+    // Write the ops of the delta to output, as sent in messages
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(ops.size());
+        for (long[] op: ops) {
+            output.writeLong(op[0]);
+            output.writeLong(op[1]);
+        }
+    }
+
+    // Read a delta written by write
+    public static Delta read(DataInput input) throws IOException {
+        Delta delta = new Delta();
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            long offset = input.readLong();
+            long length = input.readLong();
+            if (length < 0 || (offset < 0 && offset != LITERAL)) {
+                throw new IOException("Malformed delta op " + offset + ", " + length);
+            }
+            if (offset == LITERAL) {
+                delta.addLiteral(length);
+            } else {
+                delta.addCopy(offset, length);
+            }
+        }
+        return delta;
+    }
+
+    // Find the delta of target against base, matching blocks of blockSize bytes
+    public static Delta encode(StoredVersion base, StoredVersion target, int blockSize) throws IOException {
+        // Index whole blocks of the base by weak hash, with a bitmap to skip most lookups
+        int blocks = (int) (base.getLength() / blockSize);
+        int[] strong = new int[blocks];
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        boolean[] seen = new boolean[1 << 16];
+        int window = Math.max(blockSize, WINDOW_SIZE / blockSize * blockSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(window);
+        CRC32C crc = new CRC32C();
+
+        for (long offset = 0; offset < (long) blocks * blockSize; offset += window) {
+            int read = readFully(base, buffer, offset, (int) Math.min(window, (long) blocks * blockSize - offset));
+            for (int i = 0; i + blockSize <= read; i += blockSize) {
+                int block = (int) (offset / blockSize) + i / blockSize;
+                int weak = weakHash(buffer, i, blockSize);
+                strong[block] = strongHash(crc, buffer, i, blockSize);
+                List<Integer> candidates = index.getOrDefault(weak, new ArrayList<>());
+                candidates.add(block);
+                index.put(weak, candidates);
+                seen[fold(weak)] = true;
+            }
+        }
+
+        // Scan target, rolling the weak hash one byte at a time until a block matches
+        Delta delta = new Delta();
+        long length = target.getLength();
+        long position = 0;
+        long literalStart = 0;
+        long bufferStart = 0;
+        int buffered = 0;
+        boolean hashed = false;
+        int a = 0;
+        int b = 0;
+
+        while (blocks > 0 && position + blockSize <= length) {
+            if (position + blockSize > bufferStart + buffered) {
+                bufferStart = position;
+                buffered = readFully(target, buffer, position, (int) Math.min(window, length - position));
+                hashed = false;
+            }
+            int i = (int) (position - bufferStart);
+            if (!hashed) {
+                a = 0;
+                b = 0;
+                for (int j = 0; j < blockSize; j++) {
+                    int x = buffer.get(i + j) & 0xff;
+                    a += x;
+                    b += (blockSize - j) * x;
+                }
+                hashed = true;
+            }
+
+            int weak = (a & 0xffff) | (b << 16);
+            int match = -1;
+            if (seen[fold(weak)] && index.containsKey(weak)) {
+                int hash = strongHash(crc, buffer, i, blockSize);
+                for (int block: index.get(weak)) {
+                    if (strong[block] == hash) {
+                        match = block;
+                        break;
+                    }
+                }
+            }
+
+            if (match >= 0) {
+                delta.addLiteral(position - literalStart);
+                delta.addCopy((long) match * blockSize, blockSize);
+                position += blockSize;
+                literalStart = position;
+                hashed = false;
+            } else {
+                // Roll window forward one byte if the next byte is buffered, otherwise rehash after refilling
+                if (i + blockSize < buffered) {
+                    int out = buffer.get(i) & 0xff;
+                    int in = buffer.get(i + blockSize) & 0xff;
+                    a += in - out;
+                    b += a - blockSize * out;
+                } else {
+                    hashed = false;
+                }
+                position++;
+            }
+        }
+        delta.addLiteral(length - literalStart);
+        return delta;
+    }
+
+    // Store target locally as base plus this delta: literal bytes are copied from target into literalFile
+    public StoredVersion store(StoredVersion base, StoredVersion target, String directory, String literalFile) throws IOException {
+        StoredVersion version = StoredVersion.empty(directory);
+        try (FileChannel literals = FileChannel.open(Paths.get(directory + literalFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (long[] op: ops) {
+                if (op[0] == LITERAL) {
+                    long literalPosition = literals.size();
+                    if (target.copyTo(literals, literalPosition, position, op[1]) != op[1]) {
+                        throw new IOException("Version ended while storing delta");
+                    }
+                    version.addExtent(literalFile, literalPosition, op[1]);
+                } else {
+                    version.addRange(base, op[0], op[1]);
+                }
+                position += op[1];
+            }
+        }
+        return version;
+    }
+
+    // Send the literal bytes of target to socket, in order
+    public void sendLiterals(Socket socket, StoredVersion target) throws IOException {
+        long position = 0;
+        for (long[] op: ops) {
+            if (op[0] == LITERAL && target.send(socket, position, op[1]) != op[1]) {
+                throw new IOException("Version ended while sending delta");
+            }
+            position += op[1];
+        }
+    }
+
+    // Build the new version from a local copy of base and literal bytes received on socket, which are stored in literalFile
+    public StoredVersion receive(Socket socket, StoredVersion base, String directory, String literalFile) throws IOException {
+        StoredVersion version = StoredVersion.empty(directory);
+        try (FileChannel literals = FileChannel.open(Paths.get(directory + literalFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long literalPosition = 0;
+            for (long[] op: ops) {
+                if (op[0] == LITERAL) {
+                    receiveLiteral(socket, literals, literalPosition, op[1]);
+                    version.addExtent(literalFile, literalPosition, op[1]);
+                    literalPosition += op[1];
+                } else {
+                    version.addRange(base, op[0], op[1]);
+                }
+            }
+        }
+        return version;
+    }
+
+    // Write the new version into target, copying shared ranges from base and literal bytes from socket
+    public void receive(Socket socket, FileChannel base, FileChannel target) throws IOException {
+        long position = 0;
+        for (long[] op: ops) {
+            if (op[0] == LITERAL) {
+                receiveLiteral(socket, target, position, op[1]);
+            } else {
+                long copied = 0;
+                while (copied < op[1]) {
+                    target.position(position + copied);
+                    long n = base.transferTo(op[0] + copied, op[1] - copied, target);
+                    if (n <= 0) {
+                        throw new IOException("Base version is shorter than the delta expects");
+                    }
+                    copied += n;
+                }
+            }
+            position += op[1];
+        }
+    }
+
+    private void addLiteral(long count) {
+        if (count <= 0) {
+            return;
+        }
+        long[] last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        if (last != null && last[0] == LITERAL) {
+            last[1] += count;
+        } else {
+            ops.add(new long[] {LITERAL, count});
+        }
+        length += count;
+        literalLength += count;
+    }
+
+    private void addCopy(long offset, long count) {
+        long[] last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        if (last != null && last[0] != LITERAL && last[0] + last[1] == offset) {
+            last[1] += count;
+        } else {
+            ops.add(new long[] {offset, count});
+        }
+        length += count;
+    }
+
+    private static void receiveLiteral(Socket socket, FileChannel file, long position, long count) throws IOException {
+        if (FileTransfer.receiveFile(socket, file, position, count, null) != count) {
+            throw new IOException("Delta transfer ended early");
+        }
+    }
+
+    // Fill buffer with count bytes of version starting at position. Returns bytes read
+    private static int readFully(StoredVersion version, ByteBuffer buffer, long position, int count) throws IOException {
+        buffer.clear();
+        buffer.limit(count);
+        while (buffer.hasRemaining()) {
+            if (version.read(buffer, position + buffer.position()) <= 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    // rsync weak checksum: a is the sum of the bytes, b the sum weighted by distance from the end of the block
+    private static int weakHash(ByteBuffer buffer, int offset, int count) {
+        int a = 0;
+        int b = 0;
+        for (int j = 0; j < count; j++) {
+            int x = buffer.get(offset + j) & 0xff;
+            a += x;
+            b += (count - j) * x;
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static int strongHash(CRC32C crc, ByteBuffer buffer, int offset, int count) {
+        ByteBuffer block = buffer.duplicate();
+        block.limit(offset + count);
+        block.position(offset);
+        crc.reset();
+        crc.update(block);
+        return (int) crc.getValue();
+    }
+
+    private static int fold(int weak) {
+        return (weak ^ (weak >>> 16)) & 0xffff;
+    }
+}
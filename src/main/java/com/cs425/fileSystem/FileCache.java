@@ -0,0 +1,112 @@
+package com.cs425.fileSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * Bounded cache of the content of small stored versions, held off-heap in direct buffers so hot files are sent
+ * without touching the disk. Entries are evicted least recently used first once the cache holds more bytes than
+ * its capacity. Stored versions never change content, so an entry only goes when it is evicted, its version is
+ * removed, or a newer version of the same file is stored.
+ */
+public class FileCache {
+    private final long capacity;
+    private final long maxFileSize;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Cache holding at most capacity bytes, of versions up to maxFileSize bytes long
+    public FileCache(long capacity, long maxFileSize) {
+        this.capacity = capacity;
+        this.maxFileSize = Math.min(maxFileSize, capacity);
+    }
+
+    // Content of file, read from version and cached on a miss if it is small enough
+    // Returns a buffer of its own positioned at the start of the content, or null if the version is not cached
+    public ByteBuffer get(String file, StoredVersion version) throws IOException {
+        synchronized (this) {
+            ByteBuffer cached = entries.get(file);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.duplicate();
+            }
+        }
+        misses.incrementAndGet();
+
+        long length = version.getLength();
+        if (length > maxFileSize) {
+            return null;
+        }
+        ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+        while (content.hasRemaining()) {
+            if (version.read(content, content.position()) <= 0) {
+                throw new IOException("Version " + file + " ended while caching it");
+            }
+        }
+        content.flip();
+        put(file, content.asReadOnlyBuffer());
+        return content.asReadOnlyBuffer();
+    }
+
+    // Drop file from the cache
+    public synchronized void invalidate(String file) {
+        ByteBuffer removed = entries.remove(file);
+        if (removed != null) {
+            size -= removed.capacity();
+        }
+    }
+
+    // Drop the cached versions of the same SDFS file that are older than file
+    public synchronized void invalidateSuperseded(String file) {
+        MutablePair<String, Integer> stored = Coordinator.deconstructFileWithDelimiter(file);
+        for (Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, ByteBuffer> entry = iterator.next();
+            MutablePair<String, Integer> cached = Coordinator.deconstructFileWithDelimiter(entry.getKey());
+            if (cached.getLeft().equals(stored.getLeft()) && cached.getRight() < stored.getRight()) {
+                size -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Cached versions: " + entries.size() + ", " + size + " of " + capacity + " bytes\n"
+                + "Hits: " + hits.get() + ", misses: " + misses.get() + ", evictions: " + evictions.get();
+    }
+
+    private synchronized void put(String file, ByteBuffer content) {
+        if (entries.containsKey(file)) {
+            return;
+        }
+        entries.put(file, content);
+        size += content.capacity();
+
+        // Evict least recently used entries, reads still sending them hold their own buffers
+        for (Iterator<ByteBuffer> iterator = entries.values().iterator(); size > capacity && iterator.hasNext();) {
+            size -= iterator.next().capacity();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+}
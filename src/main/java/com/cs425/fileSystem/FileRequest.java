@@ -0,0 +1,103 @@
+package com.cs425.fileSystem;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.cs425.Messages.FileMessage;
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
+import com.cs425.Messages.FileMessage.MessageType;
+import com.cs425.membership.PeerConnections;
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * A request sent to a member on a connection of its own, with the reply read from it.
+ * A member whose queue for the request is full replies Busy. The request is then sent again on a new connection
+ * after a random wait whose bound doubles each time, so clients turned away together do not return together.
+ * Closing the request closes its connection. Requests that move no file data use call instead, which sends them
+ * on the connection kept open to the member, retried the same way.
+ */
+public class FileRequest implements AutoCloseable {
+    private static final int BUSY_RETRIES = SDFSConfig.getInt("BUSY_RETRIES", 5);
+    private static final long BUSY_BACKOFF = SDFSConfig.getLong("BUSY_BACKOFF", 50);
+
+    private final Socket socket;
+    private final ObjectOutputStream output;
+    private final ObjectInputStream input;
+    private final FileMessage reply;
+
+    private FileRequest(MemberListEntry entry, Serializable request) throws IOException, ClassNotFoundException {
+        socket = FileTransfer.openSocket(entry);
+        try {
+            output = new MessageOutputStream(socket.getOutputStream());
+            input = new MessageInputStream(socket.getInputStream());
+            output.writeObject(request);
+            output.flush();
+            reply = (FileMessage) input.readObject();
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Send request to entry and read the reply. The reply is still Busy if entry stayed busy through every retry
+    public static FileRequest send(MemberListEntry entry, Serializable request) throws IOException, ClassNotFoundException {
+        for (int attempt = 0; ; attempt++) {
+            FileRequest sent = new FileRequest(entry, request);
+            if (sent.reply.getMessageType() != MessageType.Busy || attempt >= BUSY_RETRIES) {
+                return sent;
+            }
+            sent.close();
+            if (!backOff(attempt)) {
+                return new FileRequest(entry, request);
+            }
+        }
+    }
+
+    // Send request to entry on the connection peers keeps open to it and return the reply, or null if there is none
+    // As with send, the reply is still Busy if entry stayed busy through every retry
+    public static FileMessage call(PeerConnections peers, MemberListEntry entry, Serializable request) throws IOException, ClassNotFoundException {
+        for (int attempt = 0; ; attempt++) {
+            FileMessage reply = (FileMessage) peers.call(entry, request);
+            if (reply == null || reply.getMessageType() != MessageType.Busy || attempt >= BUSY_RETRIES || !backOff(attempt)) {
+                return reply;
+            }
+        }
+    }
+
+    // Wait before retry attempt + 1. Returns false if interrupted
+    private static boolean backOff(int attempt) {
+        try {
+            Thread.sleep(1 + ThreadLocalRandom.current().nextLong(BUSY_BACKOFF << attempt));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public ObjectOutputStream getOutput() {
+        return output;
+    }
+
+    public ObjectInputStream getInput() {
+        return input;
+    }
+
+    public FileMessage getReply() {
+        return reply;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
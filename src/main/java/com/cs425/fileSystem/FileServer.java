@@ -2,44 +2,494 @@ package com.cs425.fileSystem;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.MutableTriple;
 
 import com.cs425.Messages.FileMessage;
 import com.cs425.Messages.FileMessage.Destination;
 import com.cs425.Messages.FileMessage.MessageType;
 import com.cs425.membership.MembershipList.MemberList;
 import com.cs425.membership.MembershipList.MemberListEntry;
+import com.cs425.membership.PeerConnections;
 
 import java.util.Map.Entry;
 
 public class FileServer {
+    private static final boolean STRIPED_GET = SDFSConfig.getBoolean("STRIPED_GET", true);
+    // Stripes are whole checksum chunks so each one can be verified on its own
+    private static final long STRIPE_SIZE = roundUpToChunk(SDFSConfig.getLong("STRIPE_SIZE", 8 << 20));
+    private static final boolean CHAIN_PUT = SDFSConfig.getBoolean("CHAIN_PUT", true);
+    private static final int WRITE_QUORUM = SDFSConfig.getInt("WRITE_QUORUM", 2);
+    private static final boolean DELTA_VERSIONS = SDFSConfig.getBoolean("DELTA_VERSIONS", true);
+    private static final int DELTA_BLOCK_SIZE = SDFSConfig.getInt("DELTA_BLOCK_SIZE", 8192);
+    private static final int DELTA_MAX_LITERAL_PERCENT = SDFSConfig.getInt("DELTA_MAX_LITERAL_PERCENT", 50);
+    private static final int MATERIALIZE_READS = SDFSConfig.getInt("MATERIALIZE_READS", 8);
+    private static final long MAINTENANCE_PERIOD = SDFSConfig.getLong("MAINTENANCE_PERIOD", 30000);
+    private static final long CACHE_SIZE = SDFSConfig.getLong("CACHE_SIZE", 64 << 20);
+    private static final long CACHE_MAX_FILE_SIZE = SDFSConfig.getLong("CACHE_MAX_FILE_SIZE", 4 << 20);
+    private static final long CLIENT_CACHE_SIZE = SDFSConfig.getLong("CLIENT_CACHE_SIZE", 1L << 30);
+    private static final long NODE_BANDWIDTH = SDFSConfig.getLong("NODE_BANDWIDTH", 125000000);
+    private static final long FOREGROUND_RATE = SDFSConfig.getLong("FOREGROUND_RATE", 0);
+    private static final long BACKGROUND_RATE = SDFSConfig.getLong("BACKGROUND_RATE", 62500000);
+    private static final long BACKGROUND_MIN_RATE = SDFSConfig.getLong("BACKGROUND_MIN_RATE", 4000000);
+    private static final int MAX_FOREGROUND_TRANSFERS = SDFSConfig.getInt("MAX_FOREGROUND_TRANSFERS", 32);
+    private static final int MAX_BACKGROUND_TRANSFERS = SDFSConfig.getInt("MAX_BACKGROUND_TRANSFERS", 2);
+    private static final long PACK_MAX_FILE_SIZE = SDFSConfig.getLong("PACK_MAX_FILE_SIZE", 64 << 10);
+    private static final long SEGMENT_SIZE = SDFSConfig.getLong("SEGMENT_SIZE", 64 << 20);
+    private static final int SEGMENT_COMPACT_LIVE_PERCENT = SDFSConfig.getInt("SEGMENT_COMPACT_LIVE_PERCENT", 50);
+    private static final GroupCommit.Mode DURABILITY = GroupCommit.parseMode(SDFSConfig.getString("DURABILITY", "group"));
+    private static final String STORAGE_VOLUMES = SDFSConfig.getString("STORAGE_VOLUMES", "");
+    private static final int VOLUME_IO_THREADS = SDFSConfig.getInt("VOLUME_IO_THREADS", 2);
+    private static final long ERASURE_MIN_FILE_SIZE = SDFSConfig.getLong("ERASURE_MIN_FILE_SIZE", 1 << 20);
+    private static final int BATCH_SIZE = SDFSConfig.getInt("BATCH_SIZE", 256);
+    private static final int BATCH_CONNECTIONS = SDFSConfig.getInt("BATCH_CONNECTIONS", 4);
+    private static final int BATCH_COMMIT_THREADS = SDFSConfig.getInt("BATCH_COMMIT_THREADS", 4);
+    private static final ReedSolomon CODEC = new ReedSolomon(CodedVersion.DATA_SHARDS, CodedVersion.PARITY_SHARDS);
+
+    // Data file holding the whole content of a materialized version
+    private static final String MATERIALIZED_SUFFIX = ".full";
+    // Verified bytes of a version whose put failed partway, with checksums alongside, resumed by replication
+    private static final String PART_SUFFIX = ".part";
+    // Data of a put being received, renamed to the version's name once complete
+    private static final String STAGED_SUFFIX = ".staged";
+    // Shards being written while a version is coded, or fetched to rebuild another shard
+    private static final String CODING_SUFFIX = ".coding";
 
     Random rand = new Random();
-    private  String baseDirectory;
-    public Set<String> files;
+    // Versions and shards of erasure coded versions stored here, by SDFS file and version number
+    private VersionIndex index = new VersionIndex();
 
     // Shared from Member class
     // In order to maintain thread safety, modifiers must not be called within this class
     private volatile MemberList memberList;
+    // Connections kept open to other members for control messages, shared from Member class
+    private PeerConnections peers;
+
+    // Directories versions are stored in, each with its own manifest, segments and I/O threads
+    private List<StorageVolume> volumes = new ArrayList<>();
+    // Volume holding each stored version, and each version being received
+    private Map<String, StorageVolume> locations = new ConcurrentHashMap<>();
+    // Where the next search for a volume to place a version on starts
+    private AtomicInteger nextVolume = new AtomicInteger();
+    // Health checks and hand out of background work to the volumes' threads, one pass at a time
+    private ScheduledExecutorService maintenance;
+    // Reads of each stored version since the last maintenance pass
+    private Map<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+    // Content of small, recently read versions
+    private FileCache cache = new FileCache(CACHE_SIZE, CACHE_MAX_FILE_SIZE);
+    // Versions this node fetched with get, kept apart from the versions it stores as a replica
+    private ClientCache clientCache;
+    // Bandwidth and transfer slots shared between client requests and replication repair
+    private TransferScheduler scheduler = new TransferScheduler(NODE_BANDWIDTH, FOREGROUND_RATE, BACKGROUND_RATE, BACKGROUND_MIN_RATE,
+            MAX_FOREGROUND_TRANSFERS, MAX_BACKGROUND_TRANSFERS);
 
-    public FileServer(String host, int port, MemberList memberList) {
+    public FileServer(String host, int port, MemberList memberList, PeerConnections peers) {
         // this.host = host;
 
         this.memberList = memberList;
-        this.baseDirectory = System.getProperty("user.home")+"/Desktop/SDFS/" + host + "/" + Integer.toString(port) + "/";
+        this.peers = peers;
+
+        for (String root: storageRoots()) {
+            String directory = root + "/" + host + "/" + Integer.toString(port) + "/";
+            StorageVolume volume = new StorageVolume(directory, SEGMENT_SIZE, SEGMENT_COMPACT_LIVE_PERCENT, DURABILITY, VOLUME_IO_THREADS);
+            volumes.add(volume);
+            try {
+                // Versions stored before a crash or restart are kept, so they need not be replicated here again
+                FileUtils.forceMkdir(new File(directory));
+                loadStoredVersions(volume);
+            } catch (IOException e) {
+                e.printStackTrace();
+                volume.fail(e);
+                dropVersions(volume);
+                System.out.println("Storage volume " + directory + " is unusable, storing versions on the others");
+            }
+        }
+        if (index.getVersionCount() > 0 || index.getShardCount() > 0) {
+            System.out.println("Kept " + index.getVersionCount() + " stored versions and " + index.getShardCount() + " shards from before restart");
+        }
+        clientCache = new ClientCache(System.getProperty("user.home")+"/Desktop/SDFS/" + host + "/" + Integer.toString(port) + "-cache/", CLIENT_CACHE_SIZE);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintainVolumes();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }, MAINTENANCE_PERIOD, MAINTENANCE_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    // Root directories of the storage volumes, the desktop directory if none are configured
+    private static List<String> storageRoots() {
+        List<String> roots = new ArrayList<>();
+        for (String root: STORAGE_VOLUMES.split(",")) {
+            if (!root.trim().isEmpty()) {
+                roots.add(root.trim());
+            }
+        }
+        if (roots.isEmpty()) {
+            roots.add(System.getProperty("user.home") + "/Desktop/SDFS");
+        }
+        return roots;
+    }
+
+    // Stop background maintenance and close the manifests, once this node has left the group
+    public void stop() {
+        maintenance.shutdownNow();
+        for (StorageVolume volume: volumes) {
+            volume.close();
+        }
+    }
+
+    // Reload the versions recorded in a volume's manifest, keeping those whose data is all on disk
+    // Anything else in the volume's directory was left by a write the restart interrupted, and is removed
+    private void loadStoredVersions(StorageVolume volume) throws IOException {
+        Set<String> stored = new HashSet<>();
+        Set<String> referenced = new HashSet<>();
+        referenced.add(StoreManifest.FILE_NAME);
+        referenced.addAll(volume.getSegments().load());
+        for (String file: volume.getManifest().load()) {
+            // Also on a volume loaded earlier, if the volumes were reconfigured
+            if (stores(file)) {
+                continue;
+            }
+            locations.put(file, volume);
+            StoredVersion version = loadVersion(file);
+            ChunkChecksums checksums = loadChecksums(file);
+            if (version == null || !version.isComplete() || (checksums != null && checksums.getLength() != version.getLength())) {
+                System.out.println("Dropping incomplete stored version " + file);
+                locations.remove(file);
+                continue;
+            }
+            stored.add(file);
+            index.add(file);
+            referenced.addAll(version.getDataFiles());
+            if (!volume.getSegments().contains(file)) {
+                referenced.add(file + ChunkChecksums.SUFFIX);
+                referenced.add(file + StoredVersion.SUFFIX);
+            }
+        }
+        volume.getManifest().rewrite(stored);
+        // Packed before a crash but never recorded as stored
+        volume.getSegments().retain(stored);
+
+        for (File file: new File(volume.getDirectory()).listFiles()) {
+            if (!referenced.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    // Tell the coordinator which versions this node kept across a restart, so they are not replicated again
+    // Versions the coordinator does not know of were deleted while this node was away, and are dropped
+    // Files it deleted are reported too, so their version numbers are not handed out again
+    public void reportStoredVersions() {
+        Set<String> stored = storedNames();
+        Set<String> deleted = deletedVersions();
+        if ((stored.isEmpty() && deleted.isEmpty()) || memberList.getCoordinator() == null) {
+            return;
+        }
 
-        files = Collections.synchronizedSet(new HashSet<>());
+        FileMessage report = new FileMessage(MessageType.StoreReport, stored, Destination.Coordinator);
+        report.setDeletedVersions(deleted);
+        report.setNodes(Collections.singletonList(memberList.getOwner()));
+        FileMessage response = sendToCoordinator(report);
+        if (response == null || response.getMessageType() != MessageType.Ok) {
+            return;
+        }
+        for (String file: response.getFilesOnNode()) {
+            dropVersion(file);
+        }
+    }
+
+    // Latest deleted version of each file deleted here, as recorded on any volume
+    private Set<String> deletedVersions() {
+        Map<String, MutablePair<String, Integer>> latest = new HashMap<>();
+        for (StorageVolume volume: volumes) {
+            for (String version: volume.getManifest().getDeleted()) {
+                MutablePair<String, Integer> pair = Coordinator.deconstructFileWithDelimiter(version);
+                if (!latest.containsKey(pair.getLeft()) || latest.get(pair.getLeft()).getRight() < pair.getRight()) {
+                    latest.put(pair.getLeft(), MutablePair.of(version, pair.getRight()));
+                }
+            }
+        }
+        Set<String> deleted = new HashSet<>();
+        for (MutablePair<String, Integer> version: latest.values()) {
+            deleted.add(version.getLeft());
+        }
+        return deleted;
+    }
+
+    // Record that version's file was deleted from SDFS, on the volume holding it or else the first one in use
+    private void recordDeleted(String version) {
+        StorageVolume volume = locations.get(version);
+        if (volume == null || volume.isFailed()) {
+            volume = null;
+            for (StorageVolume candidate: volumes) {
+                if (!candidate.isFailed()) {
+                    volume = candidate;
+                    break;
+                }
+            }
+        }
+        if (volume != null) {
+            volume.getManifest().addDeleted(version);
+        }
+    }
 
+    // Stop storing file and remove its files, leaving data files it shares with other versions to be collected
+    private void dropVersion(String file) {
+        StorageVolume volume = locations.get(file);
+        if (volume == null) {
+            return;
+        }
         try {
-            //everytime system crashes, file directory should be clean
-            if (new File(baseDirectory).exists()) {
-                FileUtils.cleanDirectory(new File(baseDirectory));
-            } else {
-                FileUtils.forceMkdir(new File(baseDirectory));
+            StoredVersion version = loadVersion(file);
+            removeVersion(file);
+            new File(volume.getDirectory() + file + ChunkChecksums.SUFFIX).delete();
+            new File(volume.getDirectory() + file + StoredVersion.SUFFIX).delete();
+            // Data files may be shared with versions that are still stored
+            if (version != null) {
+                volume.markGarbage(version.getDataFiles());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stop storing each of expired, versions the coordinator's retention policy dropped, and their shards
+    // The records of each volume's manifest are forced to disk together, and data files, which may be shared
+    // with versions still stored, are left to garbage collection on the volume's own threads
+    private void dropExpiredVersions(Set<String> expired) {
+        Set<String> dropped = new HashSet<>();
+        for (String version: expired) {
+            dropped.addAll(index.namesOf(version));
+        }
+
+        Map<StorageVolume, List<String>> byVolume = new HashMap<>();
+        for (String file: dropped) {
+            StorageVolume volume = locations.get(file);
+            if (volume == null || !stores(file)) {
+                continue;
+            }
+            try {
+                StoredVersion version = loadVersion(file);
+                forgetVersion(file);
+                new File(volume.getDirectory() + file + ChunkChecksums.SUFFIX).delete();
+                new File(volume.getDirectory() + file + StoredVersion.SUFFIX).delete();
+                if (version != null) {
+                    volume.markGarbage(version.getDataFiles());
+                }
+                byVolume.putIfAbsent(volume, new ArrayList<>());
+                byVolume.get(volume).add(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Entry<StorageVolume, List<String>> entry: byVolume.entrySet()) {
+            entry.getKey().getManifest().removeAll(entry.getValue());
+        }
+    }
+
+    // Whether file is a version or shard stored here
+    private boolean stores(String file) {
+        return index.contains(file);
+    }
+
+    // Versions and shards stored here
+    private Set<String> storedNames() {
+        return index.names();
+    }
+
+    // Record file as stored here, once all of its data is in place on the volume it was placed on
+    // Returns once the version is durable, as DURABILITY sets. If it cannot be made durable it is discarded
+    private void addVersion(String file) throws IOException {
+        StorageVolume volume = volumeOf(file);
+        // Drop anything cached under the version's name and the older versions it supersedes
+        // Shards are never cached
+        if (!CodedVersion.isShard(file)) {
+            cache.invalidate(file);
+            cache.invalidateSuperseded(file);
+        }
+        packVersion(volume, file);
+        try {
+            volume.getCommits().commit(file, versionFiles(file));
+        } catch (IOException e) {
+            volume.getSegments().remove(file);
+            discardFile(file);
+            throw e;
+        }
+        index.add(file);
+    }
+
+    // Files holding the data and metadata of a version, which must be on disk before it is acknowledged
+    private Set<String> versionFiles(String file) throws IOException {
+        StoredVersion version = loadVersion(file);
+        Set<String> versionFiles = version == null ? new HashSet<>() : version.getDataFiles();
+        versionFiles.add(file + ChunkChecksums.SUFFIX);
+        versionFiles.add(file + StoredVersion.SUFFIX);
+        return versionFiles;
+    }
+
+    // Record file as no longer stored here
+    private void removeVersion(String file) {
+        StorageVolume volume = forgetVersion(file);
+        if (volume != null) {
+            volume.getManifest().remove(file);
+        }
+    }
+
+    // Drop file from this node's records and its volume's segments, leaving the manifest to the caller
+    // Returns the volume it was on, or null if it was on none
+    private StorageVolume forgetVersion(String file) {
+        index.remove(file);
+        cache.invalidate(file);
+        StorageVolume volume = locations.remove(file);
+        if (volume == null) {
+            return null;
+        }
+        try {
+            volume.getSegments().remove(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return volume;
+    }
+
+    // Volume file is stored on or being received into
+    private StorageVolume volumeOf(String file) throws IOException {
+        StorageVolume volume = locations.get(file);
+        if (volume == null) {
+            throw new IOException("Version " + file + " is not on any storage volume");
+        }
+        return volume;
+    }
+
+    // Path of file's data file on its volume
+    private String pathOf(String file) throws IOException {
+        return volumeOf(file).getDirectory() + file;
+    }
+
+    // Choose the volume a new version of length bytes is written to, record it as the version's location and
+    // count the write against the volume until the caller calls endWrite
+    // A version sharing data with baseFile goes on the same volume, since its extents name files in one directory
+    private StorageVolume placeVersion(String file, String baseFile, long length) throws IOException {
+        StorageVolume volume = baseFile == null ? null : locations.get(baseFile);
+        if (volume == null || volume.isFailed()) {
+            volume = chooseVolume(file, length);
+        }
+        volume.beginWrite();
+        locations.put(file, volume);
+        return volume;
+    }
+
+    // Volume keeping part of file from an earlier transfer, otherwise the volume with room for length bytes and
+    // the fewest writes in progress, the one with the most free space between equally busy ones
+    // The search starts at the next volume each time, so volumes that tie take turns
+    private StorageVolume chooseVolume(String file, long length) throws IOException {
+        StorageVolume chosen = null;
+        long chosenSpace = 0;
+        int start = Math.floorMod(nextVolume.getAndIncrement(), volumes.size());
+        for (int i = 0; i < volumes.size(); i++) {
+            StorageVolume volume = volumes.get((start + i) % volumes.size());
+            if (volume.isFailed()) {
+                continue;
+            }
+            if (new File(volume.getDirectory() + file + PART_SUFFIX).exists()) {
+                return volume;
+            }
+            long space = volume.getFreeSpace();
+            boolean fits = space >= length;
+            boolean chosenFits = chosenSpace >= length;
+            int writes = volume.getWrites();
+            if (chosen == null || (fits && !chosenFits)
+                    || (fits == chosenFits && (writes < chosen.getWrites() || (writes == chosen.getWrites() && space > chosenSpace)))) {
+                chosen = volume;
+                chosenSpace = space;
+            }
+        }
+        if (chosen == null) {
+            throw new IOException("No storage volume left to store " + file);
+        }
+        return chosen;
+    }
+
+    // Layout of a stored version, packed into a segment or in files of its own, or null if it is on no volume
+    private StoredVersion loadVersion(String file) throws IOException {
+        StorageVolume volume = locations.get(file);
+        if (volume == null) {
+            return null;
+        }
+        StoredVersion packed = volume.getSegments().layout(file);
+        return packed != null ? packed : StoredVersion.load(volume.getDirectory(), file);
+    }
+
+    // Checksums of a stored version, or null if it has none
+    private ChunkChecksums loadChecksums(String file) {
+        StorageVolume volume = locations.get(file);
+        if (volume == null) {
+            return null;
+        }
+        ChunkChecksums packed = volume.getSegments().checksums(file);
+        return packed != null ? packed : ChunkChecksums.load(volume.getDirectory() + file);
+    }
+
+    // Move a newly received version into the volume's open segment if it is small, removing the files it was received into
+    private void packVersion(StorageVolume volume, String file) {
+        if (PACK_MAX_FILE_SIZE <= 0) {
+            return;
+        }
+        String directory = volume.getDirectory();
+        try {
+            StoredVersion version = StoredVersion.load(directory, file);
+            if (version == null || version.getLength() > PACK_MAX_FILE_SIZE) {
+                return;
+            }
+            ChunkChecksums checksums = ChunkChecksums.load(directory + file);
+            volume.getSegments().add(file, version, checksums != null ? checksums : ChunkChecksums.compute(version));
+
+            new File(directory + file + ChunkChecksums.SUFFIX).delete();
+            new File(directory + file + StoredVersion.SUFFIX).delete();
+            // The version's own data file has no readers yet, data files it shares are collected once unused
+            Set<String> dataFiles = version.getDataFiles();
+            if (dataFiles.remove(file)) {
+                new File(directory + file).delete();
             }
+            volume.markGarbage(dataFiles);
         } catch (IOException e) {
+            // Left in its own files
             e.printStackTrace();
         }
     }
@@ -49,13 +499,58 @@ public class FileServer {
     // Opening/closing resources is also handled there
     public void processFileMessage(FileMessage inputMessage, Socket client, ObjectInputStream inputStream, ObjectOutputStream outputStream) {
         assert inputMessage.getDestination() == Destination.FileServer : "Recieved message not meant for this handler";
+        TransferScheduler.Transfer transfer = null;
+        if (movesData(inputMessage.getMessageType()) && inputMessage.isBackground()) {
+            // Part of a background transfer that holds a slot on the requesting node, which may be waiting for this
+            // node's slots in turn, so it only shares the background bandwidth
+            transfer = scheduler.join(TransferScheduler.Priority.BACKGROUND);
+        } else if (movesData(inputMessage.getMessageType())) {
+            // Replication repair only gets the bandwidth client requests leave spare
+            boolean background = inputMessage.getMessageType() == MessageType.Replicate
+                    || inputMessage.getMessageType() == MessageType.ReplicateBatch || inputMessage.getMessageType() == MessageType.Encode
+                    || inputMessage.getMessageType() == MessageType.RebuildShard;
+            transfer = scheduler.begin(background ? TransferScheduler.Priority.BACKGROUND : TransferScheduler.Priority.FOREGROUND);
+        }
         try {
             switch (inputMessage.getMessageType()) {
                 case Get:
-                    if (files.contains(inputMessage.getFile())) {
-                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                    if (stores(inputMessage.getFile())) {
+                        FileMessage response = okWithChecksums(inputMessage.getFile());
+                        response.setCompressed(inputMessage.isCompressed() && Compression.ENABLED);
+                        outputStream.writeObject(response);
+                        outputStream.flush();
+                        countRead(inputMessage.getFile());
+                        handleGet(inputMessage.getFile(), client, response.isCompressed());
+                    }
+                    else {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                        outputStream.flush();
+                    }
+                    break;
+                case Stat:
+                    if (stores(inputMessage.getFile())) {
+                        long length = loadVersion(inputMessage.getFile()).getLength();
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, inputMessage.getFile(), 0, length, Destination.Client));
+                    }
+                    else {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                    }
+                    outputStream.flush();
+                    break;
+                case GetRange:
+                    if (stores(inputMessage.getFile())) {
+                        // Clamp range to the stored file and tell the client how many bytes will follow
+                        long fileLength = loadVersion(inputMessage.getFile()).getLength();
+                        long offset = Math.min(inputMessage.getOffset(), fileLength);
+                        long length = Math.min(inputMessage.getLength(), fileLength - offset);
+
+                        FileMessage response = new FileMessage(FileMessage.MessageType.Ok, inputMessage.getFile(), offset, length, Destination.Client);
+                        response.setChecksums(loadChecksums(inputMessage.getFile()));
+                        response.setCompressed(inputMessage.isCompressed() && Compression.ENABLED);
+                        outputStream.writeObject(response);
                         outputStream.flush();
-                        handleGet(inputMessage.getFile(), client);
+                        countRead(inputMessage.getFile());
+                        handleGetRange(inputMessage.getFile(), offset, length, client, response.isCompressed());
                     }
                     else {
                         outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
@@ -63,38 +558,56 @@ public class FileServer {
                     }
                     break;
                 case Put:
-                    if (files.contains(inputMessage.getFile())) {
+                    if (stores(inputMessage.getFile())) {
                         outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
                         outputStream.flush();
                     }
                     else {
-                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                        FileMessage response = new FileMessage(FileMessage.MessageType.Ok, Destination.Client);
+                        response.setCompressed(inputMessage.isCompressed() && Compression.ENABLED);
+                        outputStream.writeObject(response);
+                        outputStream.flush();
+                        handlePut(client, inputMessage.getFile(), inputMessage.getChecksums(), response.isCompressed(), outputStream);
+                    }
+                    break;
+                case ChainPut:
+                    if (stores(inputMessage.getFile())) {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                        outputStream.flush();
+                    }
+                    else {
+                        handleChainPut(client, inputMessage.getFile(), inputMessage.getNodes(), inputMessage.getChecksums(), inputMessage.isCompressed(), outputStream);
+                    }
+                    break;
+                case Append:
+                    // Can only extend a version this node stores
+                    if (index.containsVersion(inputMessage.getFile()) || !index.containsVersion(inputMessage.getBaseFile())) {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
                         outputStream.flush();
-                        handlePut(client,inputMessage.getFile());
                     }
+                    else {
+                        FileMessage response = new FileMessage(FileMessage.MessageType.Ok, Destination.Client);
+                        response.setCompressed(inputMessage.isCompressed() && Compression.ENABLED);
+                        outputStream.writeObject(response);
+                        outputStream.flush();
+                        handleAppend(client, inputMessage.getFile(), inputMessage.getBaseFile(), inputMessage.getChecksums(), response.isCompressed(), outputStream);
+                    }
+                    break;
+                case GetDelta:
+                    handleGetDelta(inputMessage.getFile(), inputMessage.getBaseFile(), client, outputStream);
                     break;
                 case Replicate:
                     // Tell coordinator if node already has file
-                    if (files.contains(inputMessage.getFile())) {
+                    if (index.containsVersion(inputMessage.getFile())) {
                         outputStream.writeObject(new FileMessage(FileMessage.MessageType.FileExists, Destination.Client));
                         outputStream.flush();
                         return;
                     }
 
-                    boolean completed = false;
-
                     List<MemberListEntry> servers = inputMessage.getNodes();
                     Collections.shuffle(servers);   // Shuffle list to reduce load on single nodes
 
-                    for(MemberListEntry node: servers) {
-                        // Store with same name as received since this is an SDFS replica
-                        completed = receiveFile(node, baseDirectory+inputMessage.getFile(), inputMessage.getFile());
-                        if(completed){
-                            files.add(inputMessage.getFile());
-                            break;
-                        }
-                    }
-                    if (!completed){
+                    if (!replicate(inputMessage.getFile(), servers)){
                         // Tell Coordinator operation failed
                         System.out.println("Could not complete get operation");
                         outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
@@ -105,22 +618,69 @@ public class FileServer {
                         outputStream.flush();
                     }
                     break;
+                case ReplicateBatch:
+                    // Tell coordinator which of the versions this node now stores
+                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, replicateBatch(inputMessage.getFilesOnNode(), inputMessage.getNodes()), Destination.Client));
+                    outputStream.flush();
+                    break;
+                case GetPacked:
+                    handleGetPacked(inputMessage.getFilesOnNode(), client, outputStream);
+                    break;
+                case PutBatch:
+                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                    outputStream.flush();
+                    handlePutBatch(inputMessage.getFilesOnNode(), client, inputStream, outputStream);
+                    break;
+                case GetBatch:
+                    handleGetBatch(inputMessage.getFilesOnNode(), client, outputStream);
+                    break;
                 case Delete:
-                    File dir = new File(baseDirectory);
-                    File[] toBeDeleted = dir.listFiles(new FilenameFilter() {
-                        @Override
-                        public boolean accept(File dir, String name) {
-                            return (name.startsWith(inputMessage.getFile()));
-                        }
-                    });
-                        for(File f : toBeDeleted)
-                        {
-                            f.delete();
-                        }
-                    files.remove(inputMessage.getFile());
+                    // Kept so a new coordinator does not hand the version's name out again
+                    if (!CodedVersion.isShard(inputMessage.getFile())) {
+                        recordDeleted(inputMessage.getFile());
+                    }
+                    // The version and its shards, looked up by name, their data files shared with other versions
+                    // left to garbage collection
+                    for (String name: index.namesOf(inputMessage.getFile())) {
+                        dropVersion(name);
+                    }
+                    // Bytes kept from a put of the version that failed partway
+                    for (StorageVolume volume: volumes) {
+                        new File(volume.getDirectory() + inputMessage.getFile() + PART_SUFFIX).delete();
+                        new File(volume.getDirectory() + inputMessage.getFile() + PART_SUFFIX + ChunkChecksums.SUFFIX).delete();
+                    }
+                    // Acknowledged so the coordinator can tell a handled delete from a Busy one
+                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                    outputStream.flush();
+                    break;
+                case DeleteBatch:
+                    dropExpiredVersions(inputMessage.getFilesOnNode());
+                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                    outputStream.flush();
                     break;
                 case CoordinatorStoreRequest:
-                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, files, Destination.Client));
+                    FileMessage storeResponse = new FileMessage(FileMessage.MessageType.Ok, storedNames(), Destination.Client);
+                    storeResponse.setDeletedVersions(deletedVersions());
+                    outputStream.writeObject(storeResponse);
+                    outputStream.flush();
+                    break;
+                case Encode:
+                    long codedLength = index.containsVersion(inputMessage.getFile()) ? codeVersion(inputMessage.getFile(), inputMessage.getNodes()) : -1;
+                    if (codedLength < 0) {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                    } else {
+                        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, inputMessage.getFile(), 0, codedLength, Destination.Client));
+                    }
+                    outputStream.flush();
+                    break;
+                case DropReplica:
+                    dropVersion(inputMessage.getFile());
+                    outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+                    outputStream.flush();
+                    break;
+                case RebuildShard:
+                    boolean rebuilt = index.containsShard(inputMessage.getFile()) || rebuildShard(inputMessage.getFile(), inputMessage.getVersionData());
+                    outputStream.writeObject(new FileMessage(rebuilt ? FileMessage.MessageType.Ok : FileMessage.MessageType.Fail, Destination.Client));
                     outputStream.flush();
                     break;
                 default:
@@ -129,335 +689,2022 @@ public class FileServer {
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (transfer != null) {
+                transfer.close();
+            }
         }
     }
 
-    // Respond to Get request by sending file to client
-    private void handleGet(String file, Socket client) {
-        try{
-            byte [] buffer=new byte[1024];
-            Integer i;
-            DataOutputStream fileOut = new DataOutputStream(client.getOutputStream());
-            FileInputStream input = new FileInputStream((baseDirectory+file));
-            while((i=input.read(buffer)) != -1) {
-                fileOut.write(buffer,0,i);
+    // Fetch a replica of file from one of servers and store it. Returns false if none could send it
+    private boolean replicate(String file, List<MemberListEntry> servers) {
+        // An older version stored here lets the replica be fetched as a delta against it, onto the older one's volume
+        String baseFile = DELTA_VERSIONS ? localPredecessor(file) : null;
+
+        StorageVolume volume = null;
+        try {
+            volume = placeVersion(file, baseFile, 0);
+            for(MemberListEntry node: servers) {
+                if (baseFile != null && receiveDelta(node, file, baseFile)) {
+                    addVersion(file);
+                    return true;
+                }
             }
-            fileOut.flush();
-            fileOut.close();
-            input.close();
-        }
-        catch (FileNotFoundException ex){
-            ex.printStackTrace();
+
+            // Store with same name as received since this is an SDFS replica
+            if (receiveFile(servers, volume.getDirectory() + file, file, true)) {
+                addVersion(file);
+                scheduleDeltaEncoding(file);
+                return true;
+            }
+            discardFile(file);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            if (volume != null) {
+                volume.endWrite();
+            }
         }
+        return false;
     }
 
-    // Respond to Put request by storing file on local node
-    private void handlePut(Socket otherFileServer, String file){
-        try{
-            byte [] buffer=new byte[1024];
-            Integer i;
-            FileOutputStream output = new FileOutputStream(baseDirectory+file);
-            DataInputStream fileIn = new DataInputStream(otherFileServer.getInputStream());
-            while((i=fileIn.read(buffer))>0) {
-                output.write(buffer,0,i);
+    // Fetch replicas of a batch of versions from servers. Versions the servers have packed arrive together on
+    // one connection per server, the rest are fetched one by one. Returns the versions now stored here
+    private Set<String> replicateBatch(Set<String> batch, List<MemberListEntry> servers) {
+        Set<String> stored = new HashSet<>();
+        Set<String> missing = new HashSet<>();
+        for (String file: batch) {
+            if (index.containsVersion(file)) {
+                stored.add(file);
+            } else {
+                missing.add(file);
             }
-            output.flush();
-            output.close();
-            fileIn.close();
-            files.add(file);
+        }
 
+        Collections.shuffle(servers);   // Shuffle list to reduce load on single nodes
+        for (MemberListEntry node: servers) {
+            if (missing.isEmpty()) {
+                break;
+            }
+            for (String file: receivePacked(node, missing)) {
+                missing.remove(file);
+                stored.add(file);
+            }
         }
-        catch (IOException e) {
-                e.printStackTrace();
+        for (String file: missing) {
+            if (replicate(file, servers)) {
+                stored.add(file);
+            } else {
+                System.out.println("Could not replicate " + file);
+            }
         }
+        return stored;
     }
-    
-    // Handle command line arguments from main thread
-    public void processFileCommands(String localFileName, String sdfsFileName, String command, Integer versions) {
-        switch (command) {
-            case "store":
-                if (files.size() == 0){
-                    System.out.println("No files stored in the current VM:");
+
+    // Respond to GetPacked request by sending the requested versions packed on this node, one after another
+    // Each version's length and checksums precede its bytes, the connection closes after the last one
+    private void handleGetPacked(Set<String> requested, Socket client, ObjectOutputStream outputStream) throws IOException {
+        List<MutablePair<String, StoredVersion>> packed = new ArrayList<>();
+        for (String file: requested) {
+            StorageVolume volume = locations.get(file);
+            StoredVersion version = index.containsVersion(file) && volume != null ? volume.getSegments().layout(file) : null;
+            if (version != null) {
+                packed.add(new MutablePair<>(file, version));
+            }
+        }
+
+        Set<String> sending = new HashSet<>();
+        for (MutablePair<String, StoredVersion> entry: packed) {
+            sending.add(entry.getLeft());
+        }
+        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, sending, Destination.Client));
+        for (MutablePair<String, StoredVersion> entry: packed) {
+            FileMessage header = new FileMessage(FileMessage.MessageType.Ok, entry.getLeft(), 0, entry.getRight().getLength(), Destination.Client);
+            header.setChecksums(loadChecksums(entry.getLeft()));
+            outputStream.writeObject(header);
+            outputStream.flush();
+            entry.getRight().send(client, 0, entry.getRight().getLength());
+        }
+        outputStream.flush();
+        client.close();
+    }
+
+    // Fetch the versions in files that entry has packed, packing them here too. Returns the versions stored
+    private Set<String> receivePacked(MemberListEntry entry, Set<String> files) {
+        Set<String> received = new HashSet<>();
+        if (!memberList.containsEntry(entry)) {
+            return received;
+        }
+        FileMessage request = new FileMessage(FileMessage.MessageType.GetPacked, new HashSet<>(files), Destination.FileServer);
+        request.setBackground(true);
+        try (FileRequest sent = FileRequest.send(entry, request)) {
+            if (sent.getReply().getMessageType() != MessageType.Ok) {
+                return received;
+            }
+            ReadableByteChannel input = FileTransfer.inputChannel(sent.getSocket());
+            for (int i = sent.getReply().getFilesOnNode().size(); i > 0; i--) {
+                FileMessage header = readMessage(sent.getInput());
+                ChunkChecksums checksums = header.getChecksums();
+                if (checksums == null || checksums.getLength() != header.getLength() || header.getLength() > PACK_MAX_FILE_SIZE) {
+                    throw new IOException("Packed version " + header.getFile() + " from " + entry + " is not small enough to pack");
                 }
-                else {
-                    System.out.println("The files stored in current VM:");
 
-                    for (String file : files) {
-                        System.out.println(file.replace('#', '/'));
+                ByteBuffer content = ByteBuffer.allocate((int) header.getLength());
+                while (content.hasRemaining()) {
+                    if (input.read(content) < 0) {
+                        throw new IOException("Transfer of " + header.getFile() + " ended early");
                     }
                 }
-                break;
-                
-            case "put":
-                File file = new File(localFileName);
-                if (!file.exists()) {
-                    System.out.print("Put operatiorn failed: local file not found.");
-                    return;
+                content.flip();
+                TransferScheduler.throttle(content.remaining());
+                checksums.verifier(0).update(content);
+                StorageVolume volume = placeVersion(header.getFile(), null, header.getLength());
+                try {
+                    volume.getSegments().add(header.getFile(), content, checksums);
+                    addVersion(header.getFile());
+                } catch (IOException e) {
+                    discardFile(header.getFile());
+                    throw e;
+                } finally {
+                    volume.endWrite();
                 }
+                received.add(header.getFile());
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return received;
+    }
 
-                FileMessage putMsg = new FileMessage(FileMessage.MessageType.Put, sdfsFileName, Destination.Coordinator);
-                FileMessage inputPutMessage = sendToCoordinator(putMsg);
-                // Variable scoping
-                {
-                    int version = inputPutMessage.getVersion();
-                    String putFileName = Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version));
-
-                    boolean completed = false;
-                    List<MemberListEntry> servers = inputPutMessage.getNodes();
-                    List<MemberListEntry> successes = new ArrayList<>();
+    // Respond to PutBatch request by storing the versions that follow it, each preceded by its length and checksums
+    // Small versions go straight into a segment. Versions are committed on a few threads while the next ones
+    // arrive, so a volume's group commit forces their records to disk together
+    // Replies with the versions stored once every version has arrived, or the transfer fails
+    private void handlePutBatch(Set<String> requested, Socket client, ObjectInputStream inputStream, ObjectOutputStream outputStream) throws IOException {
+        Set<String> stored = ConcurrentHashMap.newKeySet();
+        ExecutorService commits = Executors.newFixedThreadPool(BATCH_COMMIT_THREADS);
+        List<Future<?>> pending = new ArrayList<>();
+        try {
+            ReadableByteChannel input = FileTransfer.inputChannel(client);
+            for (int i = requested.size(); i > 0; i--) {
+                FileMessage header = readMessage(inputStream);
+                String file = header.getFile();
+                ChunkChecksums checksums = header.getChecksums();
+                if (!requested.contains(file) || checksums == null || checksums.getLength() != header.getLength()) {
+                    throw new IOException("Unexpected version " + file + " in batch");
+                }
+                if (stores(file)) {
+                    // Already replicated here, its bytes are read past
+                    receiveBuffer(input, file, header.getLength(), null);
+                    stored.add(file);
+                    continue;
+                }
 
-                    for(MemberListEntry node: servers){
-                        if (sendFile(node, localFileName, putFileName)) {
-                            completed = true;
-                            successes.add(node);
+                StorageVolume volume = placeVersion(file, null, header.getLength());
+                boolean packed = header.getLength() <= PACK_MAX_FILE_SIZE && PACK_MAX_FILE_SIZE > 0;
+                try {
+                    if (packed) {
+                        volume.getSegments().add(file, receiveBuffer(input, file, header.getLength(), checksums), checksums);
+                    } else {
+                        try (FileChannel output = FileChannel.open(Paths.get(volume.getDirectory() + file + STAGED_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                            if (FileTransfer.receiveFile(client, output, 0, header.getLength(), checksums.verifier(0)) != header.getLength()) {
+                                throw new IOException("Transfer of " + file + " ended early");
+                            }
                         }
+                        commitStaged(file, checksums);
                     }
+                } catch (IOException e) {
+                    discardFile(file);
+                    volume.endWrite();
+                    throw e;
+                }
 
-                    // Put operation must succeed for at least 1 node
-                    if (!completed) {
-                        sendToCoordinator(new FileMessage(FileMessage.MessageType.PutFail, sdfsFileName, successes, version, Destination.Coordinator));
-                        System.out.println("Could not complete put operation");
-                    }
-                    else {
-                        sendToCoordinator(new FileMessage(FileMessage.MessageType.PutOk, sdfsFileName, successes, version, Destination.Coordinator));
-                        System.out.println("File inserted");
+                pending.add(commits.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            addVersion(file);
+                            stored.add(file);
+                            if (!packed) {
+                                scheduleDeltaEncoding(file);
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            discardFile(file);
+                        } finally {
+                            volume.endWrite();
+                        }
                     }
+                }));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            commits.shutdown();
+            for (Future<?> commit: pending) {
+                try {
+                    commit.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    e.printStackTrace();
                 }
-                break;
-
-            case "get":
+            }
+        }
+        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, new HashSet<>(stored), Destination.Client));
+        outputStream.flush();
+    }
+
+    // Read the next length bytes of a batch, verifying them if checksums are given
+    // Returns the bytes read last, which are all of them for a version small enough to pack
+    private static ByteBuffer receiveBuffer(ReadableByteChannel input, String file, long length, ChunkChecksums checksums) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) Math.min(length, Math.max(PACK_MAX_FILE_SIZE, FileTransfer.CHUNK_SIZE)));
+        ChunkChecksums.Verifier verifier = checksums == null ? null : checksums.verifier(0);
+        long remaining = length;
+        while (remaining > 0) {
+            content.clear();
+            content.limit((int) Math.min(content.capacity(), remaining));
+            while (content.hasRemaining()) {
+                if (input.read(content) < 0) {
+                    throw new IOException("Transfer of " + file + " ended early");
+                }
+            }
+            content.flip();
+            TransferScheduler.throttle(content.remaining());
+            if (verifier != null) {
+                verifier.update(content);
+            }
+            remaining -= content.remaining();
+        }
+        return content;
+    }
+
+    // Respond to GetBatch request by sending the requested versions stored whole on this node, one after another
+    // Each version's length and checksums precede its bytes, the connection closes after the last one
+    private void handleGetBatch(Set<String> requested, Socket client, ObjectOutputStream outputStream) throws IOException {
+        List<MutablePair<String, StoredVersion>> sending = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (String file: requested) {
+            StoredVersion version = index.containsVersion(file) ? loadVersion(file) : null;
+            if (version != null) {
+                sending.add(new MutablePair<>(file, version));
+                names.add(file);
+            }
+        }
+
+        outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, names, Destination.Client));
+        for (MutablePair<String, StoredVersion> entry: sending) {
+            FileMessage header = new FileMessage(FileMessage.MessageType.Ok, entry.getLeft(), 0, entry.getRight().getLength(), Destination.Client);
+            header.setChecksums(loadChecksums(entry.getLeft()));
+            outputStream.writeObject(header);
+            outputStream.flush();
+            countRead(entry.getLeft());
+            entry.getRight().send(client, 0, entry.getRight().getLength());
+        }
+        outputStream.flush();
+        client.close();
+    }
+
+    // Code file into shards and store shard i on targets[i]. Returns the version's length, or -1 if it is too
+    // small to be worth coding or any shard could not be stored, in which case the stored shards are removed
+    private long codeVersion(String file, List<MemberListEntry> targets) {
+        List<String> paths = new ArrayList<>();
+        try {
+            StoredVersion version = loadVersion(file);
+            if (version == null || version.getLength() < ERASURE_MIN_FILE_SIZE || targets.size() != CODEC.getShardCount()) {
+                return -1;
+            }
+            String directory = volumeOf(file).getDirectory();
+            for (int i = 0; i < targets.size(); i++) {
+                paths.add(directory + file + CODING_SUFFIX + i);
+            }
+            CodedVersion.encode(CODEC, version, paths);
+
+            long length = version.getLength();
+            ExecutorService pool = Executors.newFixedThreadPool(targets.size());
+            List<Future<Boolean>> puts = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                String shard = CodedVersion.shardName(file, i, length);
+                String path = paths.get(i);
+                MemberListEntry target = targets.get(i);
+                puts.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        FileMessage request = new FileMessage(FileMessage.MessageType.Put, shard, Destination.FileServer);
+                        request.setChecksums(ChunkChecksums.compute(path));
+                        request.setCompressed(Compression.ENABLED);
+                        request.setBackground(true);
+                        return sendFile(target, path, request);
+                    }
+                }));
+            }
+            pool.shutdown();
+
+            boolean stored = true;
+            for (Future<Boolean> put: puts) {
+                try {
+                    stored &= put.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    e.printStackTrace();
+                    stored = false;
+                }
+            }
+            if (stored) {
+                return length;
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                try {
+                    FileRequest.call(peers, targets.get(i), new FileMessage(FileMessage.MessageType.Delete, CodedVersion.shardName(file, i, length), Destination.FileServer));
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (String path: paths) {
+                new File(path).delete();
+            }
+        }
+        return -1;
+    }
+
+    // Rebuild shard from the shards held by the nodes in holders, by index, and store it here
+    private boolean rebuildShard(String shard, TreeMap<Integer, Set<MemberListEntry>> holders) {
+        String version = CodedVersion.versionOf(shard);
+        int index = CodedVersion.indexOf(shard);
+        long length = CodedVersion.lengthOf(shard);
+        holders.remove(index);
+
+        StorageVolume volume = null;
+        Map<Integer, String> fetched = new HashMap<>();
+        try {
+            volume = placeVersion(shard, null, CodedVersion.shardLength(length, CODEC.getDataShards()));
+            fetched = fetchShards(version, length, holders, volume.getDirectory() + shard + CODING_SUFFIX);
+            String staged = volume.getDirectory() + shard + STAGED_SUFFIX;
+            try (FileChannel output = FileChannel.open(Paths.get(staged), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                CodedVersion.rebuild(CODEC, fetched, length, index, output);
+            }
+            commitStaged(shard, ChunkChecksums.compute(staged));
+            addVersion(shard);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            discardFile(shard);
+            return false;
+        } finally {
+            for (String path: fetched.values()) {
+                new File(path).delete();
+            }
+            if (volume != null) {
+                volume.endWrite();
+            }
+        }
+    }
+
+    // Requests that are followed by file data, and so need a transfer slot
+    private static boolean movesData(MessageType type) {
+        switch (type) {
+            case Get:
+            case GetRange:
+            case GetDelta:
+            case Put:
+            case ChainPut:
+            case Append:
+            case Replicate:
+            case ReplicateBatch:
+            case GetPacked:
+            case PutBatch:
+            case GetBatch:
+            case Encode:
+            case RebuildShard:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Respond to Get request by sending file to client
+    private void handleGet(String file, Socket client, boolean compressed) {
+        try{
+            StoredVersion version = loadVersion(file);
+            ByteBuffer cached = cache.get(file, version);
+            if (cached != null) {
+                if (compressed) {
+                    Compression.send(client, cached);
+                } else {
+                    FileTransfer.sendBuffer(client, cached);
+                }
+            } else if (compressed) {
+                Compression.send(client, version, 0, version.getLength());
+            } else {
+                version.send(client, 0, version.getLength());
+            }
+            client.close();
+        }
+        catch (FileNotFoundException ex){
+            ex.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Respond to GetRange request by sending length bytes of file starting at offset to client
+    private void handleGetRange(String file, long offset, long length, Socket client, boolean compressed) {
+        try {
+            StoredVersion version = loadVersion(file);
+            ByteBuffer cached = cache.get(file, version);
+            if (cached != null) {
+                cached.position((int) offset);
+                cached.limit((int) (offset + length));
+                if (compressed) {
+                    Compression.send(client, cached);
+                } else {
+                    FileTransfer.sendBuffer(client, cached);
+                }
+            } else if (compressed) {
+                Compression.send(client, version, offset, length);
+            } else {
+                version.send(client, offset, length);
+            }
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Ok response to a Get, carrying checksums of the stored file so the receiver can verify it
+    private FileMessage okWithChecksums(String file) {
+        FileMessage response = new FileMessage(FileMessage.MessageType.Ok, Destination.Client);
+        response.setChecksums(loadChecksums(file));
+        return response;
+    }
+
+    // Respond to Put request by storing file on local node
+    // Data is verified against checksums as it arrives, a corrupt or incomplete file is discarded
+    // Acknowledges once the file is stored, the sender half-closes its side after sending
+    // Data is received into a staging file and renamed into place once complete
+    private void handlePut(Socket otherFileServer, String file, ChunkChecksums checksums, boolean compressed, ObjectOutputStream outputStream){
+        StorageVolume volume = null;
+        try{
+            try {
+                volume = placeVersion(file, null, checksums == null ? 0 : checksums.getLength());
+                if (compressed) {
+                    Compression.receiveFile(otherFileServer, volume.getDirectory() + file + STAGED_SUFFIX, checksums);
+                } else {
+                    FileTransfer.receiveFile(otherFileServer, volume.getDirectory() + file + STAGED_SUFFIX, checksums);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                keepPartialFile(file, checksums);
+                outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                outputStream.flush();
+                return;
+            }
+            try {
+                commitStaged(file, checksums);
+                addVersion(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+                discardFile(file);
+                outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                outputStream.flush();
+                return;
+            }
+            scheduleDeltaEncoding(file);
+
+            outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+            outputStream.flush();
+        }
+        catch (IOException e) {
+                e.printStackTrace();
+        } finally {
+            if (volume != null) {
+                volume.endWrite();
+            }
+        }
+    }
+
+    // Respond to Append request by storing a new version that extends baseFile with the received bytes
+    // Only the appended bytes are received and written: the new version shares the base's data through its
+    // extent manifest, and only checksums from the base's last partial chunk onward are recomputed
+    private void handleAppend(Socket client, String file, String baseFile, ChunkChecksums checksums, boolean compressed, ObjectOutputStream outputStream) {
+        StorageVolume volume = null;
+        try {
+            try {
+                // Appended bytes are stored in the new version's own data file, on the base's volume
+                volume = placeVersion(file, baseFile, checksums == null ? 0 : checksums.getLength());
+                long appended = compressed ? Compression.receiveFile(client, volume.getDirectory() + file, checksums) : FileTransfer.receiveFile(client, volume.getDirectory() + file, checksums);
+
+                StoredVersion base = loadVersion(baseFile);
+                if (base == null || locations.get(baseFile) != volume) {
+                    throw new IOException("Base version " + baseFile + " is no longer stored");
+                }
+                StoredVersion version = base.append(file, appended);
+                ChunkChecksums baseChecksums = loadChecksums(baseFile);
+                ChunkChecksums versionChecksums = baseChecksums != null ? ChunkChecksums.extend(baseChecksums, version) : ChunkChecksums.compute(version);
+                version.save(file);
+                versionChecksums.save(volume.getDirectory() + file);
+                addVersion(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+                discardFile(file);
+                outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+                outputStream.flush();
+                return;
+            }
+
+            outputStream.writeObject(new FileMessage(FileMessage.MessageType.Ok, Destination.Client));
+            outputStream.flush();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (volume != null) {
+                volume.endWrite();
+            }
+        }
+    }
+
+    // Keep the verified chunks of a put that failed partway, so replicating the version here resumes after them
+    // The partial file is collected as garbage if nothing resumes it within a maintenance period
+    private void keepPartialFile(String file, ChunkChecksums checksums) {
+        StorageVolume volume = locations.get(file);
+        if (volume == null) {
+            return;
+        }
+        String staged = volume.getDirectory() + file + STAGED_SUFFIX;
+        String part = volume.getDirectory() + file + PART_SUFFIX;
+        try {
+            if (checksums != null && checksums.verifiedPrefix(staged) > 0) {
+                Files.move(Paths.get(staged), Paths.get(part), StandardCopyOption.REPLACE_EXISTING);
+                checksums.save(part);
+                volume.markGarbage(new HashSet<>(Arrays.asList(file + PART_SUFFIX, file + PART_SUFFIX + ChunkChecksums.SUFFIX)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        discardFile(file);
+    }
+
+    // Move the staged data of a completely received put into place, with its checksums alongside
+    private void commitStaged(String file, ChunkChecksums checksums) throws IOException {
+        String path = pathOf(file);
+        if (checksums != null) {
+            checksums.save(path);
+        }
+        Files.move(Paths.get(path + STAGED_SUFFIX), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Remove a partially received file, its checksums, extent manifest and delta literals
+    // A version that was never stored is also forgotten by its volume
+    private void discardFile(String file) {
+        StorageVolume volume = stores(file) ? locations.get(file) : locations.remove(file);
+        if (volume == null) {
+            return;
+        }
+        String path = volume.getDirectory() + file;
+        new File(path + STAGED_SUFFIX).delete();
+        new File(path).delete();
+        new File(path + ChunkChecksums.SUFFIX).delete();
+        new File(path + StoredVersion.SUFFIX).delete();
+        new File(path + Delta.SUFFIX).delete();
+    }
+
+    // Respond to GetDelta request by sending file as a delta against baseFile, which the client already holds
+    // Fails if this node does not store both versions, or they share too little for a delta to pay off
+    private void handleGetDelta(String file, String baseFile, Socket client, ObjectOutputStream outputStream) throws IOException {
+        StoredVersion version = null;
+        Delta delta = null;
+        if (index.containsVersion(file) && index.containsVersion(baseFile)) {
+            version = loadVersion(file);
+            delta = Delta.encode(loadVersion(baseFile), version, DELTA_BLOCK_SIZE);
+        }
+        if (delta == null || !worthDelta(delta)) {
+            outputStream.writeObject(new FileMessage(FileMessage.MessageType.Fail, Destination.Client));
+            outputStream.flush();
+            return;
+        }
+
+        FileMessage response = okWithChecksums(file);
+        response.setDelta(delta);
+        outputStream.writeObject(response);
+        outputStream.flush();
+        delta.sendLiterals(client, version);
+        client.close();
+    }
+
+    // Whether a delta copies enough of its base to be worth storing or sending instead of the whole version
+    private static boolean worthDelta(Delta delta) {
+        return delta.getLiteralLength() * 100 <= delta.getLength() * DELTA_MAX_LITERAL_PERCENT;
+    }
+
+    // Latest version of the same SDFS file stored on this node that is older than file, or null if there is none
+    private String localPredecessor(String file) {
+        return index.latestBefore(file);
+    }
+
+    // Re-store a newly received whole version as a delta against the previous version on this node, in the
+    // background on the threads of the version's volume
+    private void scheduleDeltaEncoding(String file) {
+        StorageVolume volume = locations.get(file);
+        if (!DELTA_VERSIONS || volume == null || CodedVersion.isShard(file)) {
+            return;
+        }
+        volume.execute(new Runnable() {
+            @Override
+            public void run() {
+                encodeVersion(volume, file);
+            }
+        });
+    }
+
+    // Store file as a delta against its predecessor if they share enough bytes and are on the same volume
+    // Readers see the old layout until the new manifest replaces it, the whole copy is collected later
+    private void encodeVersion(StorageVolume volume, String file) {
+        String baseFile = localPredecessor(file);
+        // Packed versions are too small to gain from a delta
+        if (baseFile == null || locations.get(baseFile) != volume || volume.getSegments().contains(file)) {
+            return;
+        }
+
+        try {
+            StoredVersion version = loadVersion(file);
+            StoredVersion base = loadVersion(baseFile);
+            if (version == null || base == null || version.getExtentCount() > 1) {
+                return;
+            }
+
+            Delta delta = Delta.encode(base, version, DELTA_BLOCK_SIZE);
+            if (!worthDelta(delta)) {
+                return;
+            }
+            StoredVersion encoded = delta.store(base, version, volume.getDirectory(), file + Delta.SUFFIX);
+
+            // Only switch to the delta once it is known to reproduce the version
+            ChunkChecksums checksums = loadChecksums(file);
+            if (checksums == null || !checksums.equals(ChunkChecksums.compute(encoded)) || !index.containsVersion(file)) {
+                new File(volume.getDirectory() + file + Delta.SUFFIX).delete();
+                return;
+            }
+            encoded.save(file);
+            volume.markGarbage(version.getDataFiles());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void countRead(String file) {
+        reads.putIfAbsent(file, new AtomicInteger());
+        reads.get(file).incrementAndGet();
+    }
+
+    // Check each volume still takes writes, then hand its materialization, compaction and garbage collection
+    // to its own threads, so the volumes are maintained in parallel
+    private void maintainVolumes() {
+        Map<StorageVolume, List<String>> hot = hotVersions();
+        for (StorageVolume volume: volumes) {
+            if (volume.isFailed()) {
+                continue;
+            }
+            if (!volume.probe()) {
+                volumeFailed(volume);
+                continue;
+            }
+            List<String> volumeHot = hot.getOrDefault(volume, Collections.<String>emptyList());
+            volume.maintain(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        materializeHotVersions(volume, volumeHot);
+                        compactSegments(volume);
+                        collectGarbage(volume);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    // Versions read at least MATERIALIZE_READS times since the last pass, by the volume storing them
+    private Map<StorageVolume, List<String>> hotVersions() {
+        Map<StorageVolume, List<String>> hot = new HashMap<>();
+        for (Iterator<Entry<String, AtomicInteger>> iterator = reads.entrySet().iterator(); iterator.hasNext();) {
+            Entry<String, AtomicInteger> entry = iterator.next();
+            StorageVolume volume = locations.get(entry.getKey());
+            if (!stores(entry.getKey()) || volume == null) {
+                iterator.remove();
+                continue;
+            }
+            if (entry.getValue().getAndSet(0) >= MATERIALIZE_READS) {
+                hot.putIfAbsent(volume, new ArrayList<>());
+                hot.get(volume).add(entry.getKey());
+            }
+        }
+        return hot;
+    }
+
+    // Rewrite hot versions on volume into a single data file each,
+    // so reads of hot versions are one sequential transfer instead of many extents
+    private void materializeHotVersions(StorageVolume volume, List<String> hot) {
+        for (String file: hot) {
+            try {
+                StoredVersion version = loadVersion(file);
+                if (version == null || version.getExtentCount() <= 1 || locations.get(file) != volume) {
+                    continue;
+                }
+
+                String dataFile = file + MATERIALIZED_SUFFIX;
+                try (FileChannel output = FileChannel.open(Paths.get(volume.getDirectory() + dataFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (version.copyTo(output, 0, 0, version.getLength()) != version.getLength()) {
+                        throw new IOException("Version " + file + " ended while materializing");
+                    }
+                }
+                StoredVersion materialized = StoredVersion.empty(volume.getDirectory());
+                materialized.addExtent(dataFile, 0, version.getLength());
+                materialized.save(file);
+                volume.markGarbage(version.getDataFiles());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Forget the versions on a volume that stopped taking writes, and tell the coordinator so they are
+    // replicated again, to this node's other volumes or to other nodes
+    private void volumeFailed(StorageVolume volume) {
+        Set<String> lost = dropVersions(volume);
+        System.out.println("Storage volume " + volume.getDirectory() + " failed, " + lost.size() + " stored versions lost");
+        if (lost.isEmpty() || memberList.getCoordinator() == null) {
+            return;
+        }
+        FileMessage report = new FileMessage(MessageType.Lost, lost, Destination.Coordinator);
+        report.setNodes(Collections.singletonList(memberList.getOwner()));
+        sendToCoordinator(report);
+    }
+
+    // Stop serving the versions stored on volume. Returns the versions dropped
+    private Set<String> dropVersions(StorageVolume volume) {
+        Set<String> dropped = new HashSet<>();
+        for (Entry<String, StorageVolume> entry: locations.entrySet()) {
+            if (entry.getValue() == volume) {
+                dropped.add(entry.getKey());
+            }
+        }
+        for (String file: dropped) {
+            index.remove(file);
+            cache.invalidate(file);
+            reads.remove(file);
+            locations.remove(file);
+        }
+        return dropped;
+    }
+
+    // Copy the versions still stored out of a volume's mostly removed segments
+    // The old segments are deleted as garbage, unless a version appended to or delta encoded against one of
+    // their versions still reads from them
+    private void compactSegments(StorageVolume volume) throws IOException {
+        for (String segment: volume.getSegments().compact()) {
+            volume.getGarbage().put(segment, System.currentTimeMillis());
+        }
+    }
+
+    // Delete dropped data files on volume that none of its stored versions reads from any more
+    // Files are kept for a maintenance period after being dropped, so reads that loaded the old layout can finish
+    private void collectGarbage(StorageVolume volume) {
+        if (volume.getGarbage().isEmpty()) {
+            return;
+        }
+
+        Set<String> referenced = new HashSet<>();
+        List<String> stored = new ArrayList<>();
+        for (Entry<String, StorageVolume> entry: locations.entrySet()) {
+            if (entry.getValue() == volume) {
+                stored.add(entry.getKey());
+            }
+        }
+        for (String file: stored) {
+            try {
+                StoredVersion version = loadVersion(file);
+                if (version != null) {
+                    referenced.addAll(version.getDataFiles());
+                }
+            } catch (IOException e) {
+                // Keep everything if any layout cannot be read
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        for (String dataFile: volume.expireGarbage(System.currentTimeMillis() - MAINTENANCE_PERIOD, new HashSet<>())) {
+            if (!referenced.contains(dataFile)) {
+                new File(volume.getDirectory() + dataFile).delete();
+            }
+        }
+    }
+    
+    // Respond to ChainPut request by storing file locally while forwarding it to the rest of the chain
+    // Acknowledges upstream as soon as the local copy is stored, then relays acknowledgements from downstream
+    // nodes as they arrive. The end of the chain's acknowledgements is signalled by closing the connection
+    private void handleChainPut(Socket upstream, String file, List<MemberListEntry> chain, ChunkChecksums checksums, boolean compressionRequested, ObjectOutputStream outputStream) throws IOException {
+        MutableTriple<Socket, ObjectInputStream, Boolean> downstream = openChain(chain, file, checksums, compressionRequested && Compression.ENABLED);
+
+        // Compressed frames are forwarded as received, so the transfer is compressed only if the next node takes them too
+        boolean compressed = compressionRequested && Compression.ENABLED && (downstream == null || downstream.getRight());
+        FileMessage response = new FileMessage(FileMessage.MessageType.Ok, Destination.Client);
+        response.setCompressed(compressed);
+        outputStream.writeObject(response);
+        outputStream.flush();
+
+        try {
+            boolean forwarded;
+            StorageVolume volume = null;
+            try {
+                volume = placeVersion(file, null, checksums == null ? 0 : checksums.getLength());
+                try (FileChannel output = FileChannel.open(Paths.get(volume.getDirectory() + file + STAGED_SUFFIX), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    Socket next = downstream == null ? null : downstream.getLeft();
+                    ChunkChecksums.Verifier verifier = checksums == null ? null : checksums.verifier(0);
+                    forwarded = compressed ? Compression.receiveAndForward(upstream, output, next, verifier) : FileTransfer.receiveAndForward(upstream, output, next, verifier);
+                    if (checksums != null && output.size() != checksums.getLength()) {
+                        throw new IOException("Chain transfer ended after " + output.size() + " of " + checksums.getLength() + " bytes");
+                    }
+                }
+            } catch (IOException e) {
+                keepPartialFile(file, checksums);
+                if (volume != null) {
+                    volume.endWrite();
+                }
+                throw e;
+            }
+            try {
+                commitStaged(file, checksums);
+                addVersion(file);
+            } catch (IOException e) {
+                discardFile(file);
+                throw e;
+            } finally {
+                // Relaying the chain's acknowledgements no longer uses the volume
+                volume.endWrite();
+            }
+            scheduleDeltaEncoding(file);
+
+            outputStream.writeObject(new FileMessage(MessageType.Ok, file, Collections.singletonList(memberList.getOwner()), Destination.Client));
+            outputStream.flush();
+
+            if (downstream != null && forwarded) {
+                downstream.getLeft().shutdownOutput();
+                while (true) {
+                    FileMessage ack = readMessage(downstream.getMiddle());
+                    outputStream.writeObject(ack);
+                    outputStream.flush();
+                }
+            }
+        } catch (EOFException e) {
+            // Downstream has relayed every acknowledgement
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            if (downstream != null) {
+                downstream.getLeft().close();
+            }
+        }
+    }
+
+    // Handle command line arguments from main thread
+    public void processFileCommands(String localFileName, String sdfsFileName, String command, Integer versions) {
+        switch (command) {
+            case "cache":
+                System.out.println(cache);
+                for (StorageVolume volume: volumes) {
+                    System.out.println(volume);
+                }
+                System.out.println(clientCache);
+                System.out.println(scheduler);
+                break;
+
+            case "store":
+                Set<String> storedHere = storedNames();
+                if (storedHere.size() == 0){
+                    System.out.println("No files stored in the current VM:");
+                }
+                else {
+                    System.out.println("The files stored in current VM:");
+
+                    for (String file : new TreeSet<>(storedHere)) {
+                        System.out.println(file.replace('#', '/'));
+                    }
+                }
+                break;
+                
+            case "put":
+                File file = new File(localFileName);
+                if (!file.exists()) {
+                    System.out.print("Put operatiorn failed: local file not found.");
+                    return;
+                }
+                if (!isValidName(sdfsFileName)) {
+                    System.out.println("Put operation failed: SDFS file names cannot contain '" + CodedVersion.SEPARATOR + "'");
+                    return;
+                }
+
+                FileMessage putMsg = new FileMessage(FileMessage.MessageType.Put, sdfsFileName, Destination.Coordinator);
+                FileMessage inputPutMessage = sendCommandToCoordinator(putMsg);
+                if (inputPutMessage == null) {
+                    return;
+                }
+                // Variable scoping
+                {
+                    int version = inputPutMessage.getVersion();
+                    String putFileName = Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version));
+
+                    List<MemberListEntry> servers = inputPutMessage.getNodes();
+
+                    // Checksums travel with the file so every replica can verify what it stores
+                    ChunkChecksums checksums;
+                    try {
+                        checksums = ChunkChecksums.compute(localFileName);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        sendToCoordinator(new FileMessage(FileMessage.MessageType.PutFail, sdfsFileName, new ArrayList<>(), version, Destination.Coordinator));
+                        System.out.println("Could not complete put operation: local file could not be read");
+                        return;
+                    }
+                    BlockingQueue<MutablePair<MemberListEntry, Boolean>> results = startPut(servers, localFileName, putFileName, checksums);
+
+                    // Wait for WRITE_QUORUM replicas to store the version, the rest are reported as they finish
+                    int quorum = Math.min(WRITE_QUORUM, servers.size());
+                    int stored = completeWrite(results, servers.size(), quorum, sdfsFileName, version);
+                    if (stored == 0) {
+                        System.out.println("Could not complete put operation");
+                    }
+                    else if (stored < quorum) {
+                        System.out.println("File inserted at only " + stored + " of " + quorum + " replicas");
+                    } else {
+                        System.out.println("File inserted");
+                    }
+                }
+                break;
+
+            case "append":
+                File appendFile = new File(localFileName);
+                if (!appendFile.exists()) {
+                    System.out.println("Append operation failed: local file not found.");
+                    return;
+                }
+                if (!isValidName(sdfsFileName)) {
+                    System.out.println("Append operation failed: SDFS file names cannot contain '" + CodedVersion.SEPARATOR + "'");
+                    return;
+                }
+
+                FileMessage inputAppendMessage = sendCommandToCoordinator(new FileMessage(FileMessage.MessageType.Append, sdfsFileName, Destination.Coordinator));
+                if (inputAppendMessage == null) {
+                    return;
+                }
+                // Coordinator names the latest version when it fails the append because that version is still pending
+                if (inputAppendMessage.getMessageType() == FileMessage.MessageType.Fail && inputAppendMessage.getFile() != null) {
+                    System.out.println("Append operation failed since a newer version of the file is still being written");
+                }
+                else if (inputAppendMessage.getMessageType() == FileMessage.MessageType.Fail) {
+                    System.out.println("Append operation failed since file does not exist in SDFS");
+                }
+                else {
+                    // Coordinator assigns the new version and names the nodes holding the version it extends
+                    int version = inputAppendMessage.getVersion();
+                    String appendFileName = Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version));
+                    List<MemberListEntry> servers = inputAppendMessage.getNodes();
+
+                    FileMessage appendMsg = new FileMessage(FileMessage.MessageType.Append, appendFileName, Destination.FileServer);
+                    appendMsg.setBaseFile(inputAppendMessage.getFile());
+                    appendMsg.setCompressed(Compression.ENABLED);
+                    try {
+                        appendMsg.setChecksums(ChunkChecksums.compute(localFileName));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        sendToCoordinator(new FileMessage(FileMessage.MessageType.PutFail, sdfsFileName, new ArrayList<>(), version, Destination.Coordinator));
+                        System.out.println("Could not complete append operation: local file could not be read");
+                        return;
+                    }
+
+                    // Only the appended bytes are sent, each holder extends its own copy of the base version
+                    BlockingQueue<MutablePair<MemberListEntry, Boolean>> results = startParallelWrite(servers, localFileName, appendMsg);
+                    int quorum = Math.min(WRITE_QUORUM, servers.size());
+                    int stored = completeWrite(results, servers.size(), quorum, sdfsFileName, version);
+                    if (stored == 0) {
+                        System.out.println("Could not complete append operation");
+                    }
+                    else if (stored < quorum) {
+                        System.out.println("File appended at only " + stored + " of " + quorum + " replicas");
+                    } else {
+                        System.out.println("File appended");
+                    }
+                }
+                break;
+
+            case "get":
                 FileMessage getMsg = new FileMessage(FileMessage.MessageType.Get, sdfsFileName, Destination.Coordinator);
-                FileMessage inputGetMessage = sendToCoordinator(getMsg);
+                FileMessage inputGetMessage = sendCommandToCoordinator(getMsg);
+                if (inputGetMessage == null) {
+                    return;
+                }
                 if(inputGetMessage.getMessageType() == FileMessage.MessageType.Fail){
                     System.out.println("GET operation failed since file does not exist in SDFS");
                 }
-                else{
-                    boolean completed = false;
+                else if (clientCache.fetch(inputGetMessage.getFile(), localFileName)) {
+                    // Coordinator only named the latest version, which was fetched here before
+                    System.out.println("Fetched the file from the local cache");
+                }
+                else{
+                    List<MemberListEntry> servers = inputGetMessage.getNodes();
+                    Collections.shuffle(servers);   // Shuffle list to reduce load on single nodes
+
+                    boolean completed = fetchFile(servers, localFileName, inputGetMessage.getFile());
+                    if (!completed){
+                        System.out.println("Could not complete get operation");
+                    }
+                    else {
+                        clientCache.store(inputGetMessage.getFile(), localFileName);
+                        System.out.println("Fetched the file successfully");
+                    }
+                }
+                break;
+
+            case "delete":
+                FileMessage delMsg = new FileMessage(FileMessage.MessageType.Delete, sdfsFileName, Destination.Coordinator);
+                FileMessage inputDelMessage = sendCommandToCoordinator(delMsg);
+                if (inputDelMessage == null) {
+                    return;
+                }
+                if(inputDelMessage.getMessageType() == FileMessage.MessageType.Fail){
+                    System.out.println("Delete operation failed since file does not exist in SDFS");
+                }
+                else {
+                    clientCache.invalidate(sdfsFileName);
+                    System.out.println("File Deleted");
+                }
+                break;
+
+            case "ls":
+                FileMessage listMsg = new FileMessage(FileMessage.MessageType.GetVersions, sdfsFileName, Destination.Coordinator);
+                FileMessage inputListMessage = sendCommandToCoordinator(listMsg);
+                if (inputListMessage == null) {
+                    return;
+                }
+                if(inputListMessage.getMessageType() == FileMessage.MessageType.Fail){
+                    System.out.println("List operation failed since file does not exist in SDFS");
+                }
+                else{
+                    TreeMap<Integer, Set<MemberListEntry>> servers = inputListMessage.getVersionData();
+                    System.out.println();
+                    for (Iterator<Entry<Integer, Set<MemberListEntry>>> iterator = servers.entrySet().iterator(); iterator.hasNext();) {
+                        Entry<Integer, Set<MemberListEntry>> stack_entry = iterator.next();
+                        System.out.println("The file version: " + stack_entry.getKey() + " is stored at following VM:");
+                        for (Iterator<MemberListEntry> it = stack_entry.getValue().iterator(); it.hasNext();){
+                            System.out.println(it.next().toString());
+                        }
+                        System.out.println();
+                    }
+                }
+                break;
+
+            case "get-versions":
+                FileMessage getVMsg = new FileMessage(FileMessage.MessageType.GetVersions, sdfsFileName, Destination.Coordinator);
+                FileMessage inputGetVMsg = sendCommandToCoordinator(getVMsg);
+                if (inputGetVMsg == null) {
+                    return;
+                }
+                if(inputGetVMsg.getMessageType() == FileMessage.MessageType.Fail){
+                    System.out.println("Operation failed: file does not exist in SDFS");
+                }
+                else {
+                    TreeMap<Integer, Set<MemberListEntry>> versionStores = inputGetVMsg.getVersionData();
+                    List<Integer> selected = new ArrayList<>();
+                    for (Entry<Integer, Set<MemberListEntry>> pair: versionStores.descendingMap().entrySet()) {
+                        // Skip if this is a pending version
+                        if (pair.getValue().isEmpty()) {
+                            continue;
+                        }
+
+                        // Only get 5 most recent versions
+                        if (selected.size() >= 5) {
+                            break;
+                        }
+                        selected.add(pair.getKey());
+                    }
+
+                    // Fetch oldest first, so each newer version can be fetched as a delta against the one before it
+                    Collections.reverse(selected);
+                    String previousSdfsFileName = null;
+                    String previousLocalFileName = null;
+                    for (int version: selected) {
+                        String sdfsFileNameWithVersion = Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version));
+                        String localFileNameWithVersion = Coordinator.constructFileWithDelimiterAndFullPath(localFileName, Integer.toString(version));
+
+                        List<MemberListEntry> versionServers = new ArrayList<>(versionStores.get(version));
+                        Collections.shuffle(versionServers);   // Shuffle list to reduce load on single nodes
+
+                        // Older versions may only be stored as erasure coded shards, decoded here
+                        boolean fetched = previousSdfsFileName != null
+                                && fetchDelta(versionServers, localFileNameWithVersion, sdfsFileNameWithVersion, previousLocalFileName, previousSdfsFileName);
+                        if (fetched || fetchFile(versionServers, localFileNameWithVersion, sdfsFileNameWithVersion)
+                                || fetchCoded(localFileNameWithVersion, sdfsFileNameWithVersion)) {
+                            System.out.println("Version " + version + " retrieved successfully");
+                            previousSdfsFileName = sdfsFileNameWithVersion;
+                            previousLocalFileName = localFileNameWithVersion;
+                        } else {
+                            System.out.println("Failed to retrieve version " + version);
+                        }
+                    }
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    // Handle get-range command: fetch length bytes of the latest version of a file, starting at offset
+    public void processRangeCommand(String localFileName, String sdfsFileName, long offset, long length) {
+        FileMessage inputGetMessage = sendCommandToCoordinator(new FileMessage(FileMessage.MessageType.Get, sdfsFileName, Destination.Coordinator));
+        if (inputGetMessage == null) {
+            return;
+        }
+        if (inputGetMessage.getMessageType() == FileMessage.MessageType.Fail) {
+            System.out.println("GET-RANGE operation failed since file does not exist in SDFS");
+            return;
+        }
+
+        List<MemberListEntry> servers = inputGetMessage.getNodes();
+        Collections.shuffle(servers);   // Shuffle list to reduce load on single nodes
+
+        for (MemberListEntry node: servers) {
+            long received = receivePartialFile(node, localFileName, inputGetMessage.getFile(), offset, length);
+            if (received >= 0) {
+                System.out.println("Fetched " + received + " bytes successfully");
+                return;
+            }
+        }
+        System.out.println("Could not complete get-range operation");
+    }
+
+    // Handle mput command: put every file in localDirectory under sdfsDirectory, with one request to the
+    // Coordinator for all of their versions and placements and one report of the replicas that stored them
+    public void processBatchPut(String localDirectory, String sdfsDirectory) {
+        File[] localFiles = new File(localDirectory).listFiles();
+        if (localFiles == null) {
+            System.out.println("Mput operation failed: local directory not found.");
+            return;
+        }
+
+        // Local path and checksums of each SDFS file
+        Map<String, String> localPaths = new HashMap<>();
+        Map<String, ChunkChecksums> checksums = new HashMap<>();
+        for (File localFile: localFiles) {
+            if (!localFile.isFile()) {
+                continue;
+            }
+            String sdfsFileName = sdfsDirectory + '#' + localFile.getName();
+            if (!isValidName(sdfsFileName)) {
+                System.out.println("Skipping " + localFile.getPath() + ": SDFS file names cannot contain '" + CodedVersion.SEPARATOR + "'");
+                continue;
+            }
+            try {
+                checksums.put(sdfsFileName, ChunkChecksums.compute(localFile.getPath()));
+                localPaths.put(sdfsFileName, localFile.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("Skipping " + localFile.getPath() + ": local file could not be read");
+            }
+        }
+        if (localPaths.isEmpty()) {
+            System.out.println("Mput operation failed: no files to put.");
+            return;
+        }
+
+        FileMessage reply = sendCommandToCoordinator(new FileMessage(FileMessage.MessageType.PutBatch, new HashSet<>(localPaths.keySet()), Destination.Coordinator));
+        if (reply == null) {
+            return;
+        }
+        if (reply.getMessageType() != MessageType.Ok) {
+            System.out.println("Could not complete mput operation");
+            return;
+        }
+        Map<String, List<MemberListEntry>> placements = reply.getPlacements();
+        Map<MemberListEntry, List<String>> byNode = new HashMap<>();
+        for (Entry<String, List<MemberListEntry>> placement: placements.entrySet()) {
+            for (MemberListEntry node: placement.getValue()) {
+                byNode.putIfAbsent(node, new ArrayList<>());
+                byNode.get(node).add(placement.getKey());
+            }
+        }
+
+        Map<String, List<MemberListEntry>> stored = runBatches(byNode, new BatchTransfer() {
+            @Override
+            public Set<String> transfer(MemberListEntry node, List<String> versions) {
+                return sendBatch(node, versions, localPaths, checksums);
+            }
+        });
+
+        Map<String, List<MemberListEntry>> succeeded = new HashMap<>();
+        Set<String> failed = new HashSet<>();
+        int belowQuorum = 0;
+        for (Entry<String, List<MemberListEntry>> placement: placements.entrySet()) {
+            List<MemberListEntry> holders = stored.get(placement.getKey());
+            if (holders == null) {
+                failed.add(placement.getKey());
+                System.out.println("Could not put " + Coordinator.deconstructFileWithDelimiter(placement.getKey()).getLeft().replace('#', '/'));
+                continue;
+            }
+            succeeded.put(placement.getKey(), holders);
+            if (holders.size() < Math.min(WRITE_QUORUM, placement.getValue().size())) {
+                belowQuorum++;
+            }
+        }
+        if (!succeeded.isEmpty()) {
+            FileMessage putOk = new FileMessage(FileMessage.MessageType.PutOk, Destination.Coordinator);
+            putOk.setPlacements(succeeded);
+            putOk.setComplete(true);
+            sendToCoordinator(putOk);
+        }
+        if (!failed.isEmpty()) {
+            sendToCoordinator(new FileMessage(FileMessage.MessageType.PutFail, failed, Destination.Coordinator));
+        }
+
+        System.out.println(succeeded.size() + " of " + placements.size() + " files inserted"
+                + (belowQuorum > 0 ? ", " + belowQuorum + " of them at fewer replicas than the write quorum" : ""));
+    }
+
+    // Handle mget command: fetch the latest version of every file under sdfsDirectory into localDirectory, with one
+    // request to the Coordinator for all of their holders
+    // Each file is fetched from its least loaded holder, falling back to a get of its own if that fails
+    public void processBatchGet(String sdfsDirectory, String localDirectory) {
+        String prefix = sdfsDirectory + '#';
+        FileMessage reply = sendCommandToCoordinator(new FileMessage(FileMessage.MessageType.GetBatch, prefix, Destination.Coordinator));
+        if (reply == null) {
+            return;
+        }
+        if (reply.getMessageType() != MessageType.Ok) {
+            System.out.println("MGET operation failed since no file exists under the directory in SDFS");
+            return;
+        }
+
+        Map<String, List<MemberListEntry>> holders = reply.getPlacements();
+        Map<String, String> localPaths = new HashMap<>();
+        Map<MemberListEntry, List<String>> byNode = new HashMap<>();
+        int cached = 0;
+        int skipped = 0;
+        for (Iterator<Entry<String, List<MemberListEntry>>> iterator = holders.entrySet().iterator(); iterator.hasNext();) {
+            Entry<String, List<MemberListEntry>> latest = iterator.next();
+            String sdfsFileName = Coordinator.deconstructFileWithDelimiter(latest.getKey()).getLeft();
+            // A name such as dir/../../x would otherwise be written outside localDirectory
+            File localFile;
+            try {
+                File root = new File(localDirectory).getCanonicalFile();
+                localFile = new File(root, sdfsFileName.substring(prefix.length()).replace('#', '/')).getCanonicalFile();
+                if (!localFile.toPath().startsWith(root.toPath()) || localFile.equals(root)) {
+                    throw new IOException(sdfsFileName.replace('#', '/') + " is outside " + localDirectory);
+                }
+            } catch (IOException e) {
+                System.out.println("Skipping " + sdfsFileName.replace('#', '/') + ": " + e.getMessage());
+                iterator.remove();
+                skipped++;
+                continue;
+            }
+            localFile.getParentFile().mkdirs();
+            localPaths.put(latest.getKey(), localFile.getPath());
+            if (clientCache.fetch(latest.getKey(), localFile.getPath())) {
+                cached++;
+                continue;
+            }
 
-                    List<MemberListEntry> servers = inputGetMessage.getNodes();
-                    Collections.shuffle(servers);   // Shuffle list to reduce load on single nodes
+            List<MemberListEntry> servers = new ArrayList<>(latest.getValue());
+            Collections.shuffle(servers);   // Shuffle list so ties between holders are broken at random
+            MemberListEntry chosen = null;
+            for (MemberListEntry node: servers) {
+                if (chosen == null || byNode.getOrDefault(node, Collections.emptyList()).size() < byNode.getOrDefault(chosen, Collections.emptyList()).size()) {
+                    chosen = node;
+                }
+            }
+            byNode.putIfAbsent(chosen, new ArrayList<>());
+            byNode.get(chosen).add(latest.getKey());
+        }
 
-                    for(MemberListEntry node: servers){
-                        completed = receiveFile(node, localFileName, inputGetMessage.getFile());
-                        if(completed){
-                            break;
-                        }
-                    }
-                    if (!completed){
-                        System.out.println("Could not complete get operation");
-                    }
-                    else {
-                        System.out.println("Fetched the file successfully");
-                    }
+        Map<String, List<MemberListEntry>> received = runBatches(byNode, new BatchTransfer() {
+            @Override
+            public Set<String> transfer(MemberListEntry node, List<String> versions) {
+                return receiveBatch(node, versions, localPaths);
+            }
+        });
+
+        int fetched = cached;
+        for (List<String> versions: byNode.values()) {
+            for (String version: versions) {
+                List<MemberListEntry> servers = new ArrayList<>(holders.get(version));
+                Collections.shuffle(servers);
+                if (received.containsKey(version) || fetchFile(servers, localPaths.get(version), version)) {
+                    clientCache.store(version, localPaths.get(version));
+                    fetched++;
+                } else {
+                    System.out.println("Could not get " + Coordinator.deconstructFileWithDelimiter(version).getLeft().replace('#', '/'));
                 }
-                break;
+            }
+        }
+        System.out.println("Fetched " + fetched + " of " + (holders.size() + skipped) + " files, " + cached + " from the local cache");
+    }
 
-            case "delete":
-                FileMessage delMsg = new FileMessage(FileMessage.MessageType.Delete, sdfsFileName, Destination.Coordinator);
-                FileMessage inputDelMessage = sendToCoordinator(delMsg);
-                if(inputDelMessage.getMessageType() == FileMessage.MessageType.Fail){
-                    System.out.println("Delete operation failed since file does not exist in SDFS");
+    // Transfer of a batch of versions to or from one node, returning the versions transferred
+    private interface BatchTransfer {
+        Set<String> transfer(MemberListEntry node, List<String> versions);
+    }
+
+    // Run transfer on each node's versions, BATCH_SIZE versions to a connection and BATCH_CONNECTIONS connections
+    // at a time. Returns the nodes each version was transferred with
+    private Map<String, List<MemberListEntry>> runBatches(Map<MemberListEntry, List<String>> byNode, BatchTransfer transfer) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, BATCH_CONNECTIONS));
+        List<MutablePair<MemberListEntry, Future<Set<String>>>> batches = new ArrayList<>();
+        for (Entry<MemberListEntry, List<String>> entry: byNode.entrySet()) {
+            List<String> versions = entry.getValue();
+            for (int start = 0; start < versions.size(); start += Math.max(1, BATCH_SIZE)) {
+                List<String> batch = versions.subList(start, Math.min(versions.size(), start + Math.max(1, BATCH_SIZE)));
+                batches.add(MutablePair.of(entry.getKey(), pool.submit(new Callable<Set<String>>() {
+                    @Override
+                    public Set<String> call() {
+                        return transfer.transfer(entry.getKey(), batch);
+                    }
+                })));
+            }
+        }
+        pool.shutdown();
+
+        Map<String, List<MemberListEntry>> transferred = new HashMap<>();
+        for (MutablePair<MemberListEntry, Future<Set<String>>> batch: batches) {
+            try {
+                for (String version: batch.getRight().get()) {
+                    transferred.putIfAbsent(version, new ArrayList<>());
+                    transferred.get(version).add(batch.getLeft());
                 }
-                else {
-                    System.out.println("File Deleted");
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return transferred;
+    }
+
+    // Send versions to node on one connection, each preceded by its length and checksums
+    // Returns the versions node stored
+    private Set<String> sendBatch(MemberListEntry node, List<String> versions, Map<String, String> localPaths, Map<String, ChunkChecksums> checksums) {
+        try (FileRequest sent = FileRequest.send(node, new FileMessage(FileMessage.MessageType.PutBatch, new HashSet<>(versions), Destination.FileServer))) {
+            if (sent.getReply().getMessageType() != MessageType.Ok) {
+                return new HashSet<>();
+            }
+            for (String version: versions) {
+                String sdfsFileName = Coordinator.deconstructFileWithDelimiter(version).getLeft();
+                ChunkChecksums fileChecksums = checksums.get(sdfsFileName);
+                FileMessage header = new FileMessage(FileMessage.MessageType.Ok, version, 0, fileChecksums.getLength(), Destination.FileServer);
+                header.setChecksums(fileChecksums);
+                sent.getOutput().writeObject(header);
+                sent.getOutput().flush();
+                if (FileTransfer.sendFile(sent.getSocket(), localPaths.get(sdfsFileName)) != fileChecksums.getLength()) {
+                    throw new IOException("Local file " + localPaths.get(sdfsFileName) + " changed while it was put");
                 }
-                break;
+            }
+            FileMessage result = readMessage(sent.getInput());
+            if (result.getMessageType() == MessageType.Ok && result.getFilesOnNode() != null) {
+                return result.getFilesOnNode();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return new HashSet<>();
+    }
 
-            case "ls":
-                FileMessage listMsg = new FileMessage(FileMessage.MessageType.GetVersions, sdfsFileName, Destination.Coordinator);
-                FileMessage inputListMessage = sendToCoordinator(listMsg);
-                if(inputListMessage.getMessageType() == FileMessage.MessageType.Fail){
-                    System.out.println("List operation failed since file does not exist in SDFS");
+    // Fetch versions from node on one connection, each into its local path
+    // Returns the versions received and verified
+    private Set<String> receiveBatch(MemberListEntry node, List<String> versions, Map<String, String> localPaths) {
+        Set<String> received = new HashSet<>();
+        if (!memberList.containsEntry(node)) {
+            return received;
+        }
+        try (FileRequest sent = FileRequest.send(node, new FileMessage(FileMessage.MessageType.GetBatch, new HashSet<>(versions), Destination.FileServer))) {
+            if (sent.getReply().getMessageType() != MessageType.Ok) {
+                return received;
+            }
+            for (int i = sent.getReply().getFilesOnNode().size(); i > 0; i--) {
+                FileMessage header = readMessage(sent.getInput());
+                String localFileName = localPaths.get(header.getFile());
+                ChunkChecksums checksums = header.getChecksums();
+                if (localFileName == null || (checksums != null && checksums.getLength() != header.getLength())) {
+                    throw new IOException("Unexpected version " + header.getFile() + " from " + node);
                 }
-                else{
-                    TreeMap<Integer, Set<MemberListEntry>> servers = inputListMessage.getVersionData();
-                    System.out.println();
-                    for (Iterator<Entry<Integer, Set<MemberListEntry>>> iterator = servers.entrySet().iterator(); iterator.hasNext();) {
-                        Entry<Integer, Set<MemberListEntry>> stack_entry = iterator.next();
-                        System.out.println("The file version: " + stack_entry.getKey() + " is stored at following VM:");
-                        for (Iterator<MemberListEntry> it = stack_entry.getValue().iterator(); it.hasNext();){
-                            System.out.println(it.next().toString());
-                        }
-                        System.out.println();
+                try (FileChannel localFile = FileChannel.open(Paths.get(localFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    if (FileTransfer.receiveFile(sent.getSocket(), localFile, 0, header.getLength(), checksums == null ? null : checksums.verifier(0)) != header.getLength()) {
+                        throw new IOException("Transfer of " + header.getFile() + " ended early");
                     }
                 }
+                received.add(header.getFile());
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return received;
+    }
+
+    // Whether sdfsFileName can be put. The shard separator is kept out of SDFS names, so a version is never
+    // taken for a shard
+    private static boolean isValidName(String sdfsFileName) {
+        return sdfsFileName.indexOf(CodedVersion.SEPARATOR) < 0;
+    }
+
+    // Read the next message a file server sent on input, every reply and acknowledgement is a FileMessage
+    private static FileMessage readMessage(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        return (FileMessage) input.readObject();
+    }
+
+    // Send message to coordinator and return response
+    // Returns null if the coordinator could not be reached, or was still busy after every retry
+    private FileMessage sendToCoordinator(Serializable message) {
+        // Get coordinator
+        MemberListEntry coordinator = memberList.getCoordinator();
+
+        // Send message on the connection kept open to the coordinator and receive response, retried while it is busy
+        try {
+            FileMessage reply = FileRequest.call(peers, coordinator, message);
+            return reply == null || reply.getMessageType() == MessageType.Busy ? null : reply;
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Send the request of a user command to the coordinator, telling the user to try again if there is no reply
+    private FileMessage sendCommandToCoordinator(Serializable message) {
+        FileMessage reply = sendToCoordinator(message);
+        if (reply == null) {
+            System.out.println("Coordinator busy, try again");
+        }
+        return reply;
+    }
+
+    // Fetch file from the given replicas into localFileName, striping across them if enabled
+    private boolean fetchFile(List<MemberListEntry> servers, String localFileName, String sdfsFileName) {
+        if (STRIPED_GET && servers.size() > 1) {
+            return receiveFileStriped(servers, localFileName, sdfsFileName);
+        }
+
+        return receiveFile(servers, localFileName, sdfsFileName, false);
+    }
+
+    // Fetch file by splitting it into byte ranges and downloading them from all replicas at once
+    // A replica that fails hands its range back to be fetched from the remaining replicas
+    private boolean receiveFileStriped(List<MemberListEntry> servers, String localFileName, String sdfsFileName) {
+        // Find file length from any replica
+        long fileLength = -1;
+        for (MemberListEntry node: servers) {
+            fileLength = statFile(node, sdfsFileName);
+            if (fileLength >= 0) {
                 break;
+            }
+        }
+        if (fileLength < 0) {
+            return false;
+        }
 
-            case "get-versions":
-                FileMessage getVMsg = new FileMessage(FileMessage.MessageType.GetVersions, sdfsFileName, Destination.Coordinator);
-                FileMessage inputGetVMsg = sendToCoordinator(getVMsg);
-                if(inputGetVMsg.getMessageType() == FileMessage.MessageType.Fail){
-                    System.out.println("Operation failed: file does not exist in SDFS");
-                }
-                else {
-                    TreeMap<Integer, Set<MemberListEntry>> versionStores = inputGetVMsg.getVersionData();
-                    int i = 0;
+        // Not worth striping a file that fits in a couple of ranges
+        if (fileLength < 2 * STRIPE_SIZE) {
+            return receiveFile(servers, localFileName, sdfsFileName, false);
+        }
 
-                    for (Entry<Integer, Set<MemberListEntry>> pair: versionStores.descendingMap().entrySet()) {
-                        // Skip if this is a pending version
-                        int version = pair.getKey();
-                        Set<MemberListEntry> servers = pair.getValue();
-                        if (servers.isEmpty()) {
-                            continue;
-                        }
+        // Ranges are {offset, length} pairs
+        BlockingQueue<long[]> ranges = new LinkedBlockingQueue<>();
+        for (long offset = 0; offset < fileLength; offset += STRIPE_SIZE) {
+            ranges.add(new long[] {offset, Math.min(STRIPE_SIZE, fileLength - offset)});
+        }
+        AtomicInteger remaining = new AtomicInteger(ranges.size());
 
-                        // Only get 5 most recent versions
-                        if (i >= 5) {
-                            break;
-                        }
-                        i++;
+        ExecutorService pool = Executors.newFixedThreadPool(servers.size());
+        try (RandomAccessFile localFile = new RandomAccessFile(localFileName, "rw")) {
+            // Size the file up front so ranges can be written at any position
+            localFile.setLength(fileLength);
+            FileChannel channel = localFile.getChannel();
 
-                        String sdfsFileNameWithVersion = Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version));
-                        String localFileNameWithVersion = Coordinator.constructFileWithDelimiterAndFullPath(localFileName, Integer.toString(version));
+            List<Future<?>> workers = new ArrayList<>();
+            for (MemberListEntry node: servers) {
+                workers.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (remaining.get() > 0) {
+                            long[] range;
+                            try {
+                                range = ranges.poll(100, TimeUnit.MILLISECONDS);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                            if (range == null) {
+                                continue;
+                            }
 
-                        for(MemberListEntry node: servers){
-                            if (receiveFile(node, localFileNameWithVersion, sdfsFileNameWithVersion)) {
-                                System.out.println("Version " + version + " retrieved successfully");
-                                break;
+                            long received = receiveRange(node, channel, sdfsFileName, range[0], range[1]);
+                            if (received == range[1]) {
+                                remaining.decrementAndGet();
                             } else {
-                                System.out.println("Failed to retrieve version " + version + " from " + node);
+                                // Give the rest of the range back to the other replicas and stop using this one
+                                ranges.add(new long[] {range[0] + received, range[1] - received});
+                                return;
                             }
                         }
                     }
+                }));
+            }
+
+            for (Future<?> worker: workers) {
+                worker.get();
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return remaining.get() == 0;
+    }
+
+    // Fetch sdfsFileName from one of servers as a delta against baseSdfsFileName, already fetched to baseLocalFileName
+    // Returns false if no server could send a delta, the caller then fetches the whole file
+    private boolean fetchDelta(List<MemberListEntry> servers, String localFileName, String sdfsFileName, String baseLocalFileName, String baseSdfsFileName) {
+        for (MemberListEntry node: servers) {
+            if (!memberList.containsEntry(node)) {
+                continue;
+            }
+            try (FileRequest request = requestDelta(node, sdfsFileName, baseSdfsFileName);
+                 FileChannel base = FileChannel.open(Paths.get(baseLocalFileName), StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(Paths.get(localFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                FileMessage response = request.getReply();
+                if (response.getMessageType() != MessageType.Ok) {
+                    continue;
                 }
-                break;
 
-            default:
-                break;
+                response.getDelta().receive(request.getSocket(), base, target);
+                ChunkChecksums checksums = response.getChecksums();
+                if (checksums != null && !checksums.equals(ChunkChecksums.compute(localFileName))) {
+                    throw new IOException("Delta of " + sdfsFileName + " produced a corrupt file");
+                }
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+            }
         }
+        return false;
     }
 
-    // Send message to coordinator and return response
-    private FileMessage sendToCoordinator(Serializable message) {
-        // Get coordinator
-        MemberListEntry coordinator = memberList.getCoordinator();
+    // Fetch a version stored as erasure coded shards, decoding it from any DATA_SHARDS of them
+    private boolean fetchCoded(String localFileName, String sdfsFileName) {
+        FileMessage response = sendToCoordinator(new FileMessage(FileMessage.MessageType.GetStripe, sdfsFileName, Destination.Coordinator));
+        if (response == null || response.getMessageType() != MessageType.Ok) {
+            return false;
+        }
+
+        Map<Integer, String> fetched = new HashMap<>();
+        try {
+            fetched = fetchShards(sdfsFileName, response.getLength(), response.getVersionData(), localFileName + CodedVersion.SEPARATOR);
+            try (FileChannel output = FileChannel.open(Paths.get(localFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                CodedVersion.decode(CODEC, fetched, response.getLength(), output);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            for (String path: fetched.values()) {
+                new File(path).delete();
+            }
+        }
+    }
 
+    // Fetch DATA_SHARDS shards of a coded version of length bytes from the holders of each, by index, into files
+    // named prefix and the shard's index. Data shards are tried first, so decoding is only a copy when all are up
+    // Returns the files fetched by index, and throws if too few shards could be fetched
+    private Map<Integer, String> fetchShards(String version, long length, TreeMap<Integer, Set<MemberListEntry>> holders, String prefix) throws IOException {
+        Map<Integer, String> fetched = new ConcurrentHashMap<>();
+        Iterator<Entry<Integer, Set<MemberListEntry>>> candidates = holders.entrySet().iterator();
+        ExecutorService pool = Executors.newFixedThreadPool(CODEC.getDataShards());
         try {
-            // Open resources
-            Socket coordinatorSocket = new Socket(coordinator.getHostname(), coordinator.getPort());
-            ObjectInputStream input = new ObjectInputStream(coordinatorSocket.getInputStream());
-            ObjectOutputStream output = new ObjectOutputStream(coordinatorSocket.getOutputStream());
+            // Each round fetches as many more shards as are still needed, all at once
+            while (fetched.size() < CODEC.getDataShards() && candidates.hasNext()) {
+                List<Future<?>> round = new ArrayList<>();
+                for (int i = fetched.size(); i < CODEC.getDataShards() && candidates.hasNext(); i++) {
+                    Entry<Integer, Set<MemberListEntry>> candidate = candidates.next();
+                    int index = candidate.getKey();
+                    List<MemberListEntry> servers = new ArrayList<>(candidate.getValue());
+                    round.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            String path = prefix + index;
+                            if (receiveFile(servers, path, CodedVersion.shardName(version, index, length), false)) {
+                                fetched.put(index, path);
+                            } else {
+                                new File(path).delete();
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> fetch: round) {
+                    try {
+                        fetch.get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (fetched.size() < CODEC.getDataShards()) {
+            for (String path: fetched.values()) {
+                new File(path).delete();
+            }
+            throw new IOException("Only " + fetched.size() + " shards of " + version + " could be fetched, " + CODEC.getDataShards() + " are needed");
+        }
+        return fetched;
+    }
+
+    // Fetch file from a file server as a delta against baseFile, stored on this node, sharing baseFile's bytes
+    private boolean receiveDelta(MemberListEntry entry, String file, String baseFile) {
+        if (!memberList.containsEntry(entry)) {
+            return false;
+        }
+        try (FileRequest request = requestDelta(entry, file, baseFile)) {
+            FileMessage response = request.getReply();
+            if (response.getMessageType() != MessageType.Ok) {
+                return false;
+            }
+
+            StoredVersion version = response.getDelta().receive(request.getSocket(), loadVersion(baseFile), volumeOf(baseFile).getDirectory(), file + Delta.SUFFIX);
+            ChunkChecksums checksums = response.getChecksums();
+            if (checksums == null || !checksums.equals(ChunkChecksums.compute(version))) {
+                throw new IOException("Delta of " + file + " produced a corrupt version");
+            }
+            version.save(file);
+            checksums.save(pathOf(file));
+            return true;
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            discardFile(file);
+            return false;
+        }
+    }
 
-            // Write message
-            output.writeObject(message);
-            output.flush();
+    // Send GetDelta request to entry. If the reply is Ok, the literal bytes follow it on the request's socket
+    private FileRequest requestDelta(MemberListEntry entry, String sdfsFileName, String baseSdfsFileName) throws IOException, ClassNotFoundException {
+        FileMessage request = new FileMessage(FileMessage.MessageType.GetDelta, sdfsFileName, Destination.FileServer);
+        request.setBaseFile(baseSdfsFileName);
+        request.setBackground(TransferScheduler.currentPriority() == TransferScheduler.Priority.BACKGROUND);
+        return FileRequest.send(entry, request);
+    }
 
-            // Receive response
-            FileMessage coordinatorResponse = (FileMessage) input.readObject();
+    // Ask file server for the length of a stored file. Returns -1 if unavailable
+    private long statFile(MemberListEntry entry, String sdfsFileName) {
+        if (!memberList.containsEntry(entry)) {
+            return -1;
+        }
+        try (FileRequest request = FileRequest.send(entry, new FileMessage(FileMessage.MessageType.Stat, sdfsFileName, Destination.FileServer))) {
+            FileMessage response = request.getReply();
+            return response.getMessageType() == MessageType.Ok ? response.getLength() : -1;
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
 
-            // close resources
-            output.close();
-            input.close();
-            coordinatorSocket.close();
+    // Receive length bytes of file starting at offset from a file server, written at the same offset of channel
+    // Returns length, or if the transfer fails partway the number of bytes received and verified, which are kept
+    private long receiveRange(MemberListEntry entry, FileChannel channel, String sdfsFileName, long offset, long length) {
+        if (!memberList.containsEntry(entry)) {
+            return 0;
+        }
+        ChunkChecksums.Verifier verifier = null;
 
-            // Return response
-            return coordinatorResponse;
+        // Send GetRange request to file server containing file
+        FileMessage request = new FileMessage(FileMessage.MessageType.GetRange, sdfsFileName, offset, length, Destination.FileServer);
+        request.setCompressed(Compression.ENABLED);
+        try (FileRequest exchange = FileRequest.send(entry, request)) {
+            Socket otherFileServer = exchange.getSocket();
+            FileMessage response = exchange.getReply();
+            if (response.getMessageType() != MessageType.Ok) {
+                System.out.println("GetRange request failed: node does not contain file");
+                return 0;
+            }
 
+            ChunkChecksums checksums = response.getChecksums();
+            verifier = checksums == null ? null : checksums.verifier(offset);
+            long received = response.isCompressed()
+                    ? Compression.receiveSlice(otherFileServer, channel, offset, length, 0, length, verifier)
+                    : FileTransfer.receiveFile(otherFileServer, channel, offset, length, verifier);
+            if (received == length) {
+                return length;
+            }
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
-            return null;
         }
+        return verifier == null ? 0 : verifier.getVerifiedPosition() - offset;
     }
 
-    // Recieve file response from a file server for Get request
-    private boolean receiveFile(MemberListEntry entry, String localFileName, String sdfsFileName){
-        try {
-            // Open resources
-            if (!memberList.containsEntry(entry)){
-                return false;
+    // Receive length bytes of a file starting at offset from a file server into a new local file
+    // Whole chunks around the range are fetched so they can be verified, only the range itself is kept
+    // Returns number of bytes stored (less than length at end of file), or -1 on failure
+    private long receivePartialFile(MemberListEntry entry, String localFileName, String sdfsFileName, long offset, long length) {
+        if (!memberList.containsEntry(entry)) {
+            return -1;
+        }
+
+        long chunkStart = offset - offset % ChunkChecksums.CHUNK_SIZE;
+        long chunkEnd = roundUpToChunk(offset + length);
+
+        FileMessage request = new FileMessage(FileMessage.MessageType.GetRange, sdfsFileName, chunkStart, chunkEnd - chunkStart, Destination.FileServer);
+        request.setCompressed(Compression.ENABLED);
+        try (FileRequest exchange = FileRequest.send(entry, request);
+             FileChannel localFile = FileChannel.open(Paths.get(localFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Socket otherFileServer = exchange.getSocket();
+            FileMessage response = exchange.getReply();
+            if (response.getMessageType() != MessageType.Ok) {
+                System.out.println("GetRange request failed: node does not contain file");
+                return -1;
+            }
+
+            // Server clamps the range to the end of the file
+            long sending = response.getLength();
+            ChunkChecksums checksums = response.getChecksums();
+            long skip = offset - chunkStart;
+            ChunkChecksums.Verifier verifier = checksums == null ? null : checksums.verifier(chunkStart);
+            long received = response.isCompressed()
+                    ? Compression.receiveSlice(otherFileServer, localFile, 0, sending, skip, length, verifier)
+                    : FileTransfer.receiveSlice(otherFileServer, localFile, 0, sending, skip, length, verifier);
+            if (received != sending) {
+                return -1;
             }
-            Socket otherFileServer = new Socket(entry.getHostname(), entry.getPort());
-            ObjectOutputStream output = new ObjectOutputStream(otherFileServer.getOutputStream());
-            ObjectInputStream input = new ObjectInputStream(otherFileServer.getInputStream());
-            FileMessage outputMsg = new FileMessage(FileMessage.MessageType.Get, sdfsFileName, Destination.FileServer);
-            // Send Get request to file server containing file
-            output.writeObject(outputMsg);
-            output.flush();
+            return Math.max(0, Math.min(length, sending - skip));
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    // Round up to a whole number of checksum chunks
+    private static long roundUpToChunk(long position) {
+        return (position + ChunkChecksums.CHUNK_SIZE - 1) / ChunkChecksums.CHUNK_SIZE * ChunkChecksums.CHUNK_SIZE;
+    }
 
-            // Receive response
+    // Fetch file from the first of servers able to send it. If a server fails partway, the bytes received and
+    // verified so far are kept and the next server continues after them
+    // A replica resumes the same way from what it kept of a failed put of the version, and also keeps the checksums
+    private boolean receiveFile(List<MemberListEntry> servers, String localFileName, String sdfsFileName, boolean isReplica) {
+        long verified = 0;
+        ChunkChecksums expected = null;
+        File part = new File(localFileName + PART_SUFFIX);
+        if (isReplica && part.exists()) {
             try {
-                FileMessage response = (FileMessage) input.readObject();
+                expected = ChunkChecksums.load(part.getPath());
+                if (expected != null) {
+                    verified = expected.verifiedPrefix(part.getPath());
+                    Files.move(part.toPath(), Paths.get(localFileName), StandardCopyOption.REPLACE_EXISTING);
+                    System.out.println("Resuming " + sdfsFileName + " at byte " + verified + " kept from an earlier transfer");
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                verified = 0;
+            }
+            new File(part.getPath() + ChunkChecksums.SUFFIX).delete();
+        }
+
+        for (int i = 0; i < servers.size(); i++) {
+            MemberListEntry node = servers.get(i);
+            if (!memberList.containsEntry(node)) {
+                continue;
+            }
+
+            ChunkChecksums.Verifier verifier = null;
+
+            // Ask for everything after the verified bytes, the server clamps the range to the end of the file
+            FileMessage request = new FileMessage(FileMessage.MessageType.GetRange, sdfsFileName, verified, Long.MAX_VALUE, Destination.FileServer);
+            request.setCompressed(Compression.ENABLED);
+            // A replica fetched for repair is sent as background traffic by the holder too
+            request.setBackground(TransferScheduler.currentPriority() == TransferScheduler.Priority.BACKGROUND);
+            try (FileRequest exchange = FileRequest.send(node, request);
+                 FileChannel localFile = FileChannel.open(Paths.get(localFileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                Socket otherFileServer = exchange.getSocket();
+                FileMessage response = exchange.getReply();
                 if (response.getMessageType() != MessageType.Ok) {
                     System.out.println("Get request failed: node does not contain file");
-                    return false;
+                    continue;
+                }
+
+                // Bytes kept so far are only valid against the same checksums, otherwise start again from this server
+                ChunkChecksums checksums = response.getChecksums();
+                if (verified > 0 && (checksums == null || !checksums.equals(expected))) {
+                    System.out.println("Checksums of " + sdfsFileName + " differ between replicas, fetching it again");
+                    verified = 0;
+                    i--;
+                    continue;
+                }
+                expected = checksums;
+
+                // Recieve file, a corrupt replica fails here so the loop moves on to another holder
+                long length = response.getLength();
+                verifier = checksums == null ? null : checksums.verifier(verified);
+                long received = response.isCompressed()
+                        ? Compression.receiveSlice(otherFileServer, localFile, verified, length, 0, length, verifier)
+                        : FileTransfer.receiveFile(otherFileServer, localFile, verified, length, verifier);
+                if (received == length && (checksums == null || verified + length == checksums.getLength())) {
+                    localFile.truncate(verified + length);
+                    if (isReplica && checksums != null) {
+                        checksums.save(localFileName);
+                    }
+                    return true;
                 }
-            } catch (Exception e) {
+            } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
-                return false;
             }
 
-            // Recieve file
-            DataInputStream fileInput = new DataInputStream(otherFileServer.getInputStream());
-            byte[] buffer = new byte[1024];
-            FileOutputStream fileOutput = new FileOutputStream(localFileName);
-            Integer i;
-            while((i=fileInput.read(buffer)) > 0) {
-                fileOutput.write(buffer,0,i);
+            if (verifier != null && verifier.getVerifiedPosition() > verified) {
+                verified = verifier.getVerifiedPosition();
+                System.out.println("Transfer of " + sdfsFileName + " from " + node + " failed, resuming at byte " + verified);
+            }
+        }
+        return false;
+    }
+
+    // Start uploading a new version to servers, in parallel or down a chain depending on CHAIN_PUT
+    // Each server's outcome is added to the returned queue as soon as it is known
+    private BlockingQueue<MutablePair<MemberListEntry, Boolean>> startPut(List<MemberListEntry> servers, String localFileName, String putFileName, ChunkChecksums checksums) {
+        if (!CHAIN_PUT) {
+            FileMessage putMsg = new FileMessage(FileMessage.MessageType.Put, putFileName, Destination.FileServer);
+            putMsg.setChecksums(checksums);
+            putMsg.setCompressed(Compression.ENABLED);
+            return startParallelWrite(servers, localFileName, putMsg);
+        }
 
+        // Upload once, replicas forward down the chain
+        BlockingQueue<MutablePair<MemberListEntry, Boolean>> results = new LinkedBlockingQueue<>();
+        Thread chainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendFileChained(servers, localFileName, putFileName, checksums, results);
             }
-            fileOutput.flush();
+        });
+        chainThread.start();
+        return results;
+    }
 
-            // Close resources
-            fileOutput.close();
-            fileInput.close();
-            output.close();
-            input.close();
-            otherFileServer.close();
+    // Start sending the local file to every server at once, each preceded by request
+    // Each server's outcome is added to the returned queue as soon as it is known
+    private BlockingQueue<MutablePair<MemberListEntry, Boolean>> startParallelWrite(List<MemberListEntry> servers, String localFileName, FileMessage request) {
+        BlockingQueue<MutablePair<MemberListEntry, Boolean>> results = new LinkedBlockingQueue<>();
+        ExecutorService pool = Executors.newCachedThreadPool();
+        for (MemberListEntry node: servers) {
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    results.add(MutablePair.of(node, sendFile(node, localFileName, request)));
+                }
+            });
         }
-        catch (IOException e) {
+
+        // Already submitted transfers keep running
+        pool.shutdown();
+        return results;
+    }
+
+    // Wait until quorum of the count outstanding transfers of a write have stored the version, or all have finished,
+    // and report the stored replicas to the Coordinator. The rest are reported in the background, see WriteQuorum
+    // Returns the number of replicas that stored the version before returning, 0 if the write failed
+    private int completeWrite(BlockingQueue<MutablePair<MemberListEntry, Boolean>> results, int count, int quorum, String sdfsFileName, int version) {
+        return WriteQuorum.complete(results, count, quorum, new WriteQuorum.Listener() {
+            @Override
+            public void stored(List<MemberListEntry> nodes, boolean complete) {
+                // The Coordinator holds back repair of the version on the nodes still being written until the last report
+                FileMessage putOk = new FileMessage(FileMessage.MessageType.PutOk, sdfsFileName, nodes, version, Destination.Coordinator);
+                putOk.setComplete(complete);
+                sendToCoordinator(putOk);
+            }
+
+            @Override
+            public void failed() {
+                sendToCoordinator(new FileMessage(FileMessage.MessageType.PutFail, sdfsFileName, new ArrayList<>(), version, Destination.Coordinator));
+            }
+
+            @Override
+            public boolean retry(MemberListEntry node, List<MemberListEntry> holders) {
+                return requestReplicate(node, Coordinator.constructFileWithDelimiter(sdfsFileName, Integer.toString(version)), holders);
+            }
+        });
+    }
+
+    // Ask a file server to fetch file from holders, as the Coordinator does to replicate it
+    private boolean requestReplicate(MemberListEntry entry, String file, List<MemberListEntry> holders) {
+        if (!memberList.containsEntry(entry)) {
+            return false;
+        }
+        FileMessage request = new FileMessage(FileMessage.MessageType.Replicate, file, new ArrayList<>(holders), Destination.FileServer);
+        try (FileRequest exchange = FileRequest.send(entry, request)) {
+            return exchange.getReply().getMessageType() == MessageType.Ok;
+        } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return false;
         }
-        return true;
     }
 
-    // Send file to FileServer to store for Put request
-    private boolean sendFile(MemberListEntry entry, String localFileName, String sdfsFileName){
-        try {
-            // Open resources
-            Socket memberServer = new Socket(entry.getHostname(), entry.getPort());
-            ObjectOutputStream output = new ObjectOutputStream(memberServer.getOutputStream());
-            ObjectInputStream input = new ObjectInputStream(memberServer.getInputStream());
+    // Send file to the head of a chain of file servers, each of which stores it and forwards it to the next
+    // Adds a result to results for every server in chain: acknowledged nodes as they arrive, the rest as failures at the end
+    private void sendFileChained(List<MemberListEntry> chain, String localFileName, String sdfsFileName, ChunkChecksums checksums, BlockingQueue<MutablePair<MemberListEntry, Boolean>> results) {
+        Set<MemberListEntry> acknowledged = new HashSet<>();
+        MutableTriple<Socket, ObjectInputStream, Boolean> head = openChain(chain, sdfsFileName, checksums, Compression.ENABLED);
+
+        if (head == null) {
+            System.out.println("Put request failed: no node in chain accepted file");
+        }
+        else {
+            try (Socket memberServer = head.getLeft()) {
+                // Send file, then half-close so acknowledgements can still be read
+                if (head.getRight()) {
+                    Compression.sendFile(memberServer, localFileName);
+                } else {
+                    FileTransfer.sendFile(memberServer, localFileName);
+                }
+                memberServer.shutdownOutput();
+
+                while (true) {
+                    FileMessage ack = readMessage(head.getMiddle());
+                    for (MemberListEntry node: ack.getNodes()) {
+                        if (acknowledged.add(node)) {
+                            results.add(MutablePair.of(node, true));
+                        }
+                    }
+                }
+            } catch (EOFException e) {
+                // Chain has finished acknowledging
+            } catch (IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (MemberListEntry node: chain) {
+            if (!acknowledged.contains(node)) {
+                results.add(MutablePair.of(node, false));
+            }
+        }
+    }
 
-            // Send Put request to file server that should store file
-            output.writeObject(new FileMessage(FileMessage.MessageType.Put, sdfsFileName, Destination.FileServer));
-            output.flush();
+    // Open a ChainPut connection to the first node of chain that accepts the file
+    // That node is handed the remainder of the chain. Returns null if no node accepts
+    // Otherwise returns the connection, its input stream and whether the node agreed to a compressed transfer
+    private MutableTriple<Socket, ObjectInputStream, Boolean> openChain(List<MemberListEntry> chain, String sdfsFileName, ChunkChecksums checksums, boolean compress) {
+        for (int i = 0; i < chain.size(); i++) {
+            MemberListEntry entry = chain.get(i);
+            if (!memberList.containsEntry(entry)) {
+                continue;
+            }
 
-            // Receive response
+            List<MemberListEntry> rest = new ArrayList<>(chain.subList(i + 1, chain.size()));
+            FileMessage chainPutMsg = new FileMessage(FileMessage.MessageType.ChainPut, sdfsFileName, rest, Destination.FileServer);
+            chainPutMsg.setChecksums(checksums);
+            chainPutMsg.setCompressed(compress);
             try {
-                FileMessage response = (FileMessage) input.readObject();
-                if (response.getMessageType() != MessageType.Ok) {
-                    System.out.println("Put request failed: node already contains file");
-                    return false;
+                FileRequest request = FileRequest.send(entry, chainPutMsg);
+                FileMessage response = request.getReply();
+                if (response.getMessageType() == MessageType.Ok) {
+                    return MutableTriple.of(request.getSocket(), request.getInput(), response.isCompressed());
                 }
-            } catch (Exception e) {
+                request.close();
+            } catch (IOException | ClassNotFoundException e) {
                 e.printStackTrace();
-                return false;
             }
+        }
+        return null;
+    }
 
-            // Send file
-            DataOutputStream fileOutput = new DataOutputStream(memberServer.getOutputStream());
-            byte[] buffer = new byte[1024];
-            FileInputStream fileInputStream = new FileInputStream(localFileName);
-            Integer i;
-            while((i=fileInputStream.read(buffer)) != -1) {
-                fileOutput.write(buffer,0,i);
+    // Send file to FileServer to store for Put or Append request
+    // The connection is closed however the transfer ends
+    private boolean sendFile(MemberListEntry entry, String localFileName, FileMessage request){
+        // Send request to file server that should store file and receive response
+        try (FileRequest exchange = FileRequest.send(entry, request)) {
+            Socket memberServer = exchange.getSocket();
+            FileMessage response = exchange.getReply();
+            if (response.getMessageType() != MessageType.Ok) {
+                System.out.println(request.getMessageType() + " request failed: node cannot store file");
+                return false;
             }
 
-            // Close resources
-            fileOutput.flush();
-            fileOutput.close();
-            fileInputStream.close();
-            output.close();
-            input.close();
-            memberServer.close();
+            // Send file, then half-close and wait for the node to acknowledge it stored the file
+            if (response.isCompressed()) {
+                Compression.sendFile(memberServer, localFileName);
+            } else {
+                FileTransfer.sendFile(memberServer, localFileName);
+            }
+            memberServer.shutdownOutput();
+            FileMessage ack = readMessage(exchange.getInput());
+            return ack.getMessageType() == MessageType.Ok;
         }
-        catch (IOException e) {
+        catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return false;
         }
-        return true;
     }
 }
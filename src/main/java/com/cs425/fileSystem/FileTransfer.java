@@ -0,0 +1,198 @@
+package com.cs425.fileSystem;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * Utility class to move file data between disk and sockets.
+ * Uses FileChannel transferTo/transferFrom so data is copied by the kernel
+ * instead of through a heap buffer.
+ */
+public class FileTransfer {
+    // Maximum bytes handed to the kernel per transfer call
+    public static final long CHUNK_SIZE = 1 << 20;
+
+    // Open a socket backed by a SocketChannel, so file data can be sent with transferTo
+    // Nagle is off: an ObjectOutputStream sends a request in several writes, and the later ones would otherwise
+    // wait for the server's delayed ACK
+    public static Socket openSocket(MemberListEntry entry) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(entry.getHostname(), entry.getPort()));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return channel.socket();
+    }
+
+    // Send whole file at path to socket
+    public static long sendFile(Socket socket, String path) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return sendFile(socket, file, 0, file.size());
+        }
+    }
+
+    // Send count bytes of file starting at position to socket. Returns bytes sent
+    public static long sendFile(Socket socket, FileChannel file, long position, long count) throws IOException {
+        WritableByteChannel out = outputChannel(socket);
+        long end = Math.min(file.size(), position + count);
+        long sent = 0;
+        while (position + sent < end) {
+            long n = file.transferTo(position + sent, Math.min(CHUNK_SIZE, end - position - sent), out);
+            if (n <= 0) {
+                break;
+            }
+            sent += n;
+            TransferScheduler.throttle(n);
+        }
+        return sent;
+    }
+
+    // Send the remaining bytes of buffer to socket. Returns bytes sent
+    public static long sendBuffer(Socket socket, ByteBuffer buffer) throws IOException {
+        WritableByteChannel out = outputChannel(socket);
+        long sent = 0;
+        while (buffer.hasRemaining()) {
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit((int) Math.min(buffer.limit(), buffer.position() + CHUNK_SIZE));
+            int n = out.write(chunk);
+            buffer.position(chunk.position());
+            sent += n;
+            TransferScheduler.throttle(n);
+        }
+        return sent;
+    }
+
+    // Receive everything left on socket into file at path, replacing any existing content
+    // If checksums are given, data is verified as it arrives and must match the checksummed length
+    public static long receiveFile(Socket socket, String path, ChunkChecksums checksums) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long received = receiveFile(socket, file, 0, Long.MAX_VALUE, checksums == null ? null : checksums.verifier(0));
+            if (checksums != null && received != checksums.getLength()) {
+                throw new IOException("Transfer ended after " + received + " of " + checksums.getLength() + " bytes");
+            }
+            return received;
+        }
+    }
+
+    // Receive up to count bytes from socket into file starting at position. Returns bytes received
+    // Note: position must not be past the end of the file
+    public static long receiveFile(Socket socket, FileChannel file, long position, long count, ChunkChecksums.Verifier verifier) throws IOException {
+        if (verifier != null) {
+            // Data has to pass through user space to be verified
+            return receiveSlice(socket, file, position, count, 0, count, verifier);
+        }
+
+        ReadableByteChannel in = inputChannel(socket);
+        long received = 0;
+        while (received < count) {
+            // transferFrom returns 0 once a blocking source reaches end of stream
+            long n = file.transferFrom(in, position + received, Math.min(CHUNK_SIZE, count - received));
+            if (n <= 0) {
+                break;
+            }
+            received += n;
+            TransferScheduler.throttle(n);
+        }
+        return received;
+    }
+
+    // Receive up to count bytes from socket, verifying all of them, but store only the keep bytes that start
+    // skip bytes into the stream, at position of file. Lets a caller fetch whole checksummed chunks while
+    // keeping an arbitrary byte range. Returns bytes received
+    public static long receiveSlice(Socket socket, FileChannel file, long position, long count, long skip, long keep, ChunkChecksums.Verifier verifier) throws IOException {
+        ReadableByteChannel in = inputChannel(socket);
+        long received = 0;
+
+        // Data has to pass through user space to be verified, so use a direct buffer to keep it off the heap
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) CHUNK_SIZE);
+        while (received < count) {
+            buffer.limit((int) Math.min(buffer.capacity(), count - received));
+            if (in.read(buffer) == -1) {
+                break;
+            }
+            buffer.flip();
+            int n = buffer.limit();
+            if (verifier != null) {
+                verifier.update(buffer);
+            }
+            writeSlice(file, buffer, position, received, skip, keep);
+
+            received += n;
+            buffer.clear();
+            TransferScheduler.throttle(n);
+        }
+        return received;
+    }
+
+    // Write the part of buffer that falls inside the keep bytes starting skip bytes into a stream to file at position
+    // buffer holds the stream's bytes from received onward
+    static void writeSlice(FileChannel file, ByteBuffer buffer, long position, long received, long skip, long keep) throws IOException {
+        long start = Math.max(received, skip);
+        long end = Math.min(received + buffer.remaining(), skip + keep);
+        if (start < end) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (end - received));
+            slice.position((int) (start - received));
+            long writePosition = position + start - skip;
+            while (slice.hasRemaining()) {
+                writePosition += file.write(slice, writePosition);
+            }
+        }
+    }
+
+    // Receive everything left on source into file, forwarding each chunk to next as it arrives
+    // Chunks are verified before being stored or forwarded if a verifier is given
+    // If next fails, the rest of the file is still stored locally. Returns false if forwarding failed
+    public static boolean receiveAndForward(Socket source, FileChannel file, Socket next, ChunkChecksums.Verifier verifier) throws IOException {
+        ReadableByteChannel in = inputChannel(source);
+        WritableByteChannel out = next != null ? outputChannel(next) : null;
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) CHUNK_SIZE);
+        long position = 0;
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            if (verifier != null) {
+                verifier.update(buffer);
+            }
+
+            // Forward chunk downstream before writing locally so the next node is never idle
+            if (out != null) {
+                ByteBuffer forward = buffer.duplicate();
+                try {
+                    while (forward.hasRemaining()) {
+                        out.write(forward);
+                    }
+                } catch (IOException e) {
+                    out = null;
+                }
+            }
+
+            TransferScheduler.throttle(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+            buffer.clear();
+        }
+        return next == null || out != null;
+    }
+
+    // Sockets accepted from a ServerSocketChannel or opened with openSocket have a channel,
+    // others fall back to wrapping the socket streams
+    static WritableByteChannel outputChannel(Socket socket) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        return channel != null ? channel : Channels.newChannel(socket.getOutputStream());
+    }
+
+    static ReadableByteChannel inputChannel(Socket socket) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        return channel != null ? channel : Channels.newChannel(socket.getInputStream());
+    }
+}
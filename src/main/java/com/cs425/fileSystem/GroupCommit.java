@@ -0,0 +1,197 @@
+package com.cs425.fileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes stored versions durable before they are acknowledged, and records them in the manifest.
+ * In group mode a version's files are handed to a committer thread, which takes every version waiting at that
+ * moment, forces each of their files to disk once, then the storage directory so renames into it survive,
+ * and only then records the versions in the manifest with a single force. Versions arriving while a group is
+ * being forced make up the next one, so the forces per version fall as more puts run at once.
+ * In sync mode each version forces its own files, and in async mode file data is left for the operating
+ * system to write back, as before.
+ */
+public class GroupCommit {
+    public enum Mode {
+        // File data written back by the operating system, only the manifest record is forced
+        ASYNC,
+        // Every version forces its own files and manifest record
+        SYNC,
+        // Versions waiting at the same time are forced together
+        GROUP
+    }
+
+    private final Mode mode;
+    private final String directory;
+    private final StoreManifest manifest;
+    private final LinkedBlockingQueue<Pending> waiting = new LinkedBlockingQueue<>();
+    private Thread committer;
+    // Set once the volume is taken out of use, after which nothing more is committed
+    private volatile boolean closed;
+
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+
+    // Commits of versions stored in directory, recorded in manifest
+    public GroupCommit(Mode mode, String directory, StoreManifest manifest) {
+        this.mode = mode;
+        this.directory = directory;
+        this.manifest = manifest;
+
+        if (mode == Mode.GROUP) {
+            committer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    GroupCommit.this.commitGroups();
+                }
+            }, "group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        }
+    }
+
+    // Mode named by value, case ignored
+    public static Mode parseMode(String value) {
+        return Mode.valueOf(value.toUpperCase());
+    }
+
+    // Make the named files in the directory durable, then record file as stored. Returns once both are on disk
+    // Files that do not exist are skipped
+    // Throws once the commits are closed, or if they are closed while file waits
+    public void commit(String file, Collection<String> dataFiles) throws IOException {
+        if (closed) {
+            throw new IOException("Commits to " + directory + " are closed");
+        }
+        switch (mode) {
+            case ASYNC:
+                manifest.add(file);
+                break;
+            case SYNC:
+                for (String dataFile: dataFiles) {
+                    force(dataFile);
+                }
+                forceDirectory();
+                manifest.add(file);
+                break;
+            case GROUP:
+                Pending pending = new Pending(file, dataFiles);
+                waiting.add(pending);
+                // Closed after the check above, so nothing may take it from the queue
+                if (closed) {
+                    failWaiting();
+                }
+                try {
+                    pending.done.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for " + file + " to be durable");
+                }
+                break;
+        }
+        committed.incrementAndGet();
+    }
+
+    // Stop committing. Versions still waiting, and any committed after this, fail instead of waiting forever
+    public void close() {
+        closed = true;
+        if (committer != null) {
+            committer.interrupt();
+        }
+        failWaiting();
+    }
+
+    // Fail every version waiting to be committed
+    private void failWaiting() {
+        List<Pending> failed = new ArrayList<>();
+        waiting.drainTo(failed);
+        for (Pending pending: failed) {
+            pending.done.completeExceptionally(new IOException("Commits to " + directory + " closed before " + pending.file + " was durable"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        String forces = mode == Mode.GROUP ? ", in " + groups.get() + " groups" : "";
+        return "Durability: " + mode.name().toLowerCase() + ", " + committed.get() + " versions committed" + forces;
+    }
+
+    // Commit the versions waiting together, until interrupted
+    private void commitGroups() {
+        List<Pending> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(waiting.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            waiting.drainTo(group);
+
+            Set<String> dataFiles = new LinkedHashSet<>();
+            List<String> files = new ArrayList<>(group.size());
+            for (Pending pending: group) {
+                dataFiles.addAll(pending.dataFiles);
+                files.add(pending.file);
+            }
+            try {
+                for (String dataFile: dataFiles) {
+                    force(dataFile);
+                }
+                forceDirectory();
+                manifest.addAll(files);
+                groups.incrementAndGet();
+                for (Pending pending: group) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Pending pending: group) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+            group.clear();
+        }
+    }
+
+    private void force(String dataFile) throws IOException {
+        if (!new File(directory + dataFile).exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(directory + dataFile), StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    // Force the directory's entries, so files renamed into it are found after a crash
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(Paths.get(directory), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory to force it
+        }
+    }
+
+    private static class Pending {
+        private final String file;
+        private final Collection<String> dataFiles;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Pending(String file, Collection<String> dataFiles) {
+            this.file = file;
+            this.dataFiles = dataFiles;
+        }
+    }
+}
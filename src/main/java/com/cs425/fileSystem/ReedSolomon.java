@@ -0,0 +1,194 @@
+package com.cs425.fileSystem;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): dataShards shards of data are stored as they are, alongside
+ * parityShards shards computed from them, and any dataShards of the shards rebuild all the others.
+ * The coding matrix is a Vandermonde matrix scaled so its top rows are the identity, so every square
+ * selection of its rows can be inverted.
+ */
+public class ReedSolomon {
+    // x^8 + x^4 + x^3 + x^2 + 1, with 2 as generator
+    private static final int POLYNOMIAL = 0x11D;
+    private static final byte[] EXP = new byte[510];
+    private static final int[] LOG = new int[256];
+    // Product of every pair of field elements
+    private static final byte[][] MULTIPLY = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MULTIPLY[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    // Rows of the coding matrix, one per shard, the first dataShards of them the identity
+    private final byte[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Cannot code " + dataShards + " data shards with " + parityShards + " parity shards");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        byte[][] vandermonde = new byte[dataShards + parityShards][dataShards];
+        for (int row = 0; row < vandermonde.length; row++) {
+            for (int column = 0; column < dataShards; column++) {
+                vandermonde[row][column] = power(row, column);
+            }
+        }
+        byte[][] top = new byte[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        matrix = multiply(vandermonde, invert(top));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getShardCount() {
+        return dataShards + parityShards;
+    }
+
+    // Compute the parity shards from the data shards, over length bytes of each from offset
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        for (int parity = dataShards; parity < shards.length; parity++) {
+            combine(matrix[parity], shards, allData(), shards[parity], offset, length);
+        }
+    }
+
+    // Rebuild the shards not present from dataShards of those present, over length bytes of each from offset
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Only " + found + " of the " + dataShards + " shards needed are present");
+        }
+
+        // Data shards missing are the inverse of the present rows applied to the present shards
+        byte[][] selected = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            selected[i] = matrix[rows[i]];
+        }
+        byte[][] decode = invert(selected);
+        for (int data = 0; data < dataShards; data++) {
+            if (!present[data]) {
+                combine(decode[data], shards, rows, shards[data], offset, length);
+            }
+        }
+        // With every data shard in place, missing parity is encoded again
+        for (int parity = dataShards; parity < shards.length; parity++) {
+            if (!present[parity]) {
+                combine(matrix[parity], shards, allData(), shards[parity], offset, length);
+            }
+        }
+    }
+
+    // Set output to the sum of the inputs named by rows, each multiplied by its coefficient
+    private static void combine(byte[] coefficients, byte[][] shards, int[] rows, byte[] output, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            output[i] = 0;
+        }
+        for (int j = 0; j < rows.length; j++) {
+            byte[] product = MULTIPLY[coefficients[j] & 0xFF];
+            byte[] input = shards[rows[j]];
+            for (int i = offset; i < offset + length; i++) {
+                output[i] ^= product[input[i] & 0xFF];
+            }
+        }
+    }
+
+    private int[] allData() {
+        int[] rows = new int[dataShards];
+        for (int i = 0; i < dataShards; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static byte[][] multiply(byte[][] left, byte[][] right) {
+        byte[][] product = new byte[left.length][right[0].length];
+        for (int row = 0; row < left.length; row++) {
+            for (int column = 0; column < right[0].length; column++) {
+                byte sum = 0;
+                for (int i = 0; i < right.length; i++) {
+                    sum ^= MULTIPLY[left[row][i] & 0xFF][right[i][column] & 0xFF];
+                }
+                product[row][column] = sum;
+            }
+        }
+        return product;
+    }
+
+    // Inverse of a square matrix by Gauss-Jordan elimination
+    private static byte[][] invert(byte[][] square) {
+        int size = square.length;
+        byte[][] work = new byte[size][2 * size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(square[row], 0, work[row], 0, size);
+            work[row][size + row] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) {
+                pivot++;
+            }
+            if (pivot == size) {
+                throw new IllegalArgumentException("Coding matrix is singular");
+            }
+            byte[] swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+
+            byte[] scale = MULTIPLY[EXP[255 - LOG[work[column][column] & 0xFF]] & 0xFF];
+            for (int i = 0; i < 2 * size; i++) {
+                work[column][i] = scale[work[column][i] & 0xFF];
+            }
+            for (int row = 0; row < size; row++) {
+                if (row != column && work[row][column] != 0) {
+                    byte[] factor = MULTIPLY[work[row][column] & 0xFF];
+                    for (int i = 0; i < 2 * size; i++) {
+                        work[row][i] ^= factor[work[column][i] & 0xFF];
+                    }
+                }
+            }
+        }
+        byte[][] inverse = new byte[size][size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(work[row], size, inverse[row], 0, size);
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,86 @@
+package com.cs425.fileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Which versions of a file are kept: at most a number of the newest, and none older than a maximum age, with 0
+ * leaving either unlimited. Rules for files matching a wildcard pattern override the global ones, the first
+ * matching rule applying. The newest stored version of a file is always kept, so a file is only ever removed
+ * by a delete.
+ */
+public class RetentionPolicy {
+    private final int keepVersions;
+    private final long maxAge;
+    // Pattern of each rule, with its versions kept and maximum age
+    private final List<Rule> rules = new ArrayList<>();
+
+    private static class Rule {
+        private final String pattern;
+        private final int keepVersions;
+        private final long maxAge;
+
+        private Rule(String pattern, int keepVersions, long maxAge) {
+            this.pattern = pattern;
+            this.keepVersions = keepVersions;
+            this.maxAge = maxAge;
+        }
+    }
+
+    // Policy keeping keepVersions versions no older than maxAge milliseconds, except for files matching rules,
+    // a comma separated list of pattern:versions:maxAge
+    public RetentionPolicy(int keepVersions, long maxAge, String rules) {
+        this.keepVersions = keepVersions;
+        this.maxAge = maxAge;
+        for (String rule: rules.split(",")) {
+            if (rule.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = rule.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Retention rule " + rule + " is not pattern:versions:maxAge");
+            }
+            this.rules.add(new Rule(parts[0], Integer.parseInt(parts[1]), Long.parseLong(parts[2])));
+        }
+    }
+
+    // Whether the policy can expire anything at all
+    public boolean isUnlimited() {
+        if (keepVersions > 0 || maxAge > 0) {
+            return false;
+        }
+        for (Rule rule: rules) {
+            if (rule.keepVersions > 0 || rule.maxAge > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Versions of fileName to drop at now, given the time each of its stored versions was stored
+    public List<Integer> expired(String fileName, NavigableMap<Integer, Long> storedTimes, long now) {
+        int keep = keepVersions;
+        long age = maxAge;
+        for (Rule rule: rules) {
+            if (FilenameUtils.wildcardMatch(fileName, rule.pattern)) {
+                keep = rule.keepVersions;
+                age = rule.maxAge;
+                break;
+            }
+        }
+
+        List<Integer> expired = new ArrayList<>();
+        int newer = 0;
+        for (Map.Entry<Integer, Long> entry: storedTimes.descendingMap().entrySet()) {
+            if (newer > 0 && ((keep > 0 && newer >= keep) || (age > 0 && now - entry.getValue() > age))) {
+                expired.add(entry.getKey());
+            }
+            newer++;
+        }
+        return expired;
+    }
+}
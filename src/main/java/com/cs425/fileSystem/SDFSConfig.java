@@ -0,0 +1,41 @@
+package com.cs425.fileSystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * SDFS tuning options, loaded once from sdfs.properties on the classpath.
+ * Missing keys (or a missing file) fall back to the defaults given by the caller.
+ */
+public class SDFSConfig {
+    private static final Properties properties = load();
+
+    private static Properties load() {
+        Properties properties = new Properties();
+        try (InputStream stream = SDFSConfig.class.getClassLoader().getResourceAsStream("sdfs.properties")) {
+            if (stream != null) {
+                properties.load(stream);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return properties;
+    }
+
+    public static String getString(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue).trim();
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, Boolean.toString(defaultValue)));
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return Integer.parseInt(getString(key, Integer.toString(defaultValue)));
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        return Long.parseLong(getString(key, Long.toString(defaultValue)));
+    }
+}
@@ -0,0 +1,356 @@
+package com.cs425.fileSystem;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Small stored versions packed into append-only segment files, so each one costs no files of its own.
+ * A segment is a sequence of records, each the name, length and checksums of a version followed by its bytes.
+ * Removing a version appends a record with no bytes that marks it removed. Where each version's bytes are is
+ * kept in memory, and rebuilt on restart by reading the segments oldest first, so later records win.
+ * Once most of a full segment is removed versions, its live records are copied to the open segment and it is
+ * dropped. Segment names cannot clash with a stored version, which always has a version number after its delimiter.
+ */
+public class SegmentStore {
+    public static final String PREFIX = "SEGMENT-";
+
+    private static final byte LIVE = 1;
+    private static final byte REMOVED = 2;
+
+    private final String directory;
+    private final long segmentSize;
+    private final int compactLivePercent;
+
+    // Segments by number, the highest is the one appended to
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    // Segments of about segmentSize bytes in directory, compacted once less than compactLivePercent of one is live
+    public SegmentStore(String directory, long segmentSize, int compactLivePercent) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactLivePercent = compactLivePercent;
+    }
+
+    // Rebuild the index from the segments in the directory and return the names of the segment files
+    // A record cut short by a crash is dropped along with the rest of its segment
+    public synchronized Set<String> load() throws IOException {
+        File[] found = new File(directory).listFiles();
+        if (found != null) {
+            for (File file: found) {
+                if (file.getName().startsWith(PREFIX)) {
+                    try {
+                        int number = Integer.parseInt(file.getName().substring(PREFIX.length()));
+                        segments.put(number, new Segment(file.getName()));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        for (Segment segment: segments.values()) {
+            scan(segment);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (Segment segment: segments.values()) {
+            names.add(segment.name);
+        }
+        return names;
+    }
+
+    public boolean contains(String file) {
+        return index.containsKey(file);
+    }
+
+    public Set<String> getFiles() {
+        return new HashSet<>(index.keySet());
+    }
+
+    // Layout of file as an extent of its segment, or null if it is not packed
+    public StoredVersion layout(String file) {
+        Location location = index.get(file);
+        if (location == null) {
+            return null;
+        }
+        StoredVersion version = StoredVersion.empty(directory);
+        version.addExtent(location.segment.name, location.offset, location.length);
+        return version;
+    }
+
+    // Checksums of file, or null if it is not packed
+    public ChunkChecksums checksums(String file) {
+        Location location = index.get(file);
+        return location == null ? null : location.checksums;
+    }
+
+    // Pack the content of version as file. The version's own files are left for the caller to remove
+    public void add(String file, StoredVersion version, ChunkChecksums checksums) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) version.getLength());
+        while (content.hasRemaining()) {
+            if (version.read(content, content.position()) <= 0) {
+                throw new IOException("Version " + file + " ended while packing it");
+            }
+        }
+        content.flip();
+        add(file, content, checksums);
+    }
+
+    // Pack the remaining bytes of content as file, replacing any packed version of the same name
+    public synchronized void add(String file, ByteBuffer content, ChunkChecksums checksums) throws IOException {
+        if (checksums.getLength() != content.remaining()) {
+            throw new IOException("Checksums of " + file + " are for " + checksums.getLength() + " bytes, not " + content.remaining());
+        }
+        Segment segment = openSegment();
+        long offset = append(segment, header(LIVE, file, checksums), content);
+        segment.live += checksums.getLength();
+        Location replaced = index.put(file, new Location(segment, offset, checksums));
+        if (replaced != null) {
+            replaced.segment.live -= replaced.length;
+        }
+    }
+
+    // Remove file, if it is packed. Its bytes are reclaimed when its segment is compacted
+    public synchronized void remove(String file) throws IOException {
+        Location location = index.remove(file);
+        if (location == null) {
+            return;
+        }
+        location.segment.live -= location.length;
+        append(openSegment(), header(REMOVED, file, null), ByteBuffer.allocate(0));
+    }
+
+    // Keep only the packed versions in stored, removing the rest
+    public void retain(Set<String> stored) throws IOException {
+        for (String file: getFiles()) {
+            if (!stored.contains(file)) {
+                remove(file);
+            }
+        }
+    }
+
+    // Copy the live records of mostly removed segments into the open one and return the names of the segments
+    // dropped. Their files are left for the caller to delete once reads that found versions in them have finished
+    public synchronized Set<String> compact() throws IOException {
+        Set<String> dropped = new HashSet<>();
+        if (segments.size() < 2) {
+            return dropped;
+        }
+        for (Segment segment: new ArrayList<>(segments.headMap(segments.lastKey()).values())) {
+            if (segment.live * 100 >= segment.size * compactLivePercent) {
+                continue;
+            }
+            // Marks of removal are still needed while an older segment may hold the versions they remove
+            boolean oldest = segment == segments.firstEntry().getValue();
+            for (Record record: records(segment)) {
+                Location location = index.get(record.file);
+                if (record.type == LIVE && location != null && location.segment == segment && location.offset == record.offset) {
+                    ByteBuffer content = ByteBuffer.allocate((int) location.length);
+                    readFully(segment, content, location.offset);
+                    content.flip();
+                    add(record.file, content, location.checksums);
+                } else if (record.type == REMOVED && !oldest && location == null) {
+                    append(openSegment(), header(REMOVED, record.file, null), ByteBuffer.allocate(0));
+                }
+            }
+            segments.values().remove(segment);
+            segment.close();
+            dropped.add(segment.name);
+        }
+        // The copies must be on disk before the caller deletes the segments they came from
+        if (!dropped.isEmpty()) {
+            for (Segment segment: segments.values()) {
+                segment.channel.force(false);
+            }
+        }
+        return dropped;
+    }
+
+    public synchronized void close() throws IOException {
+        for (Segment segment: segments.values()) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long size = 0;
+        long live = 0;
+        for (Segment segment: segments.values()) {
+            size += segment.size;
+            live += segment.live;
+        }
+        return "Packed versions: " + index.size() + " in " + segments.size() + " segments, " + live + " of " + size + " bytes live";
+    }
+
+    // Segment to append to, starting a new one once it is full
+    private Segment openSegment() throws IOException {
+        if (segments.isEmpty() || segments.lastEntry().getValue().size >= segmentSize) {
+            int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            segments.put(number, new Segment(PREFIX + number));
+        }
+        return segments.lastEntry().getValue();
+    }
+
+    // Record header: its length, the record type, the version name and, for a live record, its checksums
+    private static byte[] header(byte type, String file, ChunkChecksums checksums) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(type);
+        output.writeUTF(file);
+        if (checksums != null) {
+            checksums.write(output);
+        }
+        ByteBuffer header = ByteBuffer.allocate(4 + bytes.size());
+        header.putInt(bytes.size()).put(bytes.toByteArray());
+        return header.array();
+    }
+
+    // Append a record to the end of segment. Returns the offset of its content
+    private long append(Segment segment, byte[] header, ByteBuffer content) throws IOException {
+        long position = segment.size;
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        try {
+            while (buffer.hasRemaining()) {
+                position += segment.channel.write(buffer, position);
+            }
+            long offset = position;
+            while (content.hasRemaining()) {
+                position += segment.channel.write(content, position);
+            }
+            segment.size = position;
+            return offset;
+        } catch (IOException e) {
+            // Leave no partial record for later appends to follow
+            segment.channel.truncate(segment.size);
+            throw e;
+        }
+    }
+
+    // Add the records of segment to the index, truncating it after the last whole record
+    private void scan(Segment segment) throws IOException {
+        List<Record> records = records(segment);
+        for (Record record: records) {
+            Location replaced;
+            if (record.type == LIVE) {
+                segment.live += record.checksums.getLength();
+                replaced = index.put(record.file, new Location(segment, record.offset, record.checksums));
+            } else {
+                replaced = index.remove(record.file);
+            }
+            if (replaced != null) {
+                replaced.segment.live -= replaced.length;
+            }
+        }
+        if (segment.size < segment.channel.size()) {
+            System.out.println("Dropping " + (segment.channel.size() - segment.size) + " bytes cut short at the end of " + segment.name);
+            segment.channel.truncate(segment.size);
+        }
+    }
+
+    // Records of segment in order. Sets the segment's size to the end of its last whole record
+    private List<Record> records(Segment segment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long length = segment.channel.size();
+        long position = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(directory + segment.name)))) {
+            while (position < length) {
+                int headerLength = input.readInt();
+                if (headerLength <= 0 || position + 4 + headerLength > length) {
+                    break;
+                }
+                byte[] header = new byte[headerLength];
+                input.readFully(header);
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(header));
+                Record record = new Record(fields.readByte(), fields.readUTF(), position + 4 + headerLength);
+                if (record.type == LIVE) {
+                    record.checksums = ChunkChecksums.read(fields);
+                }
+                long contentLength = record.checksums == null ? 0 : record.checksums.getLength();
+                if (record.offset + contentLength > length) {
+                    break;
+                }
+                for (long skipped = 0; skipped < contentLength; ) {
+                    skipped += input.skip(contentLength - skipped);
+                }
+                records.add(record);
+                position = record.offset + contentLength;
+            }
+        } catch (EOFException e) {
+            // Last record cut short
+        }
+        segment.size = position;
+        return records;
+    }
+
+    private static void readFully(Segment segment, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (segment.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException(segment.name + " ended while reading a record");
+            }
+        }
+    }
+
+    private class Segment {
+        private final String name;
+        private final FileChannel channel;
+        // Bytes of whole records, and of the versions in them that are still stored
+        private long size;
+        private long live;
+
+        private Segment(String name) throws IOException {
+            this.name = name;
+            channel = FileChannel.open(Paths.get(directory + name), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final long length;
+        private final ChunkChecksums checksums;
+
+        private Location(Segment segment, long offset, ChunkChecksums checksums) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = checksums.getLength();
+            this.checksums = checksums;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final String file;
+        private final long offset;
+        private ChunkChecksums checksums;
+
+        private Record(byte type, String file, long offset) {
+            this.type = type;
+            this.file = file;
+            this.offset = offset;
+        }
+    }
+}
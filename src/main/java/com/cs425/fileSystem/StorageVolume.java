@@ -0,0 +1,200 @@
+package com.cs425.fileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One storage directory of a file server, normally on a disk of its own. A version is stored wholly on one
+ * volume, and each volume has its own manifest, segments, group commit and threads for background disk work,
+ * so the disks of a node work in parallel and a failed disk loses only the versions on it.
+ */
+public class StorageVolume {
+    // Written and forced to check that the disk still takes writes
+    private static final String PROBE_FILE = "PROBE";
+
+    private final String directory;
+    private final StoreManifest manifest;
+    private final SegmentStore segments;
+    private final GroupCommit commits;
+    private final ExecutorService io;
+
+    // Data files no longer used by the version that wrote them, with the time they were dropped
+    private final Map<String, Long> garbage = new ConcurrentHashMap<>();
+    // Versions being written to the volume, the depth of its queue of writes
+    private final AtomicInteger writes = new AtomicInteger();
+    private final AtomicBoolean maintaining = new AtomicBoolean();
+    private volatile IOException failure;
+
+    // Volume storing versions in directory, with ioThreads threads for its background work
+    public StorageVolume(String directory, long segmentSize, int compactLivePercent, GroupCommit.Mode durability, int ioThreads) {
+        this.directory = directory;
+        manifest = new StoreManifest(directory);
+        segments = new SegmentStore(directory, segmentSize, compactLivePercent);
+        commits = new GroupCommit(durability, directory, manifest);
+        io = Executors.newFixedThreadPool(ioThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "volume-io-" + count.incrementAndGet() + " " + directory);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public StoreManifest getManifest() {
+        return manifest;
+    }
+
+    public SegmentStore getSegments() {
+        return segments;
+    }
+
+    public GroupCommit getCommits() {
+        return commits;
+    }
+
+    // Run task on one of the volume's threads, unless the volume has failed
+    public void execute(Runnable task) {
+        if (isFailed()) {
+            return;
+        }
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Failed or closed since
+        }
+    }
+
+    // Run a maintenance pass on one of the volume's threads, unless the last one is still running
+    public void maintain(Runnable pass) {
+        if (!maintaining.compareAndSet(false, true)) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pass.run();
+                } finally {
+                    maintaining.set(false);
+                }
+            }
+        });
+    }
+
+    // Count a version being written to the volume until endWrite
+    public void beginWrite() {
+        writes.incrementAndGet();
+    }
+
+    public void endWrite() {
+        writes.decrementAndGet();
+    }
+
+    public int getWrites() {
+        return writes.get();
+    }
+
+    public long getFreeSpace() {
+        return new File(directory).getUsableSpace();
+    }
+
+    public Map<String, Long> getGarbage() {
+        return garbage;
+    }
+
+    public void markGarbage(Set<String> dataFiles) {
+        for (String dataFile: dataFiles) {
+            // Segments are only dropped by compaction, however few of their versions are left
+            if (!dataFile.startsWith(SegmentStore.PREFIX)) {
+                garbage.put(dataFile, System.currentTimeMillis());
+            }
+        }
+    }
+
+    // Take the volume out of use after cause. Returns false if it had already failed
+    public synchronized boolean fail(IOException cause) {
+        if (failure != null) {
+            return false;
+        }
+        failure = cause;
+        io.shutdownNow();
+        commits.close();
+        return true;
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    // Write, force and remove a small file, failing the volume if the disk no longer takes writes
+    // Returns false if the volume has failed
+    public boolean probe() {
+        if (isFailed()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(directory + PROBE_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Long.toString(System.currentTimeMillis()).getBytes());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+        new File(directory + PROBE_FILE).delete();
+        return true;
+    }
+
+    public void close() {
+        io.shutdownNow();
+        commits.close();
+        try {
+            manifest.close();
+            segments.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Forget garbage that was dropped from the volume before cutoff. Returns the data files forgotten
+    public Set<String> expireGarbage(long cutoff, Set<String> expired) {
+        for (Iterator<Map.Entry<String, Long>> iterator = garbage.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() <= cutoff) {
+                expired.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public String toString() {
+        if (isFailed()) {
+            return "Volume " + directory + ": failed, " + failure;
+        }
+        return "Volume " + directory + ": " + getFreeSpace() + " bytes free, " + writes.get() + " writes in progress\n" + segments + "\n" + commits;
+    }
+}
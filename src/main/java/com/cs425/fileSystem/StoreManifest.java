@@ -0,0 +1,169 @@
+package com.cs425.fileSystem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * Persistent record of the versions stored on a node, so a restarted file server keeps its replicas.
+ * Kept as a log in the storage directory with one line per change: '+' and the version when it is stored,
+ * '-' and the version when it is removed, '!' and the version when its file is deleted from SDFS. Only the latest
+ * deleted version of each file is kept, so a new coordinator never hands out its name again.
+ * The log is replayed and compacted when the file server starts.
+ * The name cannot clash with a stored version, which always has a version number after its delimiter.
+ */
+public class StoreManifest {
+    public static final String FILE_NAME = "MANIFEST";
+
+    private final String directory;
+    private FileChannel log;
+    // Latest deleted version of each SDFS file, by file name
+    private final Map<String, MutablePair<String, Integer>> deleted = new HashMap<>();
+
+    public StoreManifest(String directory) {
+        this.directory = directory;
+    }
+
+    // Replay the log and return the versions it records as stored
+    // A line cut short by a crash names no version, so it is dropped when the caller validates the result
+    public synchronized Set<String> load() throws IOException {
+        Set<String> stored = new LinkedHashSet<>();
+        File file = new File(directory + FILE_NAME);
+        if (!file.exists()) {
+            return stored;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 2) {
+                    continue;
+                }
+                if (line.charAt(0) == '+') {
+                    stored.add(line.substring(1));
+                } else if (line.charAt(0) == '-') {
+                    stored.remove(line.substring(1));
+                } else if (line.charAt(0) == '!') {
+                    recordDeleted(line.substring(1));
+                }
+            }
+        }
+        return stored;
+    }
+
+    // Replace the log with one that records exactly stored, then keep appending to it
+    public synchronized void rewrite(Set<String> stored) throws IOException {
+        close();
+        File temp = new File(directory + FILE_NAME + ".tmp");
+        try (PrintWriter writer = new PrintWriter(temp, StandardCharsets.UTF_8)) {
+            for (String file: stored) {
+                writer.print('+' + file + '\n');
+            }
+            for (MutablePair<String, Integer> version: deleted.values()) {
+                writer.print('!' + version.getLeft() + '\n');
+            }
+        }
+        Files.move(temp.toPath(), Paths.get(directory + FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(Paths.get(directory + FILE_NAME), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // Record that file is stored. Its data must already be in place
+    public void add(String file) {
+        append('+' + file + '\n');
+    }
+
+    // Record that each of files is stored, forcing the records to disk together
+    public void addAll(Collection<String> files) {
+        StringBuilder records = new StringBuilder();
+        for (String file: files) {
+            records.append('+').append(file).append('\n');
+        }
+        append(records.toString());
+    }
+
+    // Record that file is no longer stored
+    public void remove(String file) {
+        append('-' + file + '\n');
+    }
+
+    // Record that each of files is no longer stored, forcing the records to disk together
+    public void removeAll(Collection<String> files) {
+        StringBuilder records = new StringBuilder();
+        for (String file: files) {
+            records.append('-').append(file).append('\n');
+        }
+        append(records.toString());
+    }
+
+    // Record that version's file was deleted from SDFS, if no later version of it is recorded as deleted
+    public void addDeleted(String version) {
+        if (recordDeleted(version)) {
+            append('!' + version + '\n');
+        }
+    }
+
+    // Latest deleted version of each file recorded as deleted
+    public synchronized Set<String> getDeleted() {
+        Set<String> versions = new HashSet<>();
+        for (MutablePair<String, Integer> version: deleted.values()) {
+            versions.add(version.getLeft());
+        }
+        return versions;
+    }
+
+    // Keep version as its file's latest deleted version if it is later than the one kept. Returns false if not
+    private synchronized boolean recordDeleted(String version) {
+        MutablePair<String, Integer> pair;
+        try {
+            pair = Coordinator.deconstructFileWithDelimiter(version);
+        } catch (RuntimeException e) {
+            // Cut short by a crash
+            return false;
+        }
+        MutablePair<String, Integer> latest = deleted.get(pair.getLeft());
+        if (latest != null && latest.getRight() >= pair.getRight()) {
+            return false;
+        }
+        deleted.put(pair.getLeft(), MutablePair.of(version, pair.getRight()));
+        return true;
+    }
+
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    // Append a record and force it to disk, so a version acknowledged as stored survives a crash
+    private synchronized void append(String record) {
+        if (log == null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.cs425.fileSystem;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-disk layout of a stored version: a list of extents, each a byte range of a data file in the storage directory.
+ * A version written by put is one extent covering its own file. An appended version keeps the extents of the
+ * version it extends, so the old bytes are shared, and adds one extent for the appended bytes. A delta-encoded
+ * version mixes ranges of its predecessor's extents with extents of its own literal bytes.
+ * Data files are never modified once referenced, a version changes layout by replacing its manifest.
+ */
+public class StoredVersion {
+    public static final String SUFFIX = ".extents";
+
+    private final String directory;
+    private final List<Extent> extents;
+
+    private StoredVersion(String directory, List<Extent> extents) {
+        this.directory = directory;
+        this.extents = extents;
+    }
+
+    // Empty layout, to be filled with addExtent and addRange
+    public static StoredVersion empty(String directory) {
+        return new StoredVersion(directory, new ArrayList<>());
+    }
+
+    // Load the layout of file stored in directory, or null if it is not stored
+    // Versions without an extent manifest are a plain file
+    public static StoredVersion load(String directory, String file) throws IOException {
+        File manifest = new File(directory + file + SUFFIX);
+        if (manifest.exists()) {
+            try (DataInputStream input = new DataInputStream(new FileInputStream(manifest))) {
+                int count = input.readInt();
+                List<Extent> extents = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    extents.add(new Extent(input.readUTF(), input.readLong(), input.readLong()));
+                }
+                return new StoredVersion(directory, extents);
+            }
+        }
+
+        File data = new File(directory + file);
+        if (!data.exists()) {
+            return null;
+        }
+        List<Extent> extents = new ArrayList<>();
+        extents.add(new Extent(file, 0, data.length()));
+        return new StoredVersion(directory, extents);
+    }
+
+    // Save layout as the extent manifest of file
+    // The manifest is replaced atomically, so concurrent readers see either the old or the new layout
+    public void save(String file) throws IOException {
+        File temp = new File(directory + file + SUFFIX + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(temp))) {
+            output.writeInt(extents.size());
+            for (Extent extent: extents) {
+                output.writeUTF(extent.dataFile);
+                output.writeLong(extent.offset);
+                output.writeLong(extent.length);
+            }
+        }
+        Files.move(temp.toPath(), Paths.get(directory + file + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Layout of this version followed by the first length bytes of dataFile
+    public StoredVersion append(String dataFile, long length) {
+        StoredVersion appended = new StoredVersion(directory, new ArrayList<>(extents));
+        appended.addExtent(dataFile, 0, length);
+        return appended;
+    }
+
+    // Add length bytes of dataFile starting at offset to the end of this layout
+    public void addExtent(String dataFile, long offset, long length) {
+        if (length <= 0) {
+            return;
+        }
+
+        // Merge with the last extent if the bytes follow on in the same data file
+        if (!extents.isEmpty()) {
+            Extent last = extents.get(extents.size() - 1);
+            if (last.dataFile.equals(dataFile) && last.offset + last.length == offset) {
+                extents.set(extents.size() - 1, new Extent(dataFile, last.offset, last.length + length));
+                return;
+            }
+        }
+        extents.add(new Extent(dataFile, offset, length));
+    }
+
+    // Add length bytes of source starting at offset to the end of this layout, sharing source's data files
+    public void addRange(StoredVersion source, long offset, long length) {
+        long start = 0;
+        for (Extent extent: source.extents) {
+            long end = start + extent.length;
+            if (offset < end && length > 0) {
+                long within = offset - start;
+                long n = Math.min(extent.length - within, length);
+                addExtent(extent.dataFile, extent.offset + within, n);
+                offset += n;
+                length -= n;
+            }
+            start = end;
+        }
+    }
+
+    public int getExtentCount() {
+        return extents.size();
+    }
+
+    // Data files this layout reads from
+    public Set<String> getDataFiles() {
+        Set<String> dataFiles = new HashSet<>();
+        for (Extent extent: extents) {
+            dataFiles.add(extent.dataFile);
+        }
+        return dataFiles;
+    }
+
+    // Whether every data file this layout reads from is on disk and long enough for its extents
+    public boolean isComplete() {
+        for (Extent extent: extents) {
+            if (new File(directory + extent.dataFile).length() < extent.offset + extent.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getLength() {
+        long length = 0;
+        for (Extent extent: extents) {
+            length += extent.length;
+        }
+        return length;
+    }
+
+    // Send count bytes starting at position to socket, one extent at a time. Returns bytes sent
+    public long send(Socket socket, long position, long count) throws IOException {
+        long sent = 0;
+        long start = 0;
+        for (Extent extent: extents) {
+            long end = start + extent.length;
+            if (position + sent < end && sent < count) {
+                long within = position + sent - start;
+                long n = Math.min(extent.length - within, count - sent);
+                try (FileChannel input = open(extent)) {
+                    long extentSent = FileTransfer.sendFile(socket, input, extent.offset + within, n);
+                    sent += extentSent;
+                    if (extentSent < n) {
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return sent;
+    }
+
+    // Copy count bytes starting at position into file at filePosition. Returns bytes copied
+    public long copyTo(FileChannel file, long filePosition, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) FileTransfer.CHUNK_SIZE);
+        long copied = 0;
+        while (copied < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+            int n = read(buffer, position + copied);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                filePosition += file.write(buffer, filePosition);
+            }
+            copied += n;
+        }
+        return copied;
+    }
+
+    // Read bytes at position into buffer, stopping at the end of an extent. Returns -1 at end of version
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        long start = 0;
+        for (Extent extent: extents) {
+            if (position < start + extent.length) {
+                long within = position - start;
+                int limit = buffer.limit();
+                buffer.limit((int) Math.min(limit, buffer.position() + extent.length - within));
+                try (FileChannel input = open(extent)) {
+                    int n = input.read(buffer, extent.offset + within);
+                    if (n < 0) {
+                        throw new IOException("Data file " + extent.dataFile + " is shorter than its extent");
+                    }
+                    return n;
+                } finally {
+                    buffer.limit(limit);
+                }
+            }
+            start += extent.length;
+        }
+        return -1;
+    }
+
+    private FileChannel open(Extent extent) throws IOException {
+        return FileChannel.open(Paths.get(directory + extent.dataFile), StandardOpenOption.READ);
+    }
+
+    private static class Extent {
+        private final String dataFile;
+        private final long offset;
+        private final long length;
+
+        private Extent(String dataFile, long offset, long length) {
+            this.dataFile = dataFile;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
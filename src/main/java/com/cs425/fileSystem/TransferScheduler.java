@@ -0,0 +1,202 @@
+package com.cs425.fileSystem;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a node's bandwidth between foreground transfers, which serve clients, and background transfers,
+ * which repair replication. Each class has a cap on concurrent transfers and a token bucket limiting its rate.
+ * The background rate follows the bandwidth foreground transfers leave spare, down to a floor so repair always
+ * makes progress. A handler thread joins a class with begin, and the data loops in FileTransfer and Compression
+ * then charge every chunk they move to it. Threads outside a transfer are not throttled.
+ * Only the outermost transfer takes a slot. A node serving part of another node's background transfer joins the
+ * background class without one, since that transfer already holds a slot and two nodes repairing from each other
+ * would otherwise wait on each other's slots forever.
+ */
+public class TransferScheduler {
+    public enum Priority {
+        FOREGROUND,
+        BACKGROUND
+    }
+
+    // Most bytes a bucket saves up while idle, in seconds of its rate
+    private static final double BURST_SECONDS = 0.1;
+    // How often the foreground rate is measured to set the background rate
+    private static final long MEASURE_PERIOD_NANOS = 200_000_000L;
+
+    private static final ThreadLocal<Transfer> current = new ThreadLocal<>();
+
+    private final long bandwidth;
+    private final long backgroundMaxRate;
+    private final long backgroundMinRate;
+    private final int maxForeground;
+    private final int maxBackground;
+
+    private final Semaphore foregroundSlots;
+    private final Semaphore backgroundSlots;
+    private final TokenBucket foreground;
+    private final TokenBucket background;
+
+    // Foreground bytes moved since measureStart, and the rate measured over the last period
+    private final AtomicLong foregroundBytes = new AtomicLong();
+    private long measureStart = System.nanoTime();
+    private double foregroundRate;
+
+    // Rates are in bytes per second, 0 means unlimited. bandwidth is what the node's link can carry
+    public TransferScheduler(long bandwidth, long foregroundRate, long backgroundMaxRate, long backgroundMinRate, int maxForeground, int maxBackground) {
+        this.bandwidth = bandwidth;
+        this.backgroundMaxRate = backgroundMaxRate;
+        this.backgroundMinRate = backgroundMinRate;
+        this.maxForeground = maxForeground;
+        this.maxBackground = maxBackground;
+        foregroundSlots = new Semaphore(maxForeground, true);
+        backgroundSlots = new Semaphore(maxBackground, true);
+        foreground = new TokenBucket(foregroundRate);
+        background = new TokenBucket(backgroundRate(0));
+    }
+
+    // Wait for a transfer slot of priority and charge the data the calling thread moves to it until the transfer is closed
+    public Transfer begin(Priority priority) {
+        Transfer transfer = new Transfer(priority, true);
+        (priority == Priority.FOREGROUND ? foregroundSlots : backgroundSlots).acquireUninterruptibly();
+        current.set(transfer);
+        return transfer;
+    }
+
+    // Charge the data the calling thread moves to priority until the transfer is closed, without taking a slot
+    // For serving a request made by a transfer that holds a slot on the requesting node
+    public Transfer join(Priority priority) {
+        Transfer transfer = new Transfer(priority, false);
+        current.set(transfer);
+        return transfer;
+    }
+
+    // Priority of the transfer the calling thread is in, foreground if none
+    public static Priority currentPriority() {
+        Transfer transfer = current.get();
+        return transfer == null ? Priority.FOREGROUND : transfer.priority;
+    }
+
+    // Charge count bytes just moved by the calling thread to its transfer, waiting until its class may move them
+    static void throttle(long count) {
+        Transfer transfer = current.get();
+        if (transfer == null || count <= 0) {
+            return;
+        }
+        long wait = transfer.scheduler().charge(transfer.priority, count);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Foreground transfers: " + (maxForeground - foregroundSlots.availablePermits()) + " of " + maxForeground + ", measured " + (long) foregroundRate + " bytes/s\n"
+                + "Background transfers: " + (maxBackground - backgroundSlots.availablePermits()) + " of " + maxBackground + ", allowed " + (long) background.getRate() + " bytes/s";
+    }
+
+    // Nanoseconds to wait before the calling thread may move more data
+    private long charge(Priority priority, long count) {
+        if (priority == Priority.FOREGROUND) {
+            foregroundBytes.addAndGet(count);
+            return foreground.take(count);
+        }
+        measure();
+        return background.take(count);
+    }
+
+    // Recompute the background rate from the foreground rate once per period
+    private synchronized void measure() {
+        long now = System.nanoTime();
+        long elapsed = now - measureStart;
+        if (elapsed < MEASURE_PERIOD_NANOS) {
+            return;
+        }
+        // Smooth the measurement so a short pause in client traffic does not let repair flood the link
+        double measured = foregroundBytes.getAndSet(0) * 1e9 / elapsed;
+        foregroundRate = (foregroundRate + measured) / 2;
+        measureStart = now;
+        background.setRate(backgroundRate(foregroundRate));
+    }
+
+    // Rate left for background transfers while foreground transfers move foregroundRate bytes per second
+    private double backgroundRate(double foregroundRate) {
+        if (bandwidth <= 0) {
+            return backgroundMaxRate;
+        }
+        double spare = Math.max(backgroundMinRate, bandwidth - foregroundRate);
+        return backgroundMaxRate > 0 ? Math.min(backgroundMaxRate, spare) : spare;
+    }
+
+    /**
+     * A transfer in progress on the thread that began it. Closing it frees its slot.
+     */
+    public class Transfer implements AutoCloseable {
+        private final Priority priority;
+        // Whether the transfer took a slot when it began
+        private final boolean slot;
+
+        private Transfer(Priority priority, boolean slot) {
+            this.priority = priority;
+            this.slot = slot;
+        }
+
+        private TransferScheduler scheduler() {
+            return TransferScheduler.this;
+        }
+
+        @Override
+        public void close() {
+            current.remove();
+            if (slot) {
+                (priority == Priority.FOREGROUND ? foregroundSlots : backgroundSlots).release();
+            }
+        }
+    }
+
+    /**
+     * Token bucket that lets callers go into debt, each waiting until its own debt is paid off,
+     * so concurrent transfers of a class share its rate in the order they asked.
+     */
+    private static class TokenBucket {
+        // Bytes per second, 0 for unlimited
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private TokenBucket(double rate) {
+            this.rate = rate;
+        }
+
+        // Take count tokens. Returns nanoseconds to wait before the tokens are really there
+        private synchronized long take(long count) {
+            if (rate <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+
+        private synchronized void setRate(double rate) {
+            refill();
+            this.rate = rate;
+        }
+
+        private synchronized double getRate() {
+            return rate;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(rate * BURST_SECONDS, tokens + (now - lastRefill) * rate / 1e9);
+            }
+            lastRefill = now;
+        }
+    }
+}
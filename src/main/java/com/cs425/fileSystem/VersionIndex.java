@@ -0,0 +1,132 @@
+package com.cs425.fileSystem;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+/**
+ * Versions and shards a file server stores, by SDFS file name and version number, so the versions of one file
+ * are found without looking through everything stored. A shard is indexed under the version it is part of.
+ * Lookups take no locks, changes are made one at a time.
+ */
+public class VersionIndex {
+    // Names stored for each version of each SDFS file: the version itself, shards of it, or both
+    private final Map<String, ConcurrentSkipListMap<Integer, Set<String>>> index = new ConcurrentHashMap<>();
+    private final AtomicInteger versionCount = new AtomicInteger();
+    private final AtomicInteger shardCount = new AtomicInteger();
+
+    // SDFS file name and version number a version or shard is indexed under
+    private static MutablePair<String, Integer> keyOf(String name) {
+        return Coordinator.deconstructFileWithDelimiter(CodedVersion.isShard(name) ? CodedVersion.versionOf(name) : name);
+    }
+
+    // Names stored for the version name is, or is a shard of, or null if there are none
+    private Set<String> namesAt(String name) {
+        MutablePair<String, Integer> key = keyOf(name);
+        ConcurrentSkipListMap<Integer, Set<String>> versions = index.get(key.getLeft());
+        return versions == null ? null : versions.get(key.getRight());
+    }
+
+    // Record name as stored. Returns false if it already was
+    public synchronized boolean add(String name) {
+        MutablePair<String, Integer> key = keyOf(name);
+        index.putIfAbsent(key.getLeft(), new ConcurrentSkipListMap<>());
+        ConcurrentSkipListMap<Integer, Set<String>> versions = index.get(key.getLeft());
+        versions.putIfAbsent(key.getRight(), ConcurrentHashMap.newKeySet());
+        if (!versions.get(key.getRight()).add(name)) {
+            return false;
+        }
+        (CodedVersion.isShard(name) ? shardCount : versionCount).incrementAndGet();
+        return true;
+    }
+
+    // Record name as no longer stored. Returns false if it was not
+    public synchronized boolean remove(String name) {
+        MutablePair<String, Integer> key = keyOf(name);
+        ConcurrentSkipListMap<Integer, Set<String>> versions = index.get(key.getLeft());
+        Set<String> names = versions == null ? null : versions.get(key.getRight());
+        if (names == null || !names.remove(name)) {
+            return false;
+        }
+        if (names.isEmpty()) {
+            versions.remove(key.getRight());
+            if (versions.isEmpty()) {
+                index.remove(key.getLeft());
+            }
+        }
+        (CodedVersion.isShard(name) ? shardCount : versionCount).decrementAndGet();
+        return true;
+    }
+
+    // Whether name, a version or a shard, is stored
+    public boolean contains(String name) {
+        Set<String> names = namesAt(name);
+        return names != null && names.contains(name);
+    }
+
+    // Whether the whole version is stored
+    public boolean containsVersion(String version) {
+        return !CodedVersion.isShard(version) && contains(version);
+    }
+
+    // Whether the shard is stored
+    public boolean containsShard(String shard) {
+        return CodedVersion.isShard(shard) && contains(shard);
+    }
+
+    // The version, if stored whole, and the shards of it stored
+    public List<String> namesOf(String version) {
+        Set<String> names = namesAt(version);
+        return names == null ? new ArrayList<>() : new ArrayList<>(names);
+    }
+
+    // Shards of version stored
+    public List<String> shardsOf(String version) {
+        List<String> shards = namesOf(version);
+        shards.remove(version);
+        return shards;
+    }
+
+    // Latest version of the same SDFS file as version that is older than it and stored whole, or null if there is none
+    public String latestBefore(String version) {
+        MutablePair<String, Integer> key = keyOf(version);
+        ConcurrentSkipListMap<Integer, Set<String>> versions = index.get(key.getLeft());
+        if (versions == null) {
+            return null;
+        }
+        for (Map.Entry<Integer, Set<String>> entry: versions.headMap(key.getRight()).descendingMap().entrySet()) {
+            for (String name: entry.getValue()) {
+                if (!CodedVersion.isShard(name)) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Every version and shard stored
+    public Set<String> names() {
+        Set<String> names = new HashSet<>();
+        for (ConcurrentSkipListMap<Integer, Set<String>> versions: index.values()) {
+            for (Set<String> versionNames: versions.values()) {
+                names.addAll(versionNames);
+            }
+        }
+        return names;
+    }
+
+    public int getVersionCount() {
+        return versionCount.get();
+    }
+
+    public int getShardCount() {
+        return shardCount.get();
+    }
+}
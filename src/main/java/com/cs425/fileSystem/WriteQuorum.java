@@ -0,0 +1,101 @@
+package com.cs425.fileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * Completes a write to several replicas once a quorum of them has stored it. Each replica's transfer adds one result
+ * to a queue. The replicas that stored the version are reported as soon as the quorum is reached, or all transfers
+ * finish. The rest are reported in the background as they complete, and replicas whose transfer failed are retried
+ * from those that stored it. The last report is marked complete, so the Coordinator knows no more will follow.
+ */
+public class WriteQuorum {
+    // Where a write reports its replicas, the Coordinator for a put or append
+    public interface Listener {
+        // Replicas that stored the version since the last report, complete on the last report of the write
+        void stored(List<MemberListEntry> nodes, boolean complete);
+
+        // No replica stored the version before the write gave up waiting
+        void failed();
+
+        // Have node fetch the version from holders after its transfer failed. Returns true once node stores it
+        boolean retry(MemberListEntry node, List<MemberListEntry> holders);
+    }
+
+    // Wait until quorum of the count outstanding transfers of a write have stored the version, or all have finished,
+    // and report the stored replicas to listener. The rest are reported in the background as they complete
+    // Returns the number of replicas that stored the version before returning, 0 if the write failed
+    public static int complete(BlockingQueue<MutablePair<MemberListEntry, Boolean>> results, int count, int quorum, Listener listener) {
+        List<MemberListEntry> successes = new ArrayList<>();
+        List<MemberListEntry> failures = new ArrayList<>();
+        int finished = 0;
+        try {
+            while (finished < count && successes.size() < quorum) {
+                MutablePair<MemberListEntry, Boolean> result = results.take();
+                finished++;
+                if (result.getRight()) {
+                    successes.add(result.getLeft());
+                } else {
+                    failures.add(result.getLeft());
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        if (successes.isEmpty()) {
+            listener.failed();
+            return 0;
+        }
+
+        boolean complete = finished == count && failures.isEmpty();
+        listener.stored(new ArrayList<>(successes), complete);
+        // Report the remaining replicas once their transfers complete, and retry the failed ones
+        if (!complete) {
+            completeInBackground(results, count - finished, successes, failures, listener);
+        }
+        return successes.size();
+    }
+
+    // Wait for the remaining outstanding transfers of a write, then report the extra replicas
+    // Servers whose transfer failed but are still up fetch the version from the replicas that stored it,
+    // resuming after the bytes they received and verified before the failure
+    private static void completeInBackground(BlockingQueue<MutablePair<MemberListEntry, Boolean>> results, int outstanding, List<MemberListEntry> successes, List<MemberListEntry> failures, Listener listener) {
+        Thread completionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<MemberListEntry> lateSuccesses = new ArrayList<>();
+                try {
+                    for (int i = 0; i < outstanding; i++) {
+                        MutablePair<MemberListEntry, Boolean> result = results.take();
+                        if (result.getRight()) {
+                            lateSuccesses.add(result.getLeft());
+                        } else {
+                            failures.add(result.getLeft());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                List<MemberListEntry> holders = new ArrayList<>(successes);
+                holders.addAll(lateSuccesses);
+                for (MemberListEntry node: failures) {
+                    if (listener.retry(node, holders)) {
+                        lateSuccesses.add(node);
+                    }
+                }
+
+                // Sent even with no more replicas, so the Coordinator knows the write is over
+                listener.stored(lateSuccesses, true);
+            }
+        });
+        completionThread.setDaemon(true);
+        completionThread.start();
+    }
+}
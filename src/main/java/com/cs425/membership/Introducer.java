@@ -2,6 +2,8 @@ package com.cs425.membership;
 
 import com.cs425.Messages.MembershipMessage;
 import com.cs425.Messages.MembershipMessage.MessageType;
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
 import com.cs425.membership.MembershipList.MemberListEntry;
 
 import java.io.IOException;
@@ -67,8 +69,8 @@ public class Introducer {
                     Socket request = server.accept();
                     logger.info("Connection established on port " + request.getLocalPort() + " with " + request.toString());
                     // Create resources
-                    ObjectOutputStream output = new ObjectOutputStream(request.getOutputStream());
-                    ObjectInputStream input = new ObjectInputStream(request.getInputStream());
+                    ObjectOutputStream output = new MessageOutputStream(request.getOutputStream());
+                    ObjectInputStream input = new MessageInputStream(request.getInputStream());
                     logger.info("IO Streams created");
 
                     MemberListEntry newEntry;
@@ -87,8 +89,8 @@ public class Introducer {
                             Socket tryConnection = new Socket(groupMember.getHostname(), groupMember.getPort());
                             logger.info("Found living process: " + groupMember.getHostname() + ":" + groupMember.getPort());
 
-                            ObjectOutputStream tryConnectionOutput = new ObjectOutputStream(tryConnection.getOutputStream());
-                            ObjectInputStream tryConnectionInput = new ObjectInputStream(tryConnection.getInputStream());
+                            ObjectOutputStream tryConnectionOutput = new MessageOutputStream(tryConnection.getOutputStream());
+                            ObjectInputStream tryConnectionInput = new MessageInputStream(tryConnection.getInputStream());
 
                             MembershipMessage checkAlive = new MembershipMessage(MessageType.IntroducerCheckAlive, null);
 
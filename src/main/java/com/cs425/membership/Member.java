@@ -2,9 +2,12 @@ package com.cs425.membership;
 
 import com.cs425.Messages.FileMessage;
 import com.cs425.Messages.MembershipMessage;
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
 import com.cs425.Messages.MembershipMessage.MessageType;
 import com.cs425.fileSystem.Coordinator;
 import com.cs425.fileSystem.FileServer;
+import com.cs425.fileSystem.SDFSConfig;
 import com.cs425.membership.MembershipList.MemberList;
 import com.cs425.membership.MembershipList.MemberListEntry;
 
@@ -29,18 +32,34 @@ public class Member {
     // Protocol settings
     private static final long PROTOCOL_TIME = 1500;
     private static final int NUM_MONITORS = 1;
+    private static final int IO_THREADS = SDFSConfig.getInt("IO_THREADS", 2);
+    private static final int WORKER_THREADS = SDFSConfig.getInt("WORKER_THREADS", 128);
+    private static final int WORKER_QUEUE_SIZE = SDFSConfig.getInt("WORKER_QUEUE_SIZE", 1024);
+    private static final int COORDINATOR_THREADS = SDFSConfig.getInt("COORDINATOR_THREADS", 16);
+    private static final int COORDINATOR_QUEUE_SIZE = SDFSConfig.getInt("COORDINATOR_QUEUE_SIZE", 256);
+    private static final boolean VIRTUAL_THREADS = SDFSConfig.getBoolean("VIRTUAL_THREADS", true);
+    private static final int CONNECTION_BACKLOG = SDFSConfig.getInt("CONNECTION_BACKLOG", 1024);
+    // Membership messages are few and must not be lost, so their queue has no bound
+    private static final int MEMBERSHIP_THREADS = 4;
+    private static final long PEER_IDLE_TIMEOUT = SDFSConfig.getLong("PEER_IDLE_TIMEOUT", 60000);
 
     // Sockets
-    private ServerSocket server;
+    private MessageServer server;
     private DatagramSocket socket;
 
+    // Queues of TCP requests waiting for a worker, coordinator requests have their own so file transfers cannot starve them
+    private RequestQueue membershipQueue;
+    private RequestQueue coordinatorQueue;
+    private RequestQueue fileQueue;
+    // Connections kept open to other members for control messages
+    private PeerConnections peers;
+
     // Membership list and owner entry
     public volatile MemberList memberList;
     public MemberListEntry selfEntry;
 
     // Threading resources
     private Thread mainProtocolThread;
-    private Thread TCPListenerThread;
     private FileServer fileServer;
 
     private AtomicBoolean joined;
@@ -117,7 +136,19 @@ public class Member {
                             System.out.println("Not joined");
                         }
                         break;
+                    case "queues":
+                        if (joined.get()) {
+                            System.out.println(membershipQueue);
+                            System.out.println(coordinatorQueue);
+                            System.out.println(fileQueue);
+                            System.out.println(peers);
+                        } else {
+                            System.out.println("Not joined");
+                        }
+                        break;
+
                     case "store":
+                    case "cache":
                         if (!joined.get()) {
                             System.out.println("Not joined");
                             break;
@@ -132,6 +163,17 @@ public class Member {
                         }
                         fileServer.processFileCommands(input[1], input[2].replace('/','#'), input[0], 0);
                         break;
+                    case "append":
+                        if (!joined.get()) {
+                            System.out.println("Not joined");
+                            break;
+                        }
+                        if (input.length < 3) {
+                            System.out.println("Usage: append localfilename sdfsfilename");
+                            break;
+                        }
+                        fileServer.processFileCommands(input[1], input[2].replace('/','#'), input[0], 0);
+                        break;
                     case "get":
                         //TODO: verify all required inputs present
                         if (!joined.get()) {
@@ -140,6 +182,26 @@ public class Member {
                         }
                         fileServer.processFileCommands(input[2], input[1].replace('/','#'), input[0], 0);
                         break;
+                    case "get-range":
+                        if (!joined.get()) {
+                            System.out.println("Not joined");
+                            break;
+                        }
+                        long offset;
+                        long length;
+                        try {
+                            offset = input.length < 5 ? -1 : Long.parseLong(input[2]);
+                            length = input.length < 5 ? -1 : Long.parseLong(input[3]);
+                        } catch (NumberFormatException e) {
+                            offset = -1;
+                            length = -1;
+                        }
+                        if (offset < 0 || length < 0) {
+                            System.out.println("Usage: get-range sdfsfilename offset length localfilename, with a non-negative offset and length");
+                            break;
+                        }
+                        fileServer.processRangeCommand(input[4], input[1].replace('/','#'), offset, length);
+                        break;
                     case "delete":
                         //TODO: verify all required inputs present
                         if (!joined.get()) {
@@ -164,9 +226,33 @@ public class Member {
                         }
                         fileServer.processFileCommands(input[3], input[1].replace('/','#'), input[0], Integer.parseInt(input[2]));
                         break;
+                    case "mput":
+                        if (!joined.get()) {
+                            System.out.println("Not joined");
+                            break;
+                        }
+                        if (input.length < 3) {
+                            System.out.println("Usage: mput localdirectory sdfsdirectory");
+                            break;
+                        }
+                        fileServer.processBatchPut(input[1], input[2].replace('/','#'));
+                        break;
+                    case "mget":
+                        if (!joined.get()) {
+                            System.out.println("Not joined");
+                            break;
+                        }
+                        if (input.length < 3) {
+                            System.out.println("Usage: mget sdfsdirectory localdirectory");
+                            break;
+                        }
+                        fileServer.processBatchGet(input[1].replace('/','#'), input[2]);
+                        break;
                     default:
                     System.out.println("Unrecognized command, type 'join', 'leave', 'list_mem','list_self', ' put localfilename sdfsfilename', " +
-                            "' get sdfsfilename localfilename', 'delete sdfsfilename', 'ls sdfsfilename', 'store', 'get-versions sdfsfilename num-versions localfilename'");
+                            "' get sdfsfilename localfilename', 'delete sdfsfilename', 'ls sdfsfilename', 'store', 'get-versions sdfsfilename num-versions localfilename', " +
+                            "'get-range sdfsfilename offset length localfilename', 'append localfilename sdfsfilename', " +
+                            "'mput localdirectory sdfsdirectory', 'mget sdfsdirectory localdirectory', 'cache', 'queues'");
                         break;
                 }
                 logger.info("Time taken to process the command " + command + " is " + (System.currentTimeMillis() - startTime));
@@ -212,31 +298,50 @@ public class Member {
         }
 
         // Create file server
-        fileServer = new FileServer(host, port, memberList);
+        peers = new PeerConnections(memberList, PEER_IDLE_TIMEOUT);
+        fileServer = new FileServer(host, port, memberList, peers);
         logger.info("File server created");
 
-        // Create TCP server socket
-        server = new ServerSocket(port);
-
         // Start server for handling TCP messages
-        TCPListenerThread = new Thread(new Runnable() {
+        membershipQueue = new RequestQueue("Membership", MEMBERSHIP_THREADS, 0, VIRTUAL_THREADS);
+        coordinatorQueue = new RequestQueue("Coordinator", COORDINATOR_THREADS, COORDINATOR_QUEUE_SIZE, VIRTUAL_THREADS);
+        fileQueue = new RequestQueue("File server", WORKER_THREADS, WORKER_QUEUE_SIZE, VIRTUAL_THREADS);
+        server = new MessageServer(port, CONNECTION_BACKLOG, IO_THREADS, new MessageServer.Handler() {
             @Override
-            public void run() {
-                Member.this.TCPListener();
+            public RequestQueue queueFor(Object message) {
+                if (message instanceof FileMessage) {
+                    return ((FileMessage) message).getDestination() == FileMessage.Destination.Coordinator ? coordinatorQueue : fileQueue;
+                }
+                return membershipQueue;
+            }
+
+            @Override
+            public void handle(Object message, Socket client, ObjectInputStream input, ObjectOutputStream output) throws Exception {
+                Member.this.processTCPMessage(message, client, input, output);
+            }
+
+            @Override
+            public void reject(Object message, ObjectOutputStream output) throws IOException {
+                output.writeObject(new FileMessage(FileMessage.MessageType.Busy, FileMessage.Destination.Client));
+                output.flush();
             }
         });
-        TCPListenerThread.start();
         logger.info("TCP Server started");
 
         if (firstMember) {
             memberList.updateCoordinator(selfEntry);
-            coordinator = new Coordinator(memberList, end);
+            coordinator = new Coordinator(memberList, end, peers);
         }
 
         // Communicate join
         disseminateMessage(new MembershipMessage(MessageType.Join, selfEntry));
         logger.info("Process joined");
 
+        // Coordinator already knows about replicas kept by the first member, it asked on creation
+        if (!firstMember) {
+            fileServer.reportStoredVersions();
+        }
+
         // Start main protocol
         mainProtocolThread = new Thread(new Runnable() {
             @Override
@@ -255,8 +360,8 @@ public class Member {
     private MemberListEntry getGroupProcess() throws IOException, ClassNotFoundException {
         Socket introducer = new Socket(introducerHost, introducerPort);
         logger.info("Connected to " + introducer);
-        ObjectOutputStream output = new ObjectOutputStream(introducer.getOutputStream());
-        ObjectInputStream input = new ObjectInputStream(introducer.getInputStream());
+        ObjectOutputStream output = new MessageOutputStream(introducer.getOutputStream());
+        ObjectInputStream input = new MessageInputStream(introducer.getInputStream());
 
         // Send self entry to introducer
         output.writeObject(selfEntry);
@@ -280,8 +385,8 @@ public class Member {
     // Fetch membership details from a member already in group
     private MemberList requestMemberList(MemberListEntry groupProcess) throws IOException, ClassNotFoundException {
         Socket client = new Socket(groupProcess.getHostname(), groupProcess.getPort());
-        ObjectOutputStream output = new ObjectOutputStream(client.getOutputStream());
-        ObjectInputStream input = new ObjectInputStream(client.getInputStream());
+        ObjectOutputStream output = new MessageOutputStream(client.getOutputStream());
+        ObjectInputStream input = new MessageInputStream(client.getInputStream());
 
 
         // Request membership list
@@ -321,10 +426,15 @@ public class Member {
         mainProtocolThread.join();
         logger.info("Main Protocol stopped");
 
-        server.close();
-        TCPListenerThread.join();
+        server.stop();
+        membershipQueue.shutdown();
+        coordinatorQueue.shutdown();
+        fileQueue.shutdown();
+        peers.close();
         logger.info("TCP server closed");
 
+        fileServer.stop();
+
         memberList = null;
         selfEntry = null;
         coordinator = null;
@@ -343,14 +453,8 @@ public class Member {
                 }
 
                 try {
-                    // Open resources
-                    Socket groupMember = new Socket(entry.getHostname(), entry.getPort());
-                    ObjectOutputStream output = new ObjectOutputStream(groupMember.getOutputStream());
-                    ObjectInputStream input = new ObjectInputStream(groupMember.getInputStream());
-
-                    // Send message
-                    output.writeObject(message);
-                    output.flush();
+                    // Send message on the connection kept open to the member
+                    peers.send(entry, message);
 
                     switch (message.getMessageType()) {
                         case Join:
@@ -365,11 +469,6 @@ public class Member {
                         default:
                             assert(false);
                     }
-
-                    // Close resources
-                    input.close();
-                    output.close();
-                    groupMember.close();
                 } catch (IOException e) {
                     continue;
                 }
@@ -389,76 +488,28 @@ public class Member {
         }
 
         try {
-            // Open resources
-            Socket successorSocket = new Socket(successor.getHostname(), successor.getPort());
-            ObjectOutputStream output = new ObjectOutputStream(successorSocket.getOutputStream());
-            ObjectInputStream input = new ObjectInputStream(successorSocket.getInputStream());
-
-            // Send message
-            output.writeObject(message);
-            output.flush();
+            // Send message on the connection kept open to the successor
+            peers.send(successor, message);
 
             logger.info("Sent " + ObjectSize.sizeInBytes(message) + " bytes over TCP to successor");
-
-            // Close resources
-            input.close();
-            output.close();
-            successorSocket.close();
         } catch (IOException e) {
             return;
         }
     }
 
 
-    // Thread methods
-    private void TCPListener() {
-        while (!end.get()) {
-            try {
-                Socket client = server.accept();
-                logger.info("TCP connection established from " + client.toString());
-
-                // Process message in own thread to prevent race condition on membership list
-                Thread processMessageThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Member.this.processTCPMessage(client);
-                    }
-                });
-                processMessageThread.start();
-
-            } catch(SocketException e) {
-                break;
-            } catch (Exception e) {
-                continue;
-            }
-        }
-        
-    }
-
-    private void processTCPMessage(Socket client) {
-        try {
-            // Open resources
-            ObjectOutputStream output = new ObjectOutputStream(client.getOutputStream());
-            ObjectInputStream input = new ObjectInputStream(client.getInputStream());
-
-            // Recieve message
-            Object message = input.readObject();
-
-            // Process based on message type
-            if (message instanceof MembershipMessage) {
-                processMembershipMessage((MembershipMessage) message, client, input, output);
-            } else if (message instanceof FileMessage) {
-                processFileMessage((FileMessage) message, client, input, output);
-            } else {
-                assert false: "Unrecognized message type";
-            }
+    // Route a message received over TCP, called by a MessageServer worker
+    // Note: The server opens and closes the connection's resources
+    private void processTCPMessage(Object message, Socket client, ObjectInputStream input, ObjectOutputStream output) throws Exception {
+        logger.info("TCP connection established from " + client.toString());
 
-            // Close resources
-            input.close();
-            output.close();
-            client.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        // Process based on message type
+        if (message instanceof MembershipMessage) {
+            processMembershipMessage((MembershipMessage) message, client, input, output);
+        } else if (message instanceof FileMessage) {
+            processFileMessage((FileMessage) message, client, input, output);
+        } else {
+            assert false: "Unrecognized message type";
         }
     }
 
@@ -501,7 +552,7 @@ public class Member {
                     } else {
                         // If no successors exist, this process is automatically the new coordinator
                         memberList.updateCoordinator(selfEntry);
-                        coordinator = new Coordinator(memberList, end);
+                        coordinator = new Coordinator(memberList, end, peers);
                     }
                 }
                 break;
@@ -536,7 +587,7 @@ public class Member {
                     } else {
                         // If no successors exist, this process is automatically the new coordinator
                         memberList.updateCoordinator(selfEntry);
-                        coordinator = new Coordinator(memberList, end);
+                        coordinator = new Coordinator(memberList, end, peers);
                     }
                 }
                 break;
@@ -553,7 +604,7 @@ public class Member {
                 if (selfEntry.equals(message.getSubjectEntry())) {
                     // This process has been elected
                     memberList.updateCoordinator(selfEntry);
-                    coordinator = new Coordinator(memberList, end);
+                    coordinator = new Coordinator(memberList, end, peers);
     
                     sendMessageToSuccessor(new MembershipMessage(MessageType.Elected, selfEntry));
                 }
@@ -697,7 +748,7 @@ public class Member {
                         } else {
                             // If no successors exist, this process is automatically the new coordinator
                             memberList.updateCoordinator(selfEntry);
-                            coordinator = new Coordinator(memberList, end);
+                            coordinator = new Coordinator(memberList, end, peers);
                         }
                     }
                 } else {
@@ -48,6 +48,10 @@ public class MemberList implements Iterable<MemberListEntry>, Serializable {
         owner = newOwner;
     }
 
+    public synchronized MemberListEntry getOwner() {
+        return owner;
+    }
+
     public synchronized MemberListEntry getCoordinator() {
         return coordinator;
     }
@@ -0,0 +1,482 @@
+package com.cs425.membership;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
+
+/**
+ * Event-driven TCP server for the messages sent to a member.
+ * A few I/O threads accept connections and read the request of each one without blocking, so idle or slow
+ * connections cost no thread. Once a request is decoded, its connection goes back to blocking mode and is handled
+ * by the workers of the RequestQueue the handler picks for it, which may then stream file data over it as before.
+ * A request whose queue is full is rejected at once, the handler tells the client the server is busy.
+ * Requests and replies are WireCodec frames, written with MessageOutputStream and read with MessageInputStream.
+ * Requests must not be followed by data before the server replies.
+ * A connection whose request is PeerConnections.Multiplex instead stays with its I/O thread and carries framed
+ * requests from then on, each handled on its own and answered with a frame of the same request ID.
+ */
+public class MessageServer {
+    // Largest request accepted, a connection sending more is dropped
+    private static final int MAX_REQUEST_SIZE = 16 << 20;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    public interface Handler {
+        // Queue that message waits in for a worker
+        RequestQueue queueFor(Object message);
+
+        // Handle message, the first object read from client. The server closes the connection afterwards
+        // For a request on a multiplexed connection, input holds only the request, and what is written to output
+        // is the reply. client must then not be used
+        void handle(Object message, Socket client, ObjectInputStream input, ObjectOutputStream output) throws Exception;
+
+        // Reply to message, whose queue was full, that the server is busy
+        void reject(Object message, ObjectOutputStream output) throws IOException;
+    }
+
+    private final Handler handler;
+    private final ServerSocketChannel server;
+    private final IOLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public MessageServer(int port, int backlog, int ioThreads, Handler handler) throws IOException {
+        this.handler = handler;
+
+        // Backed by a channel so accepted sockets support zero-copy file transfer
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), backlog);
+        server.configureBlocking(false);
+
+        loops = new IOLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IOLoop(i == 0);
+        }
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "message-io-" + i);
+            thread.setDaemon(true);
+            loops[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    // Stop accepting connections and wait for the I/O threads to exit
+    // Requests already queued are still handled by their queues
+    public void stop() throws InterruptedException {
+        running = false;
+        for (IOLoop loop: loops) {
+            loop.selector.wakeup();
+        }
+        for (IOLoop loop: loops) {
+            loop.thread.join();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Handle a decoded request on a worker, with its connection back in blocking mode
+    private void dispatch(Connection connection) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Socket client = connection.channel.socket();
+                try {
+                    connection.input.setSource(client.getInputStream());
+                    handler.handle(connection.message, client, connection.objectInput, outputStream(client));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    close(connection.channel);
+                }
+            }
+        };
+        if (!handler.queueFor(connection.message).submit(task)) {
+            // Still in the I/O thread, but a reply this small fits in an empty socket buffer
+            try {
+                handler.reject(connection.message, outputStream(connection.channel.socket()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            close(connection.channel);
+        }
+    }
+
+    // Handle a request received on a multiplexed connection on a worker, replying with a frame unless it is one-way
+    private void dispatch(Connection connection, long id, ObjectInputStream input, Object message) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                try (ObjectOutputStream output = new MessageOutputStream(reply)) {
+                    handler.handle(message, connection.channel.socket(), input, output);
+                } catch (Exception e) {
+                    // The caller is sent an empty reply, as when the handler has nothing to say
+                    e.printStackTrace();
+                }
+                if (id != PeerConnections.ONE_WAY) {
+                    connection.reply(id, reply);
+                }
+            }
+        };
+        if (!handler.queueFor(message).submit(task)) {
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new MessageOutputStream(reply)) {
+                handler.reject(message, output);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (id != PeerConnections.ONE_WAY) {
+                connection.reply(id, reply);
+            }
+        }
+    }
+
+    // Stream for replies to client
+    private static ObjectOutputStream outputStream(Socket client) throws IOException {
+        return new MessageOutputStream(client.getOutputStream());
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * An I/O thread with its own selector. The first one also accepts connections and spreads them over all of them.
+     */
+    private class IOLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+
+        private IOLoop(boolean acceptor) throws IOException {
+            selector = Selector.open();
+            if (acceptor) {
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Connection> decoded = new ArrayList<>();
+            try {
+                while (running) {
+                    selector.select();
+                    while (running) {
+                        registerAccepted();
+                        for (Iterator<SelectionKey> iterator = selector.selectedKeys().iterator(); iterator.hasNext();) {
+                            SelectionKey key = iterator.next();
+                            iterator.remove();
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isWritable()) {
+                                connection.flushReplies();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                if (read(connection)) {
+                                    key.cancel();
+                                    decoded.add(connection);
+                                }
+                            }
+                        }
+                        if (decoded.isEmpty()) {
+                            break;
+                        }
+
+                        // Cancelled keys are only dropped by the next selection, and a channel still registered
+                        // with a selector cannot go back to blocking mode
+                        selector.selectNow();
+                        for (Connection connection: decoded) {
+                            try {
+                                connection.channel.configureBlocking(true);
+                                dispatch(connection);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                                close(connection.channel);
+                            }
+                        }
+                        decoded.clear();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                e.printStackTrace();
+            } finally {
+                // Drop connections whose request never arrived
+                for (SelectionKey key: selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        close(((Connection) key.attachment()).channel);
+                    }
+                }
+                for (SocketChannel channel; (channel = accepted.poll()) != null;) {
+                    close(channel);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Accept every pending connection, handing each to the next I/O thread in turn
+        private void accept() {
+            SocketChannel channel;
+            try {
+                while ((channel = server.accept()) != null) {
+                    IOLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                    loop.accepted.add(channel);
+                    // Also needed for this loop, so its next select returns at once to register the channel
+                    loop.selector.wakeup();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void registerAccepted() {
+            for (SocketChannel channel; (channel = accepted.poll()) != null;) {
+                try {
+                    channel.configureBlocking(false);
+                    // Replies are small objects written right after the request is read, do not hold them back
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    close(channel);
+                }
+            }
+        }
+
+        // Read what has arrived on connection. Returns true once its request is decoded
+        // A multiplexed connection is never done, its requests are dispatched as they arrive
+        private boolean read(Connection connection) {
+            try {
+                int n = connection.channel.read(connection.buffer);
+                if (n == -1) {
+                    close(connection.channel);
+                    return false;
+                }
+                if (connection.multiplexed) {
+                    readFrames(connection);
+                    return false;
+                }
+                if (n > 0 && connection.decode()) {
+                    if (!(connection.message instanceof PeerConnections.Multiplex)) {
+                        return true;
+                    }
+                    // The client waits for this empty frame before sending requests, so nothing follows the handshake yet
+                    connection.multiplexed = true;
+                    connection.buffer.clear();
+                    connection.reply(PeerConnections.ONE_WAY, new ByteArrayOutputStream());
+                    return false;
+                }
+                if (!connection.buffer.hasRemaining()) {
+                    connection.grow();
+                }
+                return false;
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                // Not a request this server understands
+                e.printStackTrace();
+                close(connection.channel);
+                return false;
+            }
+        }
+
+        // Dispatch every request fully received on multiplexed connection
+        private void readFrames(Connection connection) throws IOException, ClassNotFoundException {
+            ByteBuffer buffer = connection.buffer;
+            buffer.flip();
+            while (buffer.remaining() >= PeerConnections.FRAME_HEADER_SIZE) {
+                int length = buffer.getInt(buffer.position() + Long.BYTES);
+                if (length < 0 || length > MAX_REQUEST_SIZE) {
+                    throw new IOException("Request of " + length + " bytes");
+                }
+                if (buffer.remaining() < PeerConnections.FRAME_HEADER_SIZE + length) {
+                    break;
+                }
+                long id = buffer.getLong();
+                buffer.getInt();
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                ObjectInputStream input = new MessageInputStream(new ByteArrayInputStream(payload));
+                dispatch(connection, id, input, input.readObject());
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                connection.grow();
+            }
+        }
+    }
+
+    /**
+     * A connection whose request is being read, or a multiplexed connection.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ReplayInputStream input;
+        private ObjectInputStream objectInput;
+        private Object message;
+        private boolean multiplexed;
+        // Replies of a multiplexed connection the socket had no room for yet
+        private final Queue<ByteBuffer> replies = new ArrayDeque<>();
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Send reply to request id of a multiplexed connection, from any thread
+        // What the socket cannot take now is sent by the I/O thread once it can
+        private synchronized void reply(long id, ByteArrayOutputStream reply) {
+            replies.add(PeerConnections.frame(id, reply.toByteArray()));
+            if (replies.size() == 1) {
+                flushReplies();
+            }
+        }
+
+        private synchronized void flushReplies() {
+            try {
+                for (ByteBuffer reply; (reply = replies.peek()) != null; replies.poll()) {
+                    channel.write(reply);
+                    if (reply.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        key.selector().wakeup();
+                        return;
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException | RuntimeException e) {
+                // Closed by the client, or by the server stopping
+                replies.clear();
+                close(channel);
+            }
+        }
+
+        // Decode the request if all of its frame has arrived. Returns false if more bytes are needed
+        private boolean decode() throws IOException, ClassNotFoundException {
+            if (buffer.position() < Integer.BYTES) {
+                return false;
+            }
+            int length = buffer.getInt(0);
+            if (length < 0 || length > MAX_REQUEST_SIZE - Integer.BYTES) {
+                throw new IOException("Request of " + length + " bytes");
+            }
+            if (buffer.position() < Integer.BYTES + length) {
+                if (buffer.capacity() < Integer.BYTES + length) {
+                    grow(Integer.BYTES + length);
+                }
+                return false;
+            }
+            ByteBuffer received = buffer.duplicate();
+            received.flip();
+            input = new ReplayInputStream(received);
+            objectInput = new MessageInputStream(input);
+            message = objectInput.readObject();
+            return true;
+        }
+
+        private void grow() throws IOException {
+            grow(buffer.capacity() * 2);
+        }
+
+        private void grow(int size) throws IOException {
+            if (buffer.capacity() >= MAX_REQUEST_SIZE) {
+                throw new IOException("Request larger than " + MAX_REQUEST_SIZE + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_REQUEST_SIZE, size));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Stream over the bytes of a connection read so far, continuing with its socket once a worker owns it.
+     */
+    private static class ReplayInputStream extends InputStream {
+        private final ByteBuffer received;
+        private InputStream source;
+
+        private ReplayInputStream(ByteBuffer received) {
+            this.received = received;
+        }
+
+        private void setSource(InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (received.hasRemaining()) {
+                return received.get() & 0xff;
+            }
+            if (source == null) {
+                throw new EOFException();
+            }
+            return source.read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (received.hasRemaining()) {
+                int n = Math.min(length, received.remaining());
+                received.get(bytes, offset, n);
+                return n;
+            }
+            if (source == null) {
+                throw new EOFException();
+            }
+            return source.read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (received.hasRemaining()) {
+                return received.remaining();
+            }
+            return source == null ? 0 : source.available();
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.cs425.membership;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 
-import org.apache.commons.lang3.SerializationUtils;
+import com.cs425.Messages.WireCodec;
 
 public class ObjectSize {
+    // Bytes obj takes on the wire, not counting the length of its frame
     public static int sizeInBytes(Serializable obj) {
-        return SerializationUtils.serialize(obj).length;
+        try {
+            return WireCodec.encode(obj).length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
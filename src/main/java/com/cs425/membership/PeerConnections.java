@@ -0,0 +1,294 @@
+package com.cs425.membership;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
+import com.cs425.membership.MembershipList.MemberList;
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * Long-lived connections to other members for small control messages, so each one costs no TCP handshake.
+ * A connection carries frames of a request ID, a length and an encoded message, and any number of requests
+ * may wait for their replies on it at once; the MessageServer at the other end replies with the same ID.
+ * Connections unused for a while, or to members no longer in the membership list, are closed.
+ * File data is never sent on these connections, requests that stream data still open one of their own.
+ */
+public class PeerConnections {
+    // Sent by a client to turn its connection into a multiplexed one
+    public static final class Multiplex implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Request ID of a message that wants no reply
+    static final long ONE_WAY = 0;
+    // Request ID, then payload length
+    static final int FRAME_HEADER_SIZE = 12;
+
+    private final MemberList memberList;
+    private final long idleTimeout;
+    private final Map<MemberListEntry, Peer> peers = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(ONE_WAY + 1);
+    private final Thread sweeper;
+    private volatile boolean closed = false;
+
+    // Connections to members of memberList, each closed once unused for idleTimeout milliseconds
+    public PeerConnections(MemberList memberList, long idleTimeout) {
+        this.memberList = memberList;
+        this.idleTimeout = idleTimeout;
+
+        sweeper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PeerConnections.this.sweep();
+            }
+        }, "peer-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    // Send message to entry and wait for its reply, null if the handler sent none
+    public Object call(MemberListEntry entry, Serializable message) throws IOException, ClassNotFoundException {
+        byte[] reply = connection(entry).call(nextId.getAndIncrement(), encode(message));
+        return decode(reply);
+    }
+
+    // Send message to entry without waiting for it to be handled
+    public void send(MemberListEntry entry, Serializable message) throws IOException {
+        connection(entry).send(encode(message));
+    }
+
+    // Close every connection, calls waiting for a reply fail
+    public void close() {
+        closed = true;
+        sweeper.interrupt();
+        for (Peer peer: peers.values()) {
+            peer.close(new IOException("Connections closed"));
+        }
+        peers.clear();
+    }
+
+    @Override
+    public String toString() {
+        int waiting = 0;
+        for (Peer peer: peers.values()) {
+            waiting += peer.pending.size();
+        }
+        return "Peer connections: " + peers.size() + " open, " + waiting + " requests waiting for replies";
+    }
+
+    // Open connection to entry, or the one already open
+    private Peer connection(MemberListEntry entry) throws IOException {
+        if (closed) {
+            throw new IOException("Connections closed");
+        }
+        Peer peer = peers.get(entry);
+        if (peer != null && peer.use()) {
+            return peer;
+        }
+        synchronized (this) {
+            peer = peers.get(entry);
+            if (peer == null || !peer.use()) {
+                peer = new Peer(entry);
+                peers.put(entry, peer);
+            }
+            return peer;
+        }
+    }
+
+    // Close connections idle for too long or to members that left, until closed
+    private void sweep() {
+        while (!closed) {
+            try {
+                Thread.sleep(Math.max(100, idleTimeout / 4));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Map.Entry<MemberListEntry, Peer> entry: peers.entrySet()) {
+                Peer peer = entry.getValue();
+                boolean member;
+                synchronized (memberList) {
+                    member = memberList.containsEntry(entry.getKey());
+                }
+                if (!peer.isOpen()) {
+                    peers.remove(entry.getKey(), peer);
+                } else if (!member) {
+                    peers.remove(entry.getKey(), peer);
+                    peer.close(new IOException(entry.getKey() + " left the group"));
+                } else if (peer.closeIfIdle(now - idleTimeout)) {
+                    peers.remove(entry.getKey(), peer);
+                }
+            }
+        }
+    }
+
+    // Payload of a frame carrying message, written as by a MessageOutputStream
+    static byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new MessageOutputStream(bytes)) {
+            output.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    // First message in the payload of a frame, or null if it is empty
+    static Object decode(byte[] payload) throws IOException, ClassNotFoundException {
+        if (payload.length == 0) {
+            return null;
+        }
+        try (ObjectInputStream input = new MessageInputStream(new ByteArrayInputStream(payload))) {
+            return input.readObject();
+        }
+    }
+
+    static ByteBuffer frame(long id, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        frame.putLong(id).putInt(payload.length).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * A connection to one member, with a thread reading the replies to the requests waiting on it.
+     */
+    private static class Peer {
+        private final MemberListEntry entry;
+        private final SocketChannel channel;
+        private final DataInputStream input;
+        private final Map<Long, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+        private long lastUsed = System.currentTimeMillis();
+        private boolean closed = false;
+
+        private Peer(MemberListEntry entry) throws IOException {
+            this.entry = entry;
+            channel = SocketChannel.open(new InetSocketAddress(entry.getHostname(), entry.getPort()));
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                input = new DataInputStream(Channels.newInputStream(channel));
+
+                // Handshake as a regular request, answered by an empty frame
+                ByteBuffer hello = ByteBuffer.wrap(encode(new Multiplex()));
+                while (hello.hasRemaining()) {
+                    channel.write(hello);
+                }
+                if (input.readLong() != ONE_WAY || input.readInt() != 0) {
+                    throw new IOException("Unexpected handshake from " + entry);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Peer.this.readReplies();
+                }
+            }, "peer-" + entry.getHostname() + ":" + entry.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // Mark as in use, so it is not closed as idle before the caller's request is sent. Returns false if closed
+        private synchronized boolean use() {
+            lastUsed = System.currentTimeMillis();
+            return !closed;
+        }
+
+        private synchronized boolean isOpen() {
+            return !closed;
+        }
+
+        private byte[] call(long id, byte[] message) throws IOException {
+            CompletableFuture<byte[]> reply = new CompletableFuture<>();
+            pending.put(id, reply);
+            try {
+                write(id, message);
+                return reply.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for " + entry);
+            } finally {
+                pending.remove(id);
+            }
+        }
+
+        private void send(byte[] message) throws IOException {
+            write(ONE_WAY, message);
+        }
+
+        private synchronized void write(long id, byte[] message) throws IOException {
+            if (closed) {
+                throw new IOException("Connection to " + entry + " closed");
+            }
+            lastUsed = System.currentTimeMillis();
+            ByteBuffer frame = frame(id, message);
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            } catch (IOException e) {
+                close(e);
+                throw e;
+            }
+        }
+
+        // Close if nothing was sent since before and no reply is awaited. Returns true if closed
+        private synchronized boolean closeIfIdle(long before) {
+            if (closed || lastUsed >= before || !pending.isEmpty()) {
+                return false;
+            }
+            close(new IOException("Connection to " + entry + " idle"));
+            return true;
+        }
+
+        private synchronized void close(IOException cause) {
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (CompletableFuture<byte[]> reply: pending.values()) {
+                reply.completeExceptionally(cause);
+            }
+        }
+
+        // Hand each reply to the call waiting for it, until the connection closes
+        private void readReplies() {
+            try {
+                while (true) {
+                    long id = input.readLong();
+                    byte[] payload = new byte[input.readInt()];
+                    input.readFully(payload);
+                    CompletableFuture<byte[]> reply = pending.get(id);
+                    if (reply != null) {
+                        reply.complete(payload);
+                    }
+                }
+            } catch (IOException e) {
+                close(e instanceof EOFException ? new IOException("Connection to " + entry + " closed by peer") : e);
+            }
+        }
+    }
+}
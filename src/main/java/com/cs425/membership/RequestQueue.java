@@ -0,0 +1,90 @@
+package com.cs425.membership;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Workers handling one class of requests, with a bounded admission queue in front of them.
+ * A request that finds the queue full is rejected at once, so the server can tell the client it is busy
+ * instead of piling up work. Workers are virtual threads when the runtime has them and virtual is set.
+ */
+public class RequestQueue {
+    private final String name;
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Queue of up to capacity waiting requests, handled by up to threads workers. capacity 0 means unbounded
+    public RequestQueue(String name, int threads, int capacity, boolean virtual) {
+        this.name = name;
+        this.capacity = capacity;
+        BlockingQueue<Runnable> queue = capacity > 0 ? new ArrayBlockingQueue<Runnable>(capacity) : new LinkedBlockingQueue<Runnable>();
+        ThreadFactory factory = virtual ? virtualThreadFactory() : null;
+        if (factory == null) {
+            factory = new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, name + "-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, factory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Queue task. Returns false if the queue is full or shut down
+    public boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            admitted.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    // Stop taking requests, those already queued are still handled
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public int getDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + " requests: " + executor.getActiveCount() + " of " + executor.getMaximumPoolSize() + " workers busy, "
+                + getDepth() + " queued" + (capacity > 0 ? " of " + capacity : "") + ", "
+                + admitted.get() + " admitted, " + rejected.get() + " rejected";
+    }
+
+    // Factory for virtual threads, or null if the runtime has none
+    // Looked up reflectively since the project still builds for runtimes without them
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
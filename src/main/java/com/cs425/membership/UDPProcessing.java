@@ -1,6 +1,6 @@
 package com.cs425.membership;
 
-import org.apache.commons.lang3.SerializationUtils;
+import com.cs425.Messages.WireCodec;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -26,13 +26,13 @@ public class UDPProcessing {
         return convertFromPacket(packet);
     }
 
-    private static DatagramPacket convertToPacket(Serializable object, InetAddress host, int port) {
-        byte[] bytes = SerializationUtils.serialize(object);
+    private static DatagramPacket convertToPacket(Serializable object, InetAddress host, int port) throws IOException {
+        byte[] bytes = WireCodec.encode(object);
         return new DatagramPacket(bytes, bytes.length, host, port);
     }
 
-    private static Object convertFromPacket(DatagramPacket packet) {
-        return SerializationUtils.deserialize(packet.getData());
+    private static Object convertFromPacket(DatagramPacket packet) throws IOException, ClassNotFoundException {
+        return WireCodec.decode(packet.getData(), packet.getOffset(), packet.getLength());
     }
 
 }
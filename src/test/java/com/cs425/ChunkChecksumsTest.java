@@ -0,0 +1,141 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.StoredVersion;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ChunkChecksumsTest extends TestCase {
+    private File file;
+    private byte[] data;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ChunkChecksumsTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( ChunkChecksumsTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        // Two and a half chunks, so the last chunk is short
+        data = new byte[ChunkChecksums.CHUNK_SIZE * 5 / 2];
+        new Random(425).nextBytes(data);
+
+        file = File.createTempFile("checksums", ".bin");
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.write(data);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+        new File(file.getPath() + ChunkChecksums.SUFFIX).delete();
+    }
+
+    public void testVerifyWholeFileInPieces() throws IOException {
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+        assertEquals(data.length, checksums.getLength());
+
+        // Pieces that do not line up with chunk boundaries
+        ChunkChecksums.Verifier verifier = checksums.verifier(0);
+        for (int offset = 0; offset < data.length; offset += 100000) {
+            verifier.update(ByteBuffer.wrap(data, offset, Math.min(100000, data.length - offset)));
+        }
+        assertEquals(data.length, verifier.getVerifiedPosition());
+    }
+
+    public void testVerifyFromOffset() throws IOException {
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+
+        int offset = ChunkChecksums.CHUNK_SIZE * 2;
+        ChunkChecksums.Verifier verifier = checksums.verifier(offset);
+        verifier.update(ByteBuffer.wrap(data, offset, data.length - offset));
+        assertEquals(data.length, verifier.getVerifiedPosition());
+    }
+
+    public void testVerifiedPrefixStopsAtDamage() throws IOException {
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+        assertEquals(data.length, checksums.verifiedPrefix(file.getPath()));
+
+        // A file cut short keeps only its whole matching chunks, and a damaged chunk ends the prefix
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(ChunkChecksums.CHUNK_SIZE * 2 - 5);
+        }
+        assertEquals(ChunkChecksums.CHUNK_SIZE, checksums.verifiedPrefix(file.getPath()));
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(3);
+            output.write(data[3] ^ 1);
+        }
+        assertEquals(0, checksums.verifiedPrefix(file.getPath()));
+    }
+
+    public void testCorruptionDetected() throws IOException {
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+
+        byte[] corrupt = data.clone();
+        corrupt[ChunkChecksums.CHUNK_SIZE + 7] ^= 1;
+
+        ChunkChecksums.Verifier verifier = checksums.verifier(0);
+        try {
+            verifier.update(ByteBuffer.wrap(corrupt));
+            fail("Corrupt chunk not detected");
+        } catch (IOException e) {
+            // Only the first chunk was good
+            assertEquals(ChunkChecksums.CHUNK_SIZE, verifier.getVerifiedPosition());
+        }
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+        checksums.save(file.getPath());
+
+        ChunkChecksums loaded = ChunkChecksums.load(file.getPath());
+        assertNotNull(loaded);
+        assertEquals(checksums.getLength(), loaded.getLength());
+        loaded.verifier(0).update(ByteBuffer.wrap(data));
+    }
+
+    public void testExtendMatchesCompute() throws IOException {
+        // Base ends part way through a chunk, the appended bytes are the rest of data
+        int baseLength = ChunkChecksums.CHUNK_SIZE * 3 / 2;
+        String directory = file.getParent() + File.separator;
+        File base = new File(directory + "base_" + file.getName());
+        File tail = new File(directory + "tail_" + file.getName());
+        try {
+            try (RandomAccessFile output = new RandomAccessFile(base, "rw")) {
+                output.write(data, 0, baseLength);
+            }
+            try (RandomAccessFile output = new RandomAccessFile(tail, "rw")) {
+                output.write(data, baseLength, data.length - baseLength);
+            }
+
+            StoredVersion version = StoredVersion.load(directory, base.getName()).append(tail.getName(), tail.length());
+            assertEquals(data.length, version.getLength());
+
+            ChunkChecksums extended = ChunkChecksums.extend(ChunkChecksums.compute(base.getPath()), version);
+            assertEquals(data.length, extended.getLength());
+            extended.verifier(0).update(ByteBuffer.wrap(data));
+        } finally {
+            base.delete();
+            tail.delete();
+        }
+    }
+}
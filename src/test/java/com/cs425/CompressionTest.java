@@ -0,0 +1,98 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.Compression;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CompressionTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CompressionTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( CompressionTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("compression", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testCompressibleFileRoundTrip() throws Exception {
+        byte[] data = new byte[2 * ChunkChecksums.CHUNK_SIZE + 777];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("line " + (i / 64) + "\n").charAt(i % 6);
+        }
+        assertTrue(Arrays.equals(data, roundTrip(data)));
+    }
+
+    public void testRandomFileRoundTrip() throws Exception {
+        byte[] data = new byte[3 * ChunkChecksums.CHUNK_SIZE + 1];
+        new Random(425).nextBytes(data);
+        assertTrue(Arrays.equals(data, roundTrip(data)));
+    }
+
+    // Send data through a local socket with compression and return what was received
+    private byte[] roundTrip(byte[] data) throws Exception {
+        File source = new File(directory, "source");
+        File destination = new File(directory, "destination");
+        try (RandomAccessFile output = new RandomAccessFile(source, "rw")) {
+            output.write(data);
+        }
+        ChunkChecksums checksums = ChunkChecksums.compute(source.getPath());
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Socket socket = SocketChannel.open(server.getLocalAddress()).socket()) {
+                        Compression.sendFile(socket, source.getPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            sender.start();
+            try (Socket socket = server.accept().socket()) {
+                assertEquals(data.length, Compression.receiveFile(socket, destination.getPath(), checksums));
+            }
+            sender.join();
+        }
+        return Files.readAllBytes(destination.toPath());
+    }
+}
@@ -0,0 +1,96 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.Delta;
+import com.cs425.fileSystem.StoredVersion;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class DeltaTest extends TestCase {
+    private static final int BLOCK_SIZE = 4096;
+
+    private File directory;
+    private byte[] base;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public DeltaTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( DeltaTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("delta", "");
+        directory.delete();
+        directory.mkdir();
+
+        base = new byte[3 * ChunkChecksums.CHUNK_SIZE + 1234];
+        new Random(425).nextBytes(base);
+        write("base", base);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testEditedVersionSharesBase() throws IOException {
+        // Overwrite a few bytes and insert some in the middle, so later blocks are no longer aligned
+        byte[] edited = new byte[base.length + 100];
+        System.arraycopy(base, 0, edited, 0, 500000);
+        for (int i = 500000; i < 500100; i++) {
+            edited[i] = (byte) i;
+        }
+        System.arraycopy(base, 500000, edited, 500100, base.length - 500000);
+        edited[2000000] ^= 1;
+        write("edited", edited);
+
+        StoredVersion baseVersion = load("base");
+        StoredVersion editedVersion = load("edited");
+        Delta delta = Delta.encode(baseVersion, editedVersion, BLOCK_SIZE);
+        assertEquals(edited.length, delta.getLength());
+        assertTrue(delta.getLiteralLength() < 4 * BLOCK_SIZE);
+
+        StoredVersion stored = delta.store(baseVersion, editedVersion, directory.getPath() + File.separator, "edited" + Delta.SUFFIX);
+        assertEquals(ChunkChecksums.compute(editedVersion), ChunkChecksums.compute(stored));
+    }
+
+    public void testUnrelatedVersionIsLiteral() throws IOException {
+        byte[] other = new byte[base.length];
+        new Random(7).nextBytes(other);
+        write("other", other);
+
+        Delta delta = Delta.encode(load("base"), load("other"), BLOCK_SIZE);
+        assertEquals(other.length, delta.getLength());
+        assertEquals(other.length, delta.getLiteralLength());
+    }
+
+    private StoredVersion load(String name) throws IOException {
+        return StoredVersion.load(directory.getPath() + File.separator, name);
+    }
+
+    private void write(String name, byte[] data) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(new File(directory, name), "rw")) {
+            output.write(data);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.GroupCommit;
+import com.cs425.fileSystem.SegmentStore;
+import com.cs425.fileSystem.StoreManifest;
+
+/**
+ * Durable put rate of each DURABILITY mode, from 16 threads at once as concurrent clients would. A put is either
+ * written to a staging file and renamed into place, or packed into a segment as small versions are, then committed.
+ * Reported in puts per second.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<deps> org.openjdk.jmh.Main DurabilityBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(16)
+@Fork(1)
+public class DurabilityBenchmark {
+
+    @Param({"async", "sync", "group"})
+    public String mode;
+
+    @Param({"4096"})
+    public int fileSize;
+
+    // Whether each put keeps a file of its own, or is packed into a shared segment as small versions are
+    @Param({"files", "packed"})
+    public String layout;
+
+    private File directory;
+    private StoreManifest manifest;
+    private GroupCommit commits;
+    private SegmentStore segments;
+    private byte[] content;
+    private ChunkChecksums checksums;
+    private final AtomicLong nextPut = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        // On disk rather than in the default temporary directory, which may be memory backed
+        directory = Files.createTempDirectory(Paths.get("target"), "sdfs-bench-durability").toFile();
+        manifest = new StoreManifest(directory.getPath() + "/");
+        manifest.rewrite(Collections.<String>emptySet());
+        segments = new SegmentStore(directory.getPath() + "/", 64 << 20, 50);
+        commits = new GroupCommit(GroupCommit.parseMode(mode), directory.getPath() + "/", manifest);
+
+        content = new byte[fileSize];
+        new Random(425).nextBytes(content);
+        File sample = new File(directory, "sample");
+        Files.write(sample.toPath(), content);
+        checksums = ChunkChecksums.compute(sample.getPath());
+        sample.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        commits.close();
+        manifest.close();
+        segments.close();
+        System.out.println(commits);
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        String file = "file_" + nextPut.incrementAndGet();
+        if (layout.equals("packed")) {
+            segments.add(file, ByteBuffer.wrap(content), checksums);
+            commits.commit(file, Collections.singleton(SegmentStore.PREFIX + 1));
+            return;
+        }
+        String staged = directory.getPath() + "/" + file + ".staged";
+        try (FileChannel output = FileChannel.open(Paths.get(staged), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                output.write(buffer);
+            }
+        }
+        Files.move(Paths.get(staged), Paths.get(directory.getPath() + "/" + file), StandardCopyOption.ATOMIC_MOVE);
+        commits.commit(file, Collections.singleton(file));
+    }
+}
@@ -0,0 +1,95 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.cs425.fileSystem.FileCache;
+import com.cs425.fileSystem.StoredVersion;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class FileCacheTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public FileCacheTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( FileCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("cache", "");
+        directory.delete();
+        directory.mkdir();
+        write("a_1.txt", 400);
+        write("b_1.txt", 400);
+        write("c_1.txt", 400);
+        write("a_2.txt", 400);
+        write("big_1.txt", 2000);
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        FileCache cache = new FileCache(1000, 1000);
+        get(cache, "a_1.txt");
+        get(cache, "b_1.txt");
+        get(cache, "a_1.txt");
+        get(cache, "c_1.txt");
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        // b was least recently used when c pushed the cache over capacity
+        get(cache, "a_1.txt");
+        get(cache, "b_1.txt");
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    public void testContentAndInvalidation() throws IOException {
+        FileCache cache = new FileCache(1000, 1000);
+        ByteBuffer content = get(cache, "a_1.txt");
+        assertEquals(400, content.remaining());
+        assertEquals((byte) 399, content.get(399));
+        assertNull(get(cache, "big_1.txt"));
+
+        // A newer version supersedes the cached one
+        cache.invalidateSuperseded("a_2.txt");
+        get(cache, "a_1.txt");
+        assertEquals(0, cache.getHits());
+    }
+
+    private ByteBuffer get(FileCache cache, String name) throws IOException {
+        return cache.get(name, StoredVersion.load(directory.getPath() + File.separator, name));
+    }
+
+    private void write(String name, int length) throws IOException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        try (RandomAccessFile output = new RandomAccessFile(new File(directory, name), "rw")) {
+            output.write(data);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.cs425.fileSystem.GroupCommit;
+import com.cs425.fileSystem.StoreManifest;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class GroupCommitTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GroupCommitTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( GroupCommitTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("commit", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testConcurrentCommitsAreRecorded() throws Exception {
+        StoreManifest manifest = new StoreManifest(directory.getPath() + "/");
+        manifest.rewrite(Collections.<String>emptySet());
+        final GroupCommit commits = new GroupCommit(GroupCommit.Mode.GROUP, directory.getPath() + "/", manifest);
+
+        ExecutorService clients = Executors.newFixedThreadPool(16);
+        List<Future<Void>> puts = new ArrayList<>();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            final String file = "file_" + i;
+            expected.add(file);
+            Files.write(new File(directory, file).toPath(), new byte[] {(byte) i});
+            puts.add(clients.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    // A missing file is skipped
+                    commits.commit(file, new HashSet<>(Arrays.asList(file, file + ".crc")));
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> put: puts) {
+            put.get();
+        }
+        clients.shutdown();
+        commits.close();
+        manifest.close();
+
+        assertEquals(expected, new StoreManifest(directory.getPath() + "/").load());
+        assertTrue(commits.toString().startsWith("Durability: group, 200 versions committed"));
+    }
+
+    public void testCloseFailsWaitingCommits() throws Exception {
+        StoreManifest manifest = new StoreManifest(directory.getPath() + "/");
+        final GroupCommit commits = new GroupCommit(GroupCommit.Mode.GROUP, directory.getPath() + "/", manifest);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        List<Future<Void>> puts = new ArrayList<>();
+        // Holding the manifest stalls the committer on the first version, so the second one waits behind it
+        synchronized (manifest) {
+            for (int i = 0; i < 2; i++) {
+                final String file = "file_" + i;
+                puts.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        commits.commit(file, Collections.<String>emptySet());
+                        return null;
+                    }
+                }));
+                Thread.sleep(200);
+            }
+            commits.close();
+            try {
+                puts.get(1).get();
+                fail("A version waiting when commits closed was acknowledged");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        clients.shutdown();
+
+        try {
+            commits.commit("file_2", Collections.<String>emptySet());
+            fail("A version was committed after commits closed");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testLatestDeletedVersionSurvivesRewrite() throws Exception {
+        StoreManifest manifest = new StoreManifest(directory.getPath() + "/");
+        manifest.rewrite(Collections.<String>emptySet());
+        manifest.addDeleted("a_3.txt");
+        manifest.addDeleted("a_2.txt");
+        manifest.addDeleted("b_1");
+        manifest.close();
+
+        StoreManifest reloaded = new StoreManifest(directory.getPath() + "/");
+        reloaded.load();
+        assertEquals(new HashSet<>(Arrays.asList("a_3.txt", "b_1")), reloaded.getDeleted());
+        reloaded.rewrite(Collections.singleton("c_1"));
+        reloaded.close();
+
+        StoreManifest compacted = new StoreManifest(directory.getPath() + "/");
+        assertEquals(Collections.singleton("c_1"), compacted.load());
+        assertEquals(new HashSet<>(Arrays.asList("a_3.txt", "b_1")), compacted.getDeleted());
+    }
+
+    public void testModeIsParsedIgnoringCase() {
+        assertEquals(GroupCommit.Mode.GROUP, GroupCommit.parseMode("group"));
+        assertEquals(GroupCommit.Mode.SYNC, GroupCommit.parseMode("SYNC"));
+        assertEquals(GroupCommit.Mode.ASYNC, GroupCommit.parseMode("Async"));
+    }
+}
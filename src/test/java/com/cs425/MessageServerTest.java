@@ -0,0 +1,222 @@
+package com.cs425;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.cs425.Messages.MessageInputStream;
+import com.cs425.Messages.MessageOutputStream;
+import com.cs425.membership.MessageServer;
+import com.cs425.membership.PeerConnections;
+import com.cs425.membership.RequestQueue;
+import com.cs425.membership.MembershipList.MemberList;
+import com.cs425.membership.MembershipList.MemberListEntry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class MessageServerTest extends TestCase {
+    private static final int CONNECTIONS = 1000;
+
+    private MessageServer server;
+    private RequestQueue queue;
+    // Queue of requests on multiplexed connections, with room for all of them
+    private RequestQueue peerQueue;
+    // Requests named "hold" wait on this before replying
+    private CountDownLatch release;
+    // Requests named "peer one way" count this down
+    private CountDownLatch oneWay;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MessageServerTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( MessageServerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        queue = new RequestQueue("Test", 4, 1, false);
+        peerQueue = new RequestQueue("Peer", 4, 0, false);
+        release = new CountDownLatch(1);
+        oneWay = new CountDownLatch(1);
+
+        // Reply to the request, then echo one more object read from the same connection
+        server = new MessageServer(0, CONNECTIONS, 2, new MessageServer.Handler() {
+            @Override
+            public RequestQueue queueFor(Object message) {
+                return message instanceof String && ((String) message).startsWith("peer") ? peerQueue : queue;
+            }
+
+            @Override
+            public void handle(Object message, Socket client, ObjectInputStream input, ObjectOutputStream output) throws Exception {
+                if ("hold".equals(message)) {
+                    release.await();
+                }
+                if ("peer one way".equals(message)) {
+                    oneWay.countDown();
+                    return;
+                }
+                output.writeObject("reply to " + message);
+                output.flush();
+                // Requests on multiplexed connections carry nothing more
+                if (((String) message).startsWith("peer")) {
+                    return;
+                }
+                output.writeObject(input.readObject());
+                output.flush();
+            }
+
+            @Override
+            public void reject(Object message, ObjectOutputStream output) throws IOException {
+                output.writeObject("busy");
+                output.flush();
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        release.countDown();
+        server.stop();
+        queue.shutdown();
+        peerQueue.shutdown();
+    }
+
+    public void testIdleConnectionsNeedNoThreads() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        List<Socket> sockets = new ArrayList<>();
+        List<ObjectOutputStream> outputs = new ArrayList<>();
+        List<ObjectInputStream> inputs = new ArrayList<>();
+        try {
+            // Open every connection the way members do before sending anything
+            for (int i = 0; i < CONNECTIONS; i++) {
+                Socket socket = new Socket();
+                // As FileTransfer.openSocket does, so requests written in pieces are not delayed
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress("localhost", server.getPort()));
+                sockets.add(socket);
+                outputs.add(new MessageOutputStream(socket.getOutputStream()));
+                inputs.add(new MessageInputStream(socket.getInputStream()));
+            }
+            assertTrue(Thread.activeCount() - threadsBefore < 50);
+
+            for (int i = 0; i < CONNECTIONS; i++) {
+                outputs.get(i).writeObject("request " + i);
+                outputs.get(i).flush();
+                assertEquals("reply to request " + i, inputs.get(i).readObject());
+                outputs.get(i).writeObject(Integer.valueOf(i));
+                outputs.get(i).flush();
+                assertEquals(Integer.valueOf(i), inputs.get(i).readObject());
+            }
+        } finally {
+            for (Socket socket: sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    public void testRequestSplitAcrossWrites() throws Exception {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            ObjectOutputStream output = new MessageOutputStream(socket.getOutputStream());
+            ObjectInputStream input = new MessageInputStream(socket.getInputStream());
+
+            // A request large enough to arrive in many reads
+            StringBuilder request = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                request.append(i % 10);
+            }
+            output.writeObject(request.toString());
+            output.flush();
+            assertEquals("reply to " + request, input.readObject());
+            output.writeObject("done");
+            output.flush();
+            assertEquals("done", input.readObject());
+        }
+    }
+
+    public void testFullQueueAnswersBusy() throws Exception {
+        // Four requests occupy the workers and one more fills the queue
+        List<Socket> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < 5; i++) {
+                Socket socket = new Socket("localhost", server.getPort());
+                held.add(socket);
+                ObjectOutputStream output = new MessageOutputStream(socket.getOutputStream());
+                new MessageInputStream(socket.getInputStream());
+                output.writeObject("hold");
+                output.flush();
+            }
+            waitForDepth(1);
+
+            try (Socket socket = new Socket("localhost", server.getPort())) {
+                ObjectOutputStream output = new MessageOutputStream(socket.getOutputStream());
+                ObjectInputStream input = new MessageInputStream(socket.getInputStream());
+                output.writeObject("request");
+                output.flush();
+                assertEquals("busy", input.readObject());
+            }
+            assertEquals(1, queue.getRejected());
+        } finally {
+            release.countDown();
+            for (Socket socket: held) {
+                socket.close();
+            }
+        }
+    }
+
+    private void waitForDepth(int depth) throws InterruptedException {
+        for (int i = 0; i < 500 && queue.getDepth() < depth; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, queue.getDepth());
+    }
+
+    public void testMultiplexedConnection() throws Exception {
+        MemberListEntry self = new MemberListEntry("localhost", server.getPort(), new Date());
+        PeerConnections peers = new PeerConnections(new MemberList(self), 60000);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> replies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String request = "peer request " + i;
+                replies.add(callers.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return peers.call(self, request);
+                    }
+                }));
+            }
+            for (int i = 0; i < replies.size(); i++) {
+                assertEquals("reply to peer request " + i, replies.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            peers.send(self, "peer one way");
+            assertTrue(oneWay.await(5, TimeUnit.SECONDS));
+            assertTrue(peers.toString(), peers.toString().startsWith("Peer connections: 1 open"));
+        } finally {
+            callers.shutdown();
+            peers.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.cs425.fileSystem.CodedVersion;
+import com.cs425.fileSystem.ReedSolomon;
+import com.cs425.fileSystem.StoredVersion;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ReedSolomonTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ReedSolomonTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( ReedSolomonTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("coded", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testAnyThreeLostShardsAreRebuilt() {
+        ReedSolomon codec = new ReedSolomon(6, 3);
+        Random random = new Random(425);
+        byte[][] original = new byte[9][100];
+        for (int i = 0; i < 6; i++) {
+            random.nextBytes(original[i]);
+        }
+        codec.encodeParity(original, 0, 100);
+
+        // Every way of losing three of the nine shards
+        for (int a = 0; a < 9; a++) {
+            for (int b = a + 1; b < 9; b++) {
+                for (int c = b + 1; c < 9; c++) {
+                    byte[][] shards = new byte[9][];
+                    boolean[] present = new boolean[9];
+                    for (int i = 0; i < 9; i++) {
+                        present[i] = i != a && i != b && i != c;
+                        shards[i] = present[i] ? original[i].clone() : new byte[100];
+                    }
+                    codec.reconstruct(shards, present, 0, 100);
+                    for (int i = 0; i < 9; i++) {
+                        assertTrue("Lost " + a + ", " + b + ", " + c, Arrays.equals(original[i], shards[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testVersionDecodesAndShardsRebuildFromFiles() throws IOException {
+        ReedSolomon codec = new ReedSolomon(6, 3);
+        // Not a multiple of six, so the last data shard is padded
+        byte[] content = new byte[3 * (1 << 20) + 1001];
+        new Random(425).nextBytes(content);
+        Files.write(new File(directory, "v_1").toPath(), content);
+        StoredVersion version = StoredVersion.load(directory.getPath() + "/", "v_1");
+
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            paths.add(directory.getPath() + "/shard" + i);
+        }
+        CodedVersion.encode(codec, version, paths);
+        assertEquals(CodedVersion.shardLength(content.length, 6), new File(paths.get(8)).length());
+
+        // Two data shards and a parity shard lost
+        Map<Integer, String> left = new HashMap<>();
+        for (int i: new int[] {0, 2, 3, 5, 6, 8}) {
+            left.put(i, paths.get(i));
+        }
+        String decoded = directory.getPath() + "/decoded";
+        try (FileChannel output = FileChannel.open(Paths.get(decoded), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            CodedVersion.decode(codec, left, content.length, output);
+        }
+        assertTrue(Arrays.equals(content, Files.readAllBytes(Paths.get(decoded))));
+
+        String rebuilt = directory.getPath() + "/rebuilt";
+        try (FileChannel output = FileChannel.open(Paths.get(rebuilt), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            CodedVersion.rebuild(codec, left, content.length, 4, output);
+        }
+        assertTrue(Arrays.equals(Files.readAllBytes(Paths.get(paths.get(4))), Files.readAllBytes(Paths.get(rebuilt))));
+    }
+
+    public void testShardNamesCarryVersionIndexAndLength() {
+        String shard = CodedVersion.shardName("notes_3.txt", 7, 123456789L);
+        assertTrue(CodedVersion.isShard(shard));
+        assertFalse(CodedVersion.isShard("notes_3.txt"));
+        assertEquals("notes_3.txt", CodedVersion.versionOf(shard));
+        assertEquals(7, CodedVersion.indexOf(shard));
+        assertEquals(123456789L, CodedVersion.lengthOf(shard));
+    }
+}
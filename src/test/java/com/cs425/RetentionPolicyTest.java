@@ -0,0 +1,62 @@
+package com.cs425;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeMap;
+
+import com.cs425.fileSystem.RetentionPolicy;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class RetentionPolicyTest extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RetentionPolicyTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( RetentionPolicyTest.class );
+    }
+
+    // Versions 1 to 5, version i stored at time i * 1000
+    private static TreeMap<Integer, Long> fiveVersions() {
+        TreeMap<Integer, Long> times = new TreeMap<>();
+        for (int version = 1; version <= 5; version++) {
+            times.put(version, version * 1000L);
+        }
+        return times;
+    }
+
+    public void testUnlimitedPolicyKeepsEverything() {
+        RetentionPolicy policy = new RetentionPolicy(0, 0, "");
+        assertTrue(policy.isUnlimited());
+        assertTrue(policy.expired("a.txt", fiveVersions(), 1000000).isEmpty());
+    }
+
+    public void testGlobalLimitsExpireOldVersions() {
+        RetentionPolicy byCount = new RetentionPolicy(2, 0, "");
+        assertFalse(byCount.isUnlimited());
+        assertEquals(Arrays.asList(3, 2, 1), byCount.expired("a.txt", fiveVersions(), 5000));
+
+        // Versions stored more than 2500 milliseconds before 6000, but never the newest
+        RetentionPolicy byAge = new RetentionPolicy(0, 2500, "");
+        assertEquals(Arrays.asList(3, 2, 1), byAge.expired("a.txt", fiveVersions(), 6000));
+        assertEquals(Arrays.asList(4, 3, 2, 1), byAge.expired("a.txt", fiveVersions(), 100000));
+    }
+
+    public void testFirstMatchingRuleOverridesGlobalLimits() {
+        RetentionPolicy policy = new RetentionPolicy(3, 0, "*.log:1:0, keep*:0:0, *:4:0");
+        assertEquals(Arrays.asList(4, 3, 2, 1), policy.expired("server.log", fiveVersions(), 5000));
+        assertEquals(Arrays.asList(4, 3, 2, 1), policy.expired("keep.log", fiveVersions(), 5000));
+        assertTrue(policy.expired("keep.txt", fiveVersions(), 5000).isEmpty());
+        assertEquals(Collections.singletonList(1), policy.expired("a.txt", fiveVersions(), 5000));
+    }
+}
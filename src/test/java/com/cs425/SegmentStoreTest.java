@@ -0,0 +1,149 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.fileSystem.SegmentStore;
+import com.cs425.fileSystem.StoredVersion;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SegmentStoreTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SegmentStoreTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( SegmentStoreTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("segments", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testPackedVersionsSurviveRestart() throws IOException {
+        SegmentStore store = new SegmentStore(directory.getPath() + "/", 1 << 20, 50);
+        store.add("a_1", content(100, 1), checksums(100, 1));
+        store.add("b_1", content(0, 2), checksums(0, 2));
+        store.add("c_1", content(300, 3), checksums(300, 3));
+        store.remove("b_1");
+        assertContent(store, "a_1", 100, 1);
+        assertFalse(store.contains("b_1"));
+        store.close();
+
+        SegmentStore reloaded = new SegmentStore(directory.getPath() + "/", 1 << 20, 50);
+        assertEquals(new HashSet<>(Arrays.asList(SegmentStore.PREFIX + 1)), reloaded.load());
+        assertEquals(new HashSet<>(Arrays.asList("a_1", "c_1")), reloaded.getFiles());
+        assertContent(reloaded, "a_1", 100, 1);
+        assertContent(reloaded, "c_1", 300, 3);
+        assertEquals(checksums(300, 3), reloaded.checksums("c_1"));
+        reloaded.close();
+    }
+
+    public void testRecordCutShortIsDropped() throws IOException {
+        SegmentStore store = new SegmentStore(directory.getPath() + "/", 1 << 20, 50);
+        store.add("a_1", content(100, 1), checksums(100, 1));
+        store.add("b_1", content(200, 2), checksums(200, 2));
+        store.close();
+
+        // Crash partway through writing b's bytes
+        try (RandomAccessFile segment = new RandomAccessFile(new File(directory, SegmentStore.PREFIX + 1), "rw")) {
+            segment.setLength(segment.length() - 50);
+        }
+        SegmentStore reloaded = new SegmentStore(directory.getPath() + "/", 1 << 20, 50);
+        reloaded.load();
+        assertEquals(new HashSet<>(Arrays.asList("a_1")), reloaded.getFiles());
+
+        // Appends continue after the last whole record
+        reloaded.add("c_1", content(10, 3), checksums(10, 3));
+        reloaded.close();
+        SegmentStore again = new SegmentStore(directory.getPath() + "/", 1 << 20, 50);
+        again.load();
+        assertContent(again, "c_1", 10, 3);
+        again.close();
+    }
+
+    public void testCompactionKeepsLiveVersions() throws IOException {
+        // Every version fills a segment of its own
+        SegmentStore store = new SegmentStore(directory.getPath() + "/", 100, 50);
+        store.add("a_1", content(200, 1), checksums(200, 1));
+        store.add("b_1", content(200, 2), checksums(200, 2));
+        store.add("c_1", content(200, 3), checksums(200, 3));
+        store.remove("a_1");
+        store.remove("c_1");
+
+        Set<String> dropped = store.compact();
+        assertEquals(new HashSet<>(Arrays.asList(SegmentStore.PREFIX + 1, SegmentStore.PREFIX + 3)), dropped);
+        assertContent(store, "b_1", 200, 2);
+        store.close();
+        for (String segment: dropped) {
+            new File(directory, segment).delete();
+        }
+
+        // The removal of a_1 was recorded after the segment holding it, and was carried over
+        SegmentStore reloaded = new SegmentStore(directory.getPath() + "/", 100, 50);
+        reloaded.load();
+        assertEquals(new HashSet<>(Arrays.asList("b_1")), reloaded.getFiles());
+        assertContent(reloaded, "b_1", 200, 2);
+        reloaded.close();
+    }
+
+    private static ByteBuffer content(int length, int seed) {
+        ByteBuffer content = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            content.put((byte) (i * seed));
+        }
+        content.flip();
+        return content;
+    }
+
+    private ChunkChecksums checksums(int length, int seed) throws IOException {
+        File file = new File(directory, "content");
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(0);
+            output.write(content(length, seed).array());
+        }
+        ChunkChecksums checksums = ChunkChecksums.compute(file.getPath());
+        file.delete();
+        return checksums;
+    }
+
+    private static void assertContent(SegmentStore store, String file, int length, int seed) throws IOException {
+        StoredVersion version = store.layout(file);
+        assertEquals(length, version.getLength());
+        ByteBuffer read = ByteBuffer.allocate(length);
+        while (read.hasRemaining()) {
+            assertTrue(version.read(read, read.position()) > 0);
+        }
+        read.flip();
+        assertEquals(content(length, seed), read);
+    }
+}
@@ -0,0 +1,97 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.cs425.fileSystem.GroupCommit;
+import com.cs425.fileSystem.SegmentStore;
+import com.cs425.fileSystem.StorageVolume;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class StorageVolumeTest extends TestCase {
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public StorageVolumeTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( StorageVolumeTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("volume", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        if (directory.exists()) {
+            for (File file: directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    public void testHealthyVolumeRunsWork() throws Exception {
+        StorageVolume volume = new StorageVolume(directory.getPath() + "/", 1 << 20, 50, GroupCommit.Mode.ASYNC, 2);
+        assertTrue(volume.probe());
+        assertEquals(0, directory.listFiles().length);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        volume.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+
+        volume.beginWrite();
+        volume.beginWrite();
+        volume.endWrite();
+        assertEquals(1, volume.getWrites());
+        volume.close();
+    }
+
+    public void testVolumeThatStopsTakingWritesFails() throws Exception {
+        StorageVolume volume = new StorageVolume(directory.getPath() + "/", 1 << 20, 50, GroupCommit.Mode.ASYNC, 2);
+        volume.markGarbage(new HashSet<>(Arrays.asList("a_1", SegmentStore.PREFIX + 1)));
+        // Segments are left to compaction
+        assertEquals(Collections.singleton("a_1"), volume.getGarbage().keySet());
+
+        // The disk goes away
+        directory.delete();
+        assertFalse(volume.probe());
+        assertTrue(volume.isFailed());
+        assertTrue(volume.toString().contains("failed"));
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        volume.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+        assertFalse(ran.await(1, TimeUnit.SECONDS));
+        volume.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.cs425;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.cs425.fileSystem.FileTransfer;
+
+/**
+ * Compares the old 1 KB byte[] copy loop against FileTransfer over loopback.
+ * The "megabytes" counter is reported as MB/s.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<deps> org.openjdk.jmh.Main TransferBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({"legacy", "nio"})
+    public String mode;
+
+    @Param({"268435456"})
+    public long fileSize;
+
+    private File source;
+    private File destination;
+    private ServerSocket server;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        source = File.createTempFile("sdfs-bench-src", ".bin");
+        destination = File.createTempFile("sdfs-bench-dst", ".bin");
+        source.deleteOnExit();
+        destination.deleteOnExit();
+
+        // Random content so nothing along the path can shortcut the copy
+        byte[] block = new byte[1 << 20];
+        new Random(425).nextBytes(block);
+        try (RandomAccessFile file = new RandomAccessFile(source, "rw")) {
+            for (long written = 0; written < fileSize; written += block.length) {
+                file.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0)).socket();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        source.delete();
+        destination.delete();
+    }
+
+    @Benchmark
+    public long transfer(Throughput throughput) throws Exception {
+        // Receiver runs on its own thread, as it would on the remote file server
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket client = server.accept()) {
+                    if (mode.equals("legacy")) {
+                        legacyReceive(client);
+                    } else {
+                        FileTransfer.receiveFile(client, destination.getPath(), null);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        receiver.start();
+
+        Socket socket = SocketChannel.open(server.getLocalSocketAddress()).socket();
+        if (mode.equals("legacy")) {
+            legacySend(socket);
+        } else {
+            FileTransfer.sendFile(socket, source.getPath());
+        }
+        socket.close();
+        receiver.join();
+
+        throughput.megabytes += fileSize / (1024.0 * 1024.0);
+        return destination.length();
+    }
+
+    // Copy of the loop FileServer used before FileTransfer
+    private void legacySend(Socket socket) throws IOException {
+        byte[] buffer = new byte[1024];
+        int i;
+        DataOutputStream fileOutput = new DataOutputStream(socket.getOutputStream());
+        FileInputStream fileInputStream = new FileInputStream(source);
+        while ((i = fileInputStream.read(buffer)) != -1) {
+            fileOutput.write(buffer, 0, i);
+        }
+        fileOutput.flush();
+        fileInputStream.close();
+    }
+
+    private void legacyReceive(Socket socket) throws IOException {
+        byte[] buffer = new byte[1024];
+        int i;
+        DataInputStream fileInput = new DataInputStream(socket.getInputStream());
+        FileOutputStream fileOutput = new FileOutputStream(destination);
+        while ((i = fileInput.read(buffer)) > 0) {
+            fileOutput.write(buffer, 0, i);
+        }
+        fileOutput.flush();
+        fileOutput.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.cs425;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import com.cs425.fileSystem.FileTransfer;
+import com.cs425.fileSystem.TransferScheduler;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TransferSchedulerTest extends TestCase {
+    private static final int FILE_SIZE = 6 << 20;
+    private static final long BACKGROUND_RATE = 8 << 20;
+
+    private File directory;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TransferSchedulerTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( TransferSchedulerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("scheduler", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File file: directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testBackgroundTransferIsRateLimited() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(0, 0, BACKGROUND_RATE, 0, 4, 4);
+        long start = System.nanoTime();
+        assertEquals(FILE_SIZE, send(scheduler, TransferScheduler.Priority.BACKGROUND));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // All but the bucket's small burst has to wait for tokens
+        assertTrue("Background transfer took only " + elapsed + " ms", elapsed >= 500);
+    }
+
+    public void testBackgroundTransfersWaitForSlot() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(0, 0, 0, 0, 4, 1);
+        TransferScheduler.Transfer first = scheduler.begin(TransferScheduler.Priority.BACKGROUND);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TransferScheduler.Transfer transfer = scheduler.begin(TransferScheduler.Priority.BACKGROUND);
+                try {
+                    started.countDown();
+                } finally {
+                    transfer.close();
+                }
+            }
+        });
+        second.start();
+        assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+
+        // Foreground transfers have slots of their own
+        scheduler.begin(TransferScheduler.Priority.FOREGROUND).close();
+
+        first.close();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        second.join();
+    }
+
+    public void testNodesReplicatingFromEachOtherDoNotWait() throws Exception {
+        TransferScheduler[] nodes = {new TransferScheduler(0, 0, 0, 0, 4, 1), new TransferScheduler(0, 0, 0, 0, 4, 1)};
+        CyclicBarrier bothReplicating = new CyclicBarrier(2);
+        CountDownLatch fetched = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            TransferScheduler self = nodes[i];
+            TransferScheduler peer = nodes[1 - i];
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // A replication holds the node's only background slot while it fetches from the peer, whose
+                    // only slot is held by a replication fetching from this node
+                    TransferScheduler.Transfer replicate = self.begin(TransferScheduler.Priority.BACKGROUND);
+                    try {
+                        bothReplicating.await(5, TimeUnit.SECONDS);
+                        Thread serve = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                TransferScheduler.Transfer fetch = peer.join(TransferScheduler.Priority.BACKGROUND);
+                                try {
+                                    if (TransferScheduler.currentPriority() == TransferScheduler.Priority.BACKGROUND) {
+                                        fetched.countDown();
+                                    }
+                                } finally {
+                                    fetch.close();
+                                }
+                            }
+                        });
+                        serve.start();
+                        serve.join();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        replicate.close();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(fetched.await(5, TimeUnit.SECONDS));
+    }
+
+    // Send a file through a local socket as a transfer of priority. Returns bytes received
+    private long send(TransferScheduler scheduler, TransferScheduler.Priority priority) throws Exception {
+        File source = new File(directory, "source");
+        try (RandomAccessFile output = new RandomAccessFile(source, "rw")) {
+            output.setLength(FILE_SIZE);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TransferScheduler.Transfer transfer = scheduler.begin(priority);
+                    try (Socket socket = SocketChannel.open(server.getLocalAddress()).socket()) {
+                        FileTransfer.sendFile(socket, source.getPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        transfer.close();
+                    }
+                }
+            });
+            sender.start();
+            long received;
+            try (Socket socket = server.accept().socket()) {
+                received = FileTransfer.receiveFile(socket, new File(directory, "destination").getPath(), null);
+            }
+            sender.join();
+            return received;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.cs425;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import com.cs425.fileSystem.CodedVersion;
+import com.cs425.fileSystem.VersionIndex;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class VersionIndexTest extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public VersionIndexTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( VersionIndexTest.class );
+    }
+
+    public void testNamesSharingAPrefixAreKeptApart() {
+        VersionIndex index = new VersionIndex();
+        String shard = CodedVersion.shardName("a_1.txt", 2, 100);
+        for (String name: Arrays.asList("a_1.txt", "a_10.txt", "a_1x_1.txt", shard)) {
+            assertTrue(index.add(name));
+        }
+        assertFalse(index.add("a_1.txt"));
+        assertEquals(3, index.getVersionCount());
+        assertEquals(1, index.getShardCount());
+
+        assertEquals(new HashSet<>(Arrays.asList("a_1.txt", shard)), new HashSet<>(index.namesOf("a_1.txt")));
+        assertEquals(Collections.singletonList(shard), index.shardsOf("a_1.txt"));
+        assertEquals(Collections.singletonList("a_10.txt"), index.namesOf("a_10.txt"));
+        assertTrue(index.containsShard(shard));
+        assertFalse(index.containsVersion(shard));
+
+        assertTrue(index.remove("a_1.txt"));
+        assertFalse(index.remove("a_1.txt"));
+        assertFalse(index.contains("a_1.txt"));
+        assertTrue(index.contains("a_10.txt"));
+        assertEquals(new HashSet<>(Arrays.asList("a_10.txt", "a_1x_1.txt", shard)), index.names());
+    }
+
+    public void testLatestBeforeSkipsShardsAndNewerVersions() {
+        VersionIndex index = new VersionIndex();
+        for (String name: Arrays.asList("b_2", "b_5", "b_9", CodedVersion.shardName("b_7", 0, 10), "c_6")) {
+            index.add(name);
+        }
+        assertEquals("b_5", index.latestBefore("b_8"));
+        assertEquals("b_5", index.latestBefore("b_9"));
+        assertEquals("b_2", index.latestBefore("b_5"));
+        assertNull(index.latestBefore("b_2"));
+        assertNull(index.latestBefore("d_3"));
+    }
+
+    public void testNamesContainingTheSeparatorAreNotShards() {
+        VersionIndex index = new VersionIndex();
+        for (String name: Arrays.asList("notes~old_1.txt", "notes~1~2_1", "x~3_2.txt~4", CodedVersion.shardName("notes~old_1.txt", 1, 50))) {
+            assertTrue(index.add(name));
+        }
+        assertEquals(3, index.getVersionCount());
+        assertEquals(1, index.getShardCount());
+        assertFalse(CodedVersion.isShard("notes~old_1.txt"));
+        assertFalse(CodedVersion.isShard("notes~1~2_1"));
+        assertEquals("notes~old_1.txt", CodedVersion.versionOf(CodedVersion.shardName("notes~old_1.txt", 1, 50)));
+        assertEquals(Collections.singletonList(CodedVersion.shardName("notes~old_1.txt", 1, 50)), index.shardsOf("notes~old_1.txt"));
+        assertEquals("notes~old_1.txt", index.latestBefore("notes~old_2.txt"));
+    }
+}
@@ -0,0 +1,87 @@
+package com.cs425;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.*;
+
+import com.cs425.Messages.FileMessage;
+import com.cs425.Messages.MembershipMessage;
+import com.cs425.Messages.WireCodec;
+import com.cs425.membership.MembershipList.MemberList;
+import com.cs425.membership.MembershipList.MemberListEntry;
+
+/**
+ * Compares Java serialization, as messages were sent before, against WireCodec for a UDP ping, a coordinator
+ * reply naming the replicas of a file, and a ten member membership list.
+ * Reports encode and decode time; the encoded size of each message in both forms is printed when its trial starts.
+ *
+ * Run with: java -cp target/test-classes:target/classes:<deps> org.openjdk.jmh.Main WireCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireCodecBenchmark {
+
+    @Param({"ping", "reply", "memberList"})
+    public String message;
+
+    private Object value;
+    private byte[] serialized;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<MemberListEntry> nodes = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            nodes.add(new MemberListEntry(String.format("fa22-cs425-%02d.cs.illinois.edu", i), 7000, new Date(1665000000000L + i)));
+        }
+
+        switch (message) {
+            case "ping":
+                value = new MembershipMessage(MembershipMessage.MessageType.Ping, nodes.get(0));
+                break;
+            case "reply":
+                value = new FileMessage(FileMessage.MessageType.Ok, "dataset_v12.csv", new ArrayList<>(nodes.subList(0, 4)), 12, FileMessage.Destination.Client);
+                break;
+            default:
+                MemberList memberList = new MemberList(nodes.get(0));
+                for (MemberListEntry node: nodes) {
+                    memberList.addEntry(node);
+                }
+                memberList.updateCoordinator(nodes.get(3));
+                value = memberList;
+        }
+        serialized = SerializationUtils.serialize((Serializable) value);
+        encoded = WireCodec.encode(value);
+        System.out.println("\n" + message + ": " + serialized.length + " bytes serialized, " + encoded.length + " bytes encoded");
+    }
+
+    @Benchmark
+    public byte[] serializationEncode() {
+        return SerializationUtils.serialize((Serializable) value);
+    }
+
+    @Benchmark
+    public Object serializationDecode() {
+        return SerializationUtils.deserialize(serialized);
+    }
+
+    @Benchmark
+    public byte[] codecEncode() throws IOException {
+        return WireCodec.encode(value);
+    }
+
+    @Benchmark
+    public Object codecDecode() throws IOException, ClassNotFoundException {
+        return WireCodec.decode(encoded);
+    }
+}
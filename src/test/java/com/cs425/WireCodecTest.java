@@ -0,0 +1,136 @@
+package com.cs425;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.cs425.Messages.FileMessage;
+import com.cs425.Messages.MembershipMessage;
+import com.cs425.Messages.WireCodec;
+import com.cs425.fileSystem.ChunkChecksums;
+import com.cs425.membership.MembershipList.MemberList;
+import com.cs425.membership.MembershipList.MemberListEntry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class WireCodecTest extends TestCase {
+    private final MemberListEntry first = new MemberListEntry("fa22-cs425-01.cs.illinois.edu", 7001, new Date(1000));
+    private final MemberListEntry second = new MemberListEntry("fa22-cs425-02.cs.illinois.edu", 7002, new Date(2000));
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WireCodecTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( WireCodecTest.class );
+    }
+
+    public void testFileMessageRoundTrip() throws Exception {
+        FileMessage message = new FileMessage(FileMessage.MessageType.ChainPut, "notes_v3.txt", Arrays.asList(first, second, first), 3, FileMessage.Destination.FileServer);
+        message.setChecksums(new ChunkChecksums(5, new int[] {42}));
+        message.setBaseFile("notes_v2.txt");
+        message.setCompressed(true);
+
+        FileMessage decoded = (FileMessage) roundTrip(message);
+        assertEquals(FileMessage.MessageType.ChainPut, decoded.getMessageType());
+        assertEquals(FileMessage.Destination.FileServer, decoded.getDestination());
+        assertEquals("notes_v3.txt", decoded.getFile());
+        assertEquals(Arrays.asList(first, second, first), decoded.getNodes());
+        assertEquals(3, decoded.getVersion());
+        assertEquals(message.getChecksums(), decoded.getChecksums());
+        assertEquals("notes_v2.txt", decoded.getBaseFile());
+        assertTrue(decoded.isCompressed());
+        assertFalse(decoded.isBackground());
+        assertFalse(decoded.isComplete());
+        assertNull(decoded.getDelta());
+        assertNull(decoded.getFilesOnNode());
+
+        TreeMap<Integer, Set<MemberListEntry>> versions = new TreeMap<>();
+        versions.put(1, new HashSet<>(Arrays.asList(first)));
+        versions.put(2, new HashSet<>(Arrays.asList(first, second)));
+        FileMessage range = new FileMessage(FileMessage.MessageType.Ok, "notes.txt", versions, FileMessage.Destination.Client);
+        assertEquals(versions, ((FileMessage) roundTrip(range)).getVersionData());
+
+        FileMessage stored = new FileMessage(FileMessage.MessageType.StoreReport, new HashSet<>(Arrays.asList("a_v1", "b_v4")), FileMessage.Destination.Coordinator);
+        stored.setDeletedVersions(new HashSet<>(Arrays.asList("c_7")));
+        FileMessage decodedStored = (FileMessage) roundTrip(stored);
+        assertEquals(stored.getFilesOnNode(), decodedStored.getFilesOnNode());
+        assertEquals(stored.getDeletedVersions(), decodedStored.getDeletedVersions());
+        assertNull(decoded.getDeletedVersions());
+
+        FileMessage putOk = new FileMessage(FileMessage.MessageType.PutOk, "notes.txt", Arrays.asList(second), 4, FileMessage.Destination.Coordinator);
+        putOk.setComplete(true);
+        assertTrue(((FileMessage) roundTrip(putOk)).isComplete());
+
+        Map<String, List<MemberListEntry>> placements = new HashMap<>();
+        placements.put("a_1", Arrays.asList(first, second));
+        placements.put("b_3", Arrays.asList(second));
+        FileMessage reserved = new FileMessage(FileMessage.MessageType.Ok, FileMessage.Destination.Client);
+        reserved.setPlacements(placements);
+        assertEquals(placements, ((FileMessage) roundTrip(reserved)).getPlacements());
+        assertNull(decoded.getPlacements());
+    }
+
+    public void testMembershipRoundTrip() throws Exception {
+        MembershipMessage ping = (MembershipMessage) roundTrip(new MembershipMessage(MembershipMessage.MessageType.Ping, first));
+        assertEquals(MembershipMessage.MessageType.Ping, ping.getMessageType());
+        assertEquals(first, ping.getSubjectEntry());
+        assertNull(((MembershipMessage) roundTrip(new MembershipMessage(MembershipMessage.MessageType.IntroducerCheckAlive, null))).getSubjectEntry());
+
+        MemberList memberList = new MemberList(first);
+        memberList.addEntry(second);
+        memberList.updateCoordinator(second);
+        MemberList decoded = (MemberList) roundTrip(memberList);
+        assertEquals(memberList.getMemberList(), decoded.getMemberList());
+        assertEquals(first, decoded.getOwner());
+        assertEquals(second, decoded.getCoordinator());
+    }
+
+    public void testNodesAreInterned() throws Exception {
+        // Written once per message, and decoded to the same entry every time
+        List<MemberListEntry> repeated = Arrays.asList(first, first, first, first);
+        FileMessage message = new FileMessage(FileMessage.MessageType.Ok, "file", repeated, FileMessage.Destination.Client);
+        FileMessage once = new FileMessage(FileMessage.MessageType.Ok, "file", Arrays.asList(first), FileMessage.Destination.Client);
+        assertEquals(WireCodec.encode(once).length + 3, WireCodec.encode(message).length);
+
+        List<MemberListEntry> decoded = ((FileMessage) roundTrip(message)).getNodes();
+        assertSame(decoded.get(0), decoded.get(3));
+        assertSame(decoded.get(0), ((MembershipMessage) roundTrip(new MembershipMessage(MembershipMessage.MessageType.Ack, first))).getSubjectEntry());
+    }
+
+    public void testOtherObjectsAreSerialized() throws Exception {
+        assertEquals("not a message", roundTrip("not a message"));
+        assertNull(roundTrip(null));
+    }
+
+    public void testUnknownVersionIsRejected() throws Exception {
+        byte[] encoded = WireCodec.encode(new MembershipMessage(MembershipMessage.MessageType.Ping, first));
+        encoded[0] = WireCodec.VERSION + 1;
+        try {
+            WireCodec.decode(encoded);
+            fail("Decoded a message of an unknown version");
+        } catch (StreamCorruptedException e) {
+            // Expected
+        }
+    }
+
+    private static Object roundTrip(Object message) throws IOException, ClassNotFoundException {
+        return WireCodec.decode(WireCodec.encode(message));
+    }
+}
@@ -0,0 +1,126 @@
+package com.cs425;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.MutablePair;
+
+import com.cs425.fileSystem.WriteQuorum;
+import com.cs425.membership.MembershipList.MemberListEntry;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class WriteQuorumTest extends TestCase {
+    private final MemberListEntry first = new MemberListEntry("fa22-cs425-01.cs.illinois.edu", 7001, new Date(1000));
+    private final MemberListEntry second = new MemberListEntry("fa22-cs425-02.cs.illinois.edu", 7002, new Date(2000));
+    private final MemberListEntry third = new MemberListEntry("fa22-cs425-03.cs.illinois.edu", 7003, new Date(3000));
+    private final MemberListEntry fourth = new MemberListEntry("fa22-cs425-04.cs.illinois.edu", 7004, new Date(4000));
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WriteQuorumTest( String testName ) {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite() {
+        return new TestSuite( WriteQuorumTest.class );
+    }
+
+    // Records what a write reports, counting down done on its last report
+    private static class RecordingListener implements WriteQuorum.Listener {
+        final List<List<MemberListEntry>> reports = Collections.synchronizedList(new ArrayList<>());
+        final List<Boolean> completes = Collections.synchronizedList(new ArrayList<>());
+        final List<MemberListEntry> retried = Collections.synchronizedList(new ArrayList<>());
+        final List<MemberListEntry> retryable;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean failed;
+
+        RecordingListener(List<MemberListEntry> retryable) {
+            this.retryable = retryable;
+        }
+
+        @Override
+        public void stored(List<MemberListEntry> nodes, boolean complete) {
+            reports.add(new ArrayList<>(nodes));
+            completes.add(complete);
+            if (complete) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void failed() {
+            failed = true;
+            done.countDown();
+        }
+
+        @Override
+        public boolean retry(MemberListEntry node, List<MemberListEntry> holders) {
+            retried.add(node);
+            return retryable.contains(node);
+        }
+    }
+
+    private static BlockingQueue<MutablePair<MemberListEntry, Boolean>> results(Object... nodesAndResults) {
+        BlockingQueue<MutablePair<MemberListEntry, Boolean>> results = new LinkedBlockingQueue<>();
+        for (int i = 0; i < nodesAndResults.length; i += 2) {
+            results.add(MutablePair.of((MemberListEntry) nodesAndResults[i], (Boolean) nodesAndResults[i + 1]));
+        }
+        return results;
+    }
+
+    public void testAllStoredIsOneCompleteReport() throws Exception {
+        RecordingListener listener = new RecordingListener(Collections.<MemberListEntry>emptyList());
+        int stored = WriteQuorum.complete(results(first, true, second, true), 2, 2, listener);
+
+        assertEquals(2, stored);
+        assertEquals(Arrays.asList(Arrays.asList(first, second)), listener.reports);
+        assertEquals(Arrays.asList(true), listener.completes);
+    }
+
+    public void testLateReplicasReportedAfterQuorum() throws Exception {
+        RecordingListener listener = new RecordingListener(Collections.<MemberListEntry>emptyList());
+        int stored = WriteQuorum.complete(results(first, true, second, true, third, true, fourth, true), 4, 2, listener);
+
+        assertEquals(2, stored);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList(first, second), Arrays.asList(third, fourth)), listener.reports);
+        assertEquals(Arrays.asList(false, true), listener.completes);
+        assertTrue(listener.retried.isEmpty());
+    }
+
+    public void testFailedReplicasRetriedFromHolders() throws Exception {
+        // third fails before the quorum is reached and fourth after, only fourth can fetch the version again
+        RecordingListener listener = new RecordingListener(Arrays.asList(fourth));
+        int stored = WriteQuorum.complete(results(first, true, third, false, second, true, fourth, false), 4, 2, listener);
+
+        assertEquals(2, stored);
+        assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList(first, second), Arrays.asList(fourth)), listener.reports);
+        assertEquals(Arrays.asList(false, true), listener.completes);
+        assertEquals(Arrays.asList(third, fourth), listener.retried);
+    }
+
+    public void testNoReplicaStoredFails() throws Exception {
+        RecordingListener listener = new RecordingListener(Collections.<MemberListEntry>emptyList());
+        int stored = WriteQuorum.complete(results(first, false, second, false), 2, 2, listener);
+
+        assertEquals(0, stored);
+        assertTrue(listener.failed);
+        assertTrue(listener.reports.isEmpty());
+    }
+}